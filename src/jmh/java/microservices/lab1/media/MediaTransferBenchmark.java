@@ -0,0 +1,153 @@
+package microservices.lab1.media;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.util.StreamUtils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the previous serving path (resource input stream copied into the
+ * response output stream) with {@code FileChannel.transferTo} onto a socket,
+ * which is what Tomcat's sendfile does. Both send a 64 MiB file over loopback.
+ * <p>
+ * One operation is one MiB sent, so the score reads as MiB/s. The
+ * {@code cpuNanos} and {@code bytes} counters are the serving thread's CPU time
+ * (user + system) and the bytes it sent, summed over each iteration; divide one
+ * by the other for the CPU cost per byte, since JMH cannot aggregate a ratio.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MediaTransferBenchmark {
+
+    private static final int MEGABYTE = 1024 * 1024;
+    private static final int FILE_SIZE = 64 * MEGABYTE;
+
+    private Path file;
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private OutputStream responseStream;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("media-benchmark", ".mp4");
+        byte[] chunk = new byte[MEGABYTE];
+        new Random(42).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < FILE_SIZE / MEGABYTE; i++) {
+                out.write(chunk);
+            }
+        }
+
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        Thread drain = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(MEGABYTE);
+            try {
+                while (peer.read(buffer) != -1) {
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                // Socket closed at tear down.
+            }
+        }, "benchmark-drain");
+        drain.setDaemon(true);
+        drain.start();
+
+        // A plain OutputStream, like the servlet response stream, so the JDK
+        // cannot shortcut the copy into a channel transfer.
+        OutputStream socket = Channels.newOutputStream(client);
+        responseStream = new FilterOutputStream(socket) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILE_SIZE / MEGABYTE)
+    public long resourceStreamCopy(Cost cost) throws IOException {
+        long cpu = cost.cpuTime();
+        long copied;
+        try (InputStream in = Files.newInputStream(file)) {
+            copied = StreamUtils.copy(in, responseStream);
+        }
+        cost.record(copied, cpu);
+        return copied;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILE_SIZE / MEGABYTE)
+    public long zeroCopyTransfer(Cost cost) throws IOException {
+        long cpu = cost.cpuTime();
+        long position = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (position < FILE_SIZE) {
+                position += channel.transferTo(position, FILE_SIZE - position, client);
+            }
+        }
+        cost.record(position, cpu);
+        return position;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Cost {
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        public long bytes;
+        public long cpuNanos;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            cpuNanos = 0;
+        }
+
+        long cpuTime() {
+            return THREADS.getCurrentThreadCpuTime();
+        }
+
+        void record(long sent, long cpuBefore) {
+            cpuNanos += THREADS.getCurrentThreadCpuTime() - cpuBefore;
+            bytes += sent;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package microservices.lab1.media.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query and autocomplete latency of {@link InvertedIndex} over a million synthetic
+ * tracks with Zipf-skewed title words, in sample-time mode for the tail latencies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchIndexBenchmark {
+
+    private static final int DOCUMENTS = 1_000_000;
+    private static final int WORDS = 50_000;
+    private static final int PAGE = 20;
+
+    private InvertedIndex index;
+    private int nextQuery;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        index = new InvertedIndex(SearchHit.Type.MUSIC);
+        for (int id = 1; id <= DOCUMENTS; id++) {
+            String title = word(random) + " " + word(random) + " " + word(random);
+            index.put(new SearchDocument(id, title, "artist" + random.nextInt(20_000), "genre" + random.nextInt(20)));
+        }
+    }
+
+    @Benchmark
+    public SearchPage commonTerm() {
+        return index.search(List.of("word0"), PAGE);
+    }
+
+    @Benchmark
+    public SearchPage genre() {
+        return index.search(List.of("genre7"), PAGE);
+    }
+
+    @Benchmark
+    public SearchPage rareTerm() {
+        nextQuery = (nextQuery + 1) % 1000;
+        return index.search(List.of("word" + (WORDS - 1 - nextQuery)), PAGE);
+    }
+
+    @Benchmark
+    public SearchPage commonAndGenre() {
+        return index.search(List.of("word1", "genre3"), PAGE);
+    }
+
+    @Benchmark
+    public SearchPage threeTerms() {
+        nextQuery = (nextQuery + 1) % 100;
+        return index.search(List.of("word" + nextQuery, "word" + (nextQuery + 1), "genre5"), PAGE);
+    }
+
+    @Benchmark
+    public List<String> suggestShortPrefix() {
+        return index.suggest("wo", 10);
+    }
+
+    @Benchmark
+    public List<String> suggestWordPrefix() {
+        nextQuery = (nextQuery + 1) % 1000;
+        return index.suggest("word" + nextQuery, 10);
+    }
+
+    private static String word(Random random) {
+        return "word" + ((int) Math.pow(WORDS, random.nextDouble()) - 1);
+    }
+}
@@ -2,8 +2,10 @@ package microservices.lab1;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class Lab1Application {
 	public static void main(String[] args) {
 		SpringApplication.run(Lab1Application.class, args);
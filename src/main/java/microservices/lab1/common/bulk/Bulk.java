@@ -0,0 +1,52 @@
+package microservices.lab1.common.bulk;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import microservices.lab1.common.exception.CustomException;
+import org.springframework.http.HttpStatus;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A rejected item of a bulk request is reported in its own {@link BulkItemResult}
+ * instead of failing the rest.
+ */
+public final class Bulk {
+
+    public static final int MAX_ITEMS = 1000;
+
+    private Bulk() {
+    }
+
+    public static void checkSize(List<?> items) {
+        if (items == null || items.isEmpty()) {
+            throw new CustomException("Список елементів порожній.");
+        }
+        if (items.size() > MAX_ITEMS) {
+            throw new CustomException("Забагато елементів у запиті: максимум " + MAX_ITEMS + ".");
+        }
+    }
+
+    /**
+     * {@code null} if the item is valid.
+     */
+    public static String validate(Validator validator, Object item) {
+        if (item == null) {
+            return "Елемент не передано.";
+        }
+        Set<ConstraintViolation<Object>> violations = validator.validate(item);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining("; "));
+    }
+
+    public static HttpStatus status(List<? extends BulkItemResult<?>> results, HttpStatus success) {
+        return results.stream().allMatch(BulkItemResult::succeeded) ? success : HttpStatus.MULTI_STATUS;
+    }
+}
@@ -0,0 +1,20 @@
+package microservices.lab1.common.bulk;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.http.HttpStatus;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BulkItemResult<T>(int index, Long id, int status, T item, String error) {
+
+    public static <T> BulkItemResult<T> ok(int index, HttpStatus status, Long id, T item) {
+        return new BulkItemResult<>(index, id, status.value(), item, null);
+    }
+
+    public static <T> BulkItemResult<T> failed(int index, HttpStatus status, Long id, String error) {
+        return new BulkItemResult<>(index, id, status.value(), null, error);
+    }
+
+    public boolean succeeded() {
+        return error == null;
+    }
+}
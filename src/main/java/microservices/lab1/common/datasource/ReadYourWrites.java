@@ -0,0 +1,64 @@
+package microservices.lab1.common.datasource;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.util.WebUtils;
+
+import java.time.Duration;
+
+/**
+ * When the client of the current request last committed a write, kept on the
+ * request and in a cookie, so its reads skip replicas that may not have it yet.
+ */
+final class ReadYourWrites {
+
+    static final String COOKIE = "catalog-last-write";
+
+    private static final String ATTRIBUTE = ReadYourWrites.class.getName();
+
+    private ReadYourWrites() {
+    }
+
+    /**
+     * Epoch millis, or 0 if the client has not written recently.
+     */
+    static long lastWrite() {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return 0;
+        }
+        if (attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) instanceof Long at) {
+            return at;
+        }
+        Cookie cookie = WebUtils.getCookie(attributes.getRequest(), COOKIE);
+        if (cookie == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(cookie.getValue());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static void record(long at, Duration keepFor) {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return;
+        }
+        attributes.setAttribute(ATTRIBUTE, at, RequestAttributes.SCOPE_REQUEST);
+        HttpServletResponse response = attributes.getResponse();
+        if (response != null && !response.isCommitted()) {
+            ResponseCookie cookie = ResponseCookie.from(COOKIE, Long.toString(at))
+                    .path("/")
+                    .httpOnly(true)
+                    .sameSite("Lax")
+                    .maxAge(keepFor)
+                    .build();
+            response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package microservices.lab1.common.datasource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import microservices.lab1.common.transaction.AfterCommit;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends connections of read-only transactions to a replica and everything else
+ * to the primary. Must sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, so
+ * the choice is made after the transaction is marked read-only.
+ * <p>
+ * A probe at time {@code t} reporting a lag of {@code s} seconds shows that the
+ * replica holds every write committed before {@code t - s - 1s}. Replica reads
+ * never fill the second-level or query caches.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements MeterBinder, AutoCloseable {
+
+    private static final String LAG_COLUMN = "Seconds_Behind_Source";
+    private static final Status DOWN = new Status(false, 0, Long.MIN_VALUE);
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagMillis;
+    private final int probeTimeoutSeconds;
+    private final String lagQuery;
+    private final Duration stickiness;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas,
+                                    ReplicaRoutingProperties properties) {
+        this.primary = primary;
+        replicas.forEach((name, dataSource) -> this.replicas.add(new Replica(name, dataSource)));
+        this.maxLagMillis = properties.maxLag().toMillis();
+        this.probeTimeoutSeconds = (int) Math.max(1, properties.connectTimeout().toSeconds());
+        this.lagQuery = properties.lagQuery();
+        this.stickiness = properties.maxLag().plus(properties.healthCheckInterval()).plusSeconds(1);
+        checkReplicas();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                AfterCommit.run(() -> ReadYourWrites.record(System.currentTimeMillis(), stickiness));
+            }
+            return primary.getConnection();
+        }
+        long lastWrite = ReadYourWrites.lastWrite();
+        int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (replica.serves(lastWrite, maxLagMillis)) {
+                Connection connection;
+                try {
+                    connection = replica.dataSource.getConnection();
+                } catch (SQLException e) {
+                    replica.status = DOWN;
+                    continue;
+                }
+                skipCachePuts();
+                return connection;
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    @Scheduled(fixedDelayString = "${catalog.datasource.routing.health-check-interval:PT5S}",
+            initialDelayString = "${catalog.datasource.routing.health-check-interval:PT5S}")
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            replica.status = probe(replica.dataSource);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Replica replica : replicas) {
+            Gauge.builder("catalog.datasource.replica.lag", replica,
+                            r -> r.status.healthy() ? r.status.lagMillis() / 1000.0 : Double.NaN)
+                    .tag("replica", replica.name)
+                    .baseUnit("seconds")
+                    .description("Replication lag at the last probe, NaN while the replica is out of rotation")
+                    .register(registry);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+        if (primary instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private static void skipCachePuts() {
+        for (Object resource : TransactionSynchronizationManager.getResourceMap().values()) {
+            if (resource instanceof EntityManagerHolder holder) {
+                holder.getEntityManager().unwrap(Session.class).setCacheMode(CacheMode.GET);
+            }
+        }
+    }
+
+    private Status probe(DataSource dataSource) {
+        long checkedAt = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(probeTimeoutSeconds);
+            try (ResultSet row = statement.executeQuery(lagQuery)) {
+                if (!row.next()) {
+                    return DOWN;
+                }
+                long seconds = row.getLong(LAG_COLUMN);
+                if (row.wasNull()) {
+                    return DOWN;
+                }
+                long lagMillis = seconds * 1000;
+                return new Status(true, lagMillis, checkedAt - lagMillis - 1000);
+            }
+        } catch (SQLException e) {
+            return DOWN;
+        }
+    }
+
+    /**
+     * Every write committed before {@code appliedUpTo} is on the replica.
+     */
+    private record Status(boolean healthy, long lagMillis, long appliedUpTo) {
+    }
+
+    private static final class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private volatile Status status = DOWN;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        boolean serves(long lastWrite, long maxLagMillis) {
+            Status current = status;
+            return current.healthy() && current.lagMillis() <= maxLagMillis && current.appliedUpTo() >= lastWrite;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package microservices.lab1.common.datasource;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Replicas use the primary's driver and, unless given, its credentials.
+ * {@code lagQuery} must return a {@code Seconds_Behind_Source} column.
+ */
+@ConfigurationProperties("catalog.datasource.routing")
+public record ReplicaRoutingProperties(
+        boolean enabled,
+        @DefaultValue List<Replica> replicas,
+        @DefaultValue("PT5S") Duration maxLag,
+        @DefaultValue("PT5S") Duration healthCheckInterval,
+        @DefaultValue("PT1S") Duration connectTimeout,
+        @DefaultValue("SHOW REPLICA STATUS") String lagQuery) {
+
+    public record Replica(String url, String username, String password) {
+    }
+}
@@ -0,0 +1,8 @@
+package microservices.lab1.common.exception;
+
+public class PreconditionFailedException extends CustomException {
+
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,44 @@
+package microservices.lab1.common.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Writes entities as newline-delimited JSON, clearing the persistence context
+ * every {@value #BATCH_SIZE} rows. Must be called inside the transaction that
+ * owns the stream.
+ */
+@Component
+@RequiredArgsConstructor
+public class NdjsonWriter {
+
+    static final int BATCH_SIZE = 500;
+
+    private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+
+    public <E, D> long write(Stream<E> rows, Function<E, D> mapper, Class<D> type, OutputStream out)
+            throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(type);
+        long count = 0;
+        for (Iterator<E> iterator = rows.iterator(); iterator.hasNext(); ) {
+            out.write(writer.writeValueAsBytes(mapper.apply(iterator.next())));
+            out.write('\n');
+            if (++count % BATCH_SIZE == 0) {
+                out.flush();
+                entityManager.clear();
+            }
+        }
+        out.flush();
+        return count;
+    }
+}
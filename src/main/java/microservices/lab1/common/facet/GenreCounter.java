@@ -0,0 +1,68 @@
+package microservices.lab1.common.facet;
+
+import microservices.lab1.common.projection.GenreCount;
+import microservices.lab1.common.transaction.AfterCommit;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Row counts per genre of one catalog, adjusted after each commit and
+ * periodically {@link #reset} from a {@code group by} to repair drift.
+ */
+public class GenreCounter {
+
+    private static final Comparator<GenreCount> LARGEST_FIRST = Comparator.comparingLong(GenreCount::count).reversed()
+            .thenComparing(GenreCount::genre);
+
+    private volatile ConcurrentHashMap<String, Long> counts = new ConcurrentHashMap<>();
+
+    public void increment(String genre) {
+        AfterCommit.run(() -> add(genre, 1));
+    }
+
+    public void decrement(String genre) {
+        AfterCommit.run(() -> add(genre, -1));
+    }
+
+    public void move(String from, String to) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        AfterCommit.run(() -> {
+            add(from, -1);
+            add(to, 1);
+        });
+    }
+
+    public void reset(Collection<GenreCount> current) {
+        ConcurrentHashMap<String, Long> fresh = new ConcurrentHashMap<>();
+        for (GenreCount count : current) {
+            if (count.genre() != null && count.count() > 0) {
+                fresh.put(count.genre(), count.count());
+            }
+        }
+        counts = fresh;
+    }
+
+    public List<GenreCount> counts() {
+        return counts.entrySet().stream()
+                .map(entry -> new GenreCount(entry.getKey(), entry.getValue()))
+                .sorted(LARGEST_FIRST)
+                .collect(Collectors.toList());
+    }
+
+    private void add(String genre, long delta) {
+        if (genre == null) {
+            return;
+        }
+        counts.compute(genre, (key, count) -> {
+            long next = (count != null ? count : 0) + delta;
+            return next > 0 ? next : null;
+        });
+    }
+}
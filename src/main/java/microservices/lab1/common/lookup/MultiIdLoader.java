@@ -0,0 +1,48 @@
+package microservices.lab1.common.lookup;
+
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.Session;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Loads entities by id, reading only the misses of the persistence context and
+ * the second-level cache with one query. Must be called inside a transaction.
+ */
+@Component
+@RequiredArgsConstructor
+public class MultiIdLoader {
+
+    private final EntityManager entityManager;
+
+    /**
+     * In the order of {@code ids}, with {@code null} for ids that do not exist.
+     */
+    public <T> List<T> load(Class<T> type, List<Long> ids) {
+        List<Long> distinct = ids.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        if (distinct.isEmpty()) {
+            return Collections.nCopies(ids.size(), null);
+        }
+
+        List<T> loaded = entityManager.unwrap(Session.class)
+                .byMultipleIds(type)
+                .withBatchSize(distinct.size())
+                .enableOrderedReturn(true)
+                .multiLoad(distinct);
+
+        Map<Long, T> byId = new HashMap<>();
+        for (int i = 0; i < distinct.size(); i++) {
+            if (loaded.get(i) != null) {
+                byId.put(distinct.get(i), loaded.get(i));
+            }
+        }
+        return ids.stream().map(id -> id != null ? byId.get(id) : null).collect(Collectors.toList());
+    }
+}
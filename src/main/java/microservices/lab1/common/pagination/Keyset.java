@@ -0,0 +1,44 @@
+package microservices.lab1.common.pagination;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A page holds rows with {@code id > after} in id order; its last id is the
+ * cursor for the next one.
+ */
+public final class Keyset {
+
+    public static final int MAX_LIMIT = 200;
+
+    private Keyset() {
+    }
+
+    public static long after(Long after) {
+        return after != null ? after : 0;
+    }
+
+    public static int limit(int limit) {
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    /**
+     * Adds a {@code Link: rel="next"} header when the page is full.
+     */
+    public static <T> ResponseEntity<List<T>> response(List<T> page, int limit, Function<T, Long> idOf) {
+        HttpHeaders headers = new HttpHeaders();
+        if (!page.isEmpty() && page.size() >= limit(limit)) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", idOf.apply(page.get(page.size() - 1)))
+                    .build()
+                    .toUriString();
+            headers.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return new ResponseEntity<>(page, headers, HttpStatus.OK);
+    }
+}
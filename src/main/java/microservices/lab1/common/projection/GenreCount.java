@@ -0,0 +1,4 @@
+package microservices.lab1.common.projection;
+
+public record GenreCount(String genre, long count) {
+}
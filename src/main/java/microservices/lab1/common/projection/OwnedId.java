@@ -0,0 +1,4 @@
+package microservices.lab1.common.projection;
+
+public record OwnedId(Long ownerId, Long id) {
+}
@@ -0,0 +1,37 @@
+package microservices.lab1.common.version;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * Version of the catalogs, kept in the one row of {@code catalog_version} so every
+ * instance sees the same value. Writes bump it in their own transaction, so a
+ * rollback takes the bump back.
+ */
+@Component
+@RequiredArgsConstructor
+public class CatalogVersion {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void increment() {
+        jdbcTemplate.update("update catalog_version set version = version + 1, last_modified = ? where id = 1",
+                Timestamp.from(Instant.now()));
+    }
+
+    public Stamp current() {
+        return jdbcTemplate.queryForObject("select version, last_modified from catalog_version where id = 1",
+                (row, rowNum) -> new Stamp(row.getLong("version"), row.getTimestamp("last_modified").getTime()));
+    }
+
+    public record Stamp(long version, long lastModified) {
+
+        public String etag() {
+            return "W/\"" + Long.toHexString(version) + "\"";
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package microservices.lab1.common.version;
+
+import microservices.lab1.common.exception.PreconditionFailedException;
+
+/**
+ * Strong entity tags built from a row's {@code @Version}.
+ */
+public final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    public static String of(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * {@code null} when the header is absent or {@code *}. Weak or malformed tags
+     * never match.
+     */
+    public static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return Long.parseLong(tag.substring(1, tag.length() - 1));
+            } catch (NumberFormatException e) {
+                // Falls through to the failed precondition below.
+            }
+        }
+        throw new PreconditionFailedException("Некоректний заголовок If-Match: " + ifMatch);
+    }
+
+    public static void checkVersion(Long expectedVersion, long version) {
+        if (expectedVersion != null && expectedVersion != version) {
+            throw new PreconditionFailedException(
+                    "Запис змінено: очікувана версія " + expectedVersion + ", поточна " + version + ".");
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package microservices.lab1.media.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size LRU cache of 1 MiB media blocks in direct memory. A block being
+ * copied out is pinned, so eviction skips it. Files are identified by path,
+ * length and modification time, so the blocks of a replaced file age out.
+ */
+@Component
+public class MediaBlockCache implements MeterBinder {
+
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
+    private static final int NONE = -1;
+
+    private static final ThreadLocal<byte[]> COPY_CHUNK = ThreadLocal.withInitial(() -> new byte[COPY_CHUNK_SIZE]);
+
+    private final int capacity;
+    private final ByteBuffer[] blocks;
+    private final long[] blockKeys;
+    private final int[] blockLengths;
+    private final CachedFile[] owners;
+    private final int[] pins;
+    private final int[] previous;
+    private final int[] next;
+    private final int[] freeSlots;
+    private int freeCount;
+    private int head = NONE;
+    private int tail = NONE;
+
+    private final long[] tableKeys;
+    private final int[] tableSlots;
+    private final int tableMask;
+    private final long[] seen;
+
+    private final Map<Path, CachedFile> files = new HashMap<>();
+    private int nextFileId;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public MediaBlockCache(@Value("${media.cache.max-size:256MB}") DataSize maxSize) {
+        this.capacity = (int) Math.min(Integer.MAX_VALUE / 2, maxSize.toBytes() / BLOCK_SIZE);
+        this.blocks = new ByteBuffer[capacity];
+        this.blockKeys = new long[capacity];
+        this.blockLengths = new int[capacity];
+        this.owners = new CachedFile[capacity];
+        this.pins = new int[capacity];
+        this.previous = new int[capacity];
+        this.next = new int[capacity];
+        this.freeSlots = new int[capacity];
+        for (int slot = 0; slot < capacity; slot++) {
+            freeSlots[freeCount++] = capacity - 1 - slot;
+        }
+
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+        this.tableKeys = new long[tableSize];
+        this.tableSlots = new int[tableSize];
+        this.tableMask = tableSize - 1;
+        this.seen = new long[tableSize];
+        Arrays.fill(tableSlots, NONE);
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * A range is admitted on its second request. Whole files and ranges longer than
+     * a quarter of the cache never are, so they stay on the zero-copy path.
+     */
+    public synchronized boolean admit(MediaMetadata media, long position, long count) {
+        if (count <= 0 || count >= media.contentLength() || count > (long) capacity * BLOCK_SIZE / 4) {
+            return false;
+        }
+        CachedFile file = current(media);
+        boolean admitted = true;
+        for (long blockIndex = position / BLOCK_SIZE; blockIndex <= (position + count - 1) / BLOCK_SIZE; blockIndex++) {
+            if (file != null && find(key(file, blockIndex)) != NONE) {
+                continue;
+            }
+            long fingerprint = fingerprint(media, blockIndex);
+            int index = hash(fingerprint);
+            if (seen[index] != fingerprint) {
+                seen[index] = fingerprint;
+                admitted = false;
+            }
+        }
+        return admitted;
+    }
+
+    public void copy(MediaMetadata media, FileChannel channel, long position, long count, OutputStream out)
+            throws IOException {
+        byte[] chunk = COPY_CHUNK.get();
+        long end = position + count;
+        while (position < end) {
+            long blockIndex = position / BLOCK_SIZE;
+            int offset = (int) (position % BLOCK_SIZE);
+            int length = (int) Math.min(BLOCK_SIZE - offset, end - position);
+
+            int slot = acquire(media, blockIndex, channel);
+            if (slot == NONE) {
+                // Every block is pinned by other readers; read around the cache.
+                copyUncached(channel, position, length, out, chunk);
+            } else {
+                try {
+                    if (blockLengths[slot] < offset + length) {
+                        throw new EOFException("Media file is shorter than expected");
+                    }
+                    copyBlock(blocks[slot], offset, length, out, chunk);
+                } finally {
+                    release(slot);
+                }
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * Blocks still being copied out are left to age out.
+     */
+    public synchronized void evict(Path path) {
+        CachedFile file = files.remove(path);
+        if (file == null) {
+            return;
+        }
+        for (int slot = head; slot != NONE; ) {
+            int after = next[slot];
+            if (owners[slot] == file && pins[slot] == 0) {
+                unlink(slot);
+                remove(blockKeys[slot]);
+                owners[slot] = null;
+                file.resident--;
+                freeSlots[freeCount++] = slot;
+            }
+            slot = after;
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public synchronized int residentBlocks() {
+        return capacity - freeCount;
+    }
+
+    public synchronized int cachedFiles() {
+        return files.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("media.cache.hits", hits, LongAdder::sum)
+                .description("Media blocks served from the block cache")
+                .register(registry);
+        FunctionCounter.builder("media.cache.misses", misses, LongAdder::sum)
+                .description("Media blocks read from disk")
+                .register(registry);
+        FunctionCounter.builder("media.cache.evictions", evictions, LongAdder::sum)
+                .description("Media blocks evicted from the block cache")
+                .register(registry);
+        Gauge.builder("media.cache.size", this, cache -> (double) cache.residentBlocks() * BLOCK_SIZE)
+                .description("Direct memory held by cached media blocks")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("media.cache.files", this, MediaBlockCache::cachedFiles)
+                .description("Media files with blocks in the block cache")
+                .register(registry);
+    }
+
+    private CachedFile current(MediaMetadata media) {
+        CachedFile file = files.get(media.path());
+        return file != null && file.describes(media) ? file : null;
+    }
+
+    private CachedFile owner(MediaMetadata media) {
+        CachedFile file = current(media);
+        if (file == null) {
+            // New or replaced; blocks of a replaced file keep their old owner and age out.
+            file = new CachedFile(++nextFileId, media.path(), media.contentLength(), media.lastModified());
+            files.put(media.path(), file);
+        }
+        return file;
+    }
+
+    private int acquire(MediaMetadata media, long blockIndex, FileChannel channel) throws IOException {
+        if (blockIndex > Integer.MAX_VALUE) {
+            return NONE;
+        }
+
+        int slot;
+        synchronized (this) {
+            CachedFile file = current(media);
+            slot = file != null ? find(key(file, blockIndex)) : NONE;
+            if (slot != NONE) {
+                hits.increment();
+                pins[slot]++;
+                unlink(slot);
+                linkFirst(slot);
+                return slot;
+            }
+            misses.increment();
+            slot = claimSlot();
+            if (slot == NONE) {
+                return NONE;
+            }
+            pins[slot] = 1;
+        }
+
+        boolean loaded = false;
+        try {
+            load(slot, channel, blockIndex);
+            loaded = true;
+        } finally {
+            synchronized (this) {
+                if (!loaded) {
+                    pins[slot] = 0;
+                    freeSlots[freeCount++] = slot;
+                } else {
+                    CachedFile file = owner(media);
+                    long key = key(file, blockIndex);
+                    int existing = find(key);
+                    if (existing != NONE) {
+                        // Another reader loaded the same block first; keep theirs.
+                        pins[slot] = 0;
+                        freeSlots[freeCount++] = slot;
+                        pins[existing]++;
+                        unlink(existing);
+                        linkFirst(existing);
+                        slot = existing;
+                    } else {
+                        blockKeys[slot] = key;
+                        owners[slot] = file;
+                        file.resident++;
+                        insert(key, slot);
+                        linkFirst(slot);
+                    }
+                }
+            }
+        }
+        return slot;
+    }
+
+    private synchronized void release(int slot) {
+        pins[slot]--;
+    }
+
+    private int claimSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        for (int slot = tail; slot != NONE; slot = previous[slot]) {
+            if (pins[slot] == 0) {
+                unlink(slot);
+                remove(blockKeys[slot]);
+                forget(slot);
+                evictions.increment();
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    private void forget(int slot) {
+        CachedFile owner = owners[slot];
+        owners[slot] = null;
+        if (owner != null && --owner.resident == 0) {
+            files.remove(owner.path, owner);
+        }
+    }
+
+    private void load(int slot, FileChannel channel, long blockIndex) throws IOException {
+        ByteBuffer block = blocks[slot];
+        if (block == null) {
+            block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            blocks[slot] = block;
+        }
+        block.clear();
+        long position = blockIndex * BLOCK_SIZE;
+        while (block.hasRemaining()) {
+            if (channel.read(block, position + block.position()) < 0) {
+                break;
+            }
+        }
+        blockLengths[slot] = block.position();
+    }
+
+    private void copyBlock(ByteBuffer block, int offset, int length, OutputStream out, byte[] chunk) throws IOException {
+        while (length > 0) {
+            int count = Math.min(length, chunk.length);
+            block.get(offset, chunk, 0, count);
+            out.write(chunk, 0, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void copyUncached(FileChannel channel, long position, int length, OutputStream out, byte[] chunk)
+            throws IOException {
+        while (length > 0) {
+            int read = channel.read(ByteBuffer.wrap(chunk, 0, Math.min(length, chunk.length)), position);
+            if (read < 0) {
+                throw new EOFException("Media file is shorter than expected");
+            }
+            out.write(chunk, 0, read);
+            position += read;
+            length -= read;
+        }
+    }
+
+    private void linkFirst(int slot) {
+        previous[slot] = NONE;
+        next[slot] = head;
+        if (head != NONE) {
+            previous[head] = slot;
+        }
+        head = slot;
+        if (tail == NONE) {
+            tail = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        int before = previous[slot];
+        int after = next[slot];
+        if (before != NONE) {
+            next[before] = after;
+        } else {
+            head = after;
+        }
+        if (after != NONE) {
+            previous[after] = before;
+        } else {
+            tail = before;
+        }
+        previous[slot] = NONE;
+        next[slot] = NONE;
+    }
+
+    private int find(long key) {
+        for (int index = hash(key); tableSlots[index] != NONE; index = (index + 1) & tableMask) {
+            if (tableKeys[index] == key) {
+                return tableSlots[index];
+            }
+        }
+        return NONE;
+    }
+
+    private void insert(long key, int slot) {
+        int index = hash(key);
+        while (tableSlots[index] != NONE) {
+            index = (index + 1) & tableMask;
+        }
+        tableKeys[index] = key;
+        tableSlots[index] = slot;
+    }
+
+    private void remove(long key) {
+        int index = hash(key);
+        while (tableSlots[index] != NONE && tableKeys[index] != key) {
+            index = (index + 1) & tableMask;
+        }
+        if (tableSlots[index] == NONE) {
+            return;
+        }
+
+        // Backward-shift deletion keeps every probe sequence unbroken without tombstones.
+        int gap = index;
+        for (int probe = (gap + 1) & tableMask; tableSlots[probe] != NONE; probe = (probe + 1) & tableMask) {
+            int home = hash(tableKeys[probe]);
+            if (((probe - home) & tableMask) >= ((probe - gap) & tableMask)) {
+                tableKeys[gap] = tableKeys[probe];
+                tableSlots[gap] = tableSlots[probe];
+                gap = probe;
+            }
+        }
+        tableSlots[gap] = NONE;
+    }
+
+    private long key(CachedFile file, long blockIndex) {
+        return ((long) file.id << 32) | blockIndex;
+    }
+
+    private long fingerprint(MediaMetadata media, long blockIndex) {
+        long fingerprint = media.path().hashCode();
+        fingerprint = fingerprint * 31 + media.contentLength();
+        fingerprint = fingerprint * 31 + media.lastModified().toEpochMilli();
+        fingerprint = fingerprint * 31 + blockIndex;
+        // Zero marks an empty entry in the seen table.
+        return fingerprint | 1;
+    }
+
+    private int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & tableMask;
+    }
+
+    private static final class CachedFile {
+
+        private final int id;
+        private final Path path;
+        private final long length;
+        private final Instant lastModified;
+        private int resident;
+
+        private CachedFile(int id, Path path, long length, Instant lastModified) {
+            this.id = id;
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        private boolean describes(MediaMetadata media) {
+            return length == media.contentLength() && lastModified.equals(media.lastModified());
+        }
+    }
+}
@@ -1,61 +1,66 @@
 package microservices.lab1.media.controllers;
 
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import microservices.lab1.media.index.MediaIndex;
+import microservices.lab1.media.storage.ContentStore;
+import microservices.lab1.media.storage.MediaMetadata;
+import microservices.lab1.media.streaming.MediaStreamer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.util.StringUtils;
 
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.IOException;
 
 @RestController
 @RequestMapping("/media")
+@RequiredArgsConstructor
 public class MediaController {
 
-    private static final String MEDIA_DIR = "src/main/resources/media";
+    private final MediaIndex mediaIndex;
+    private final MediaStreamer mediaStreamer;
+    private final ContentStore contentStore;
+
+    @RequestMapping(value = "/objects/{sha256}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> headObject(@PathVariable("sha256") String sha256) {
+        return contentStore.find(sha256)
+                .map(media -> ResponseEntity.ok()
+                        .eTag(media.etag())
+                        .contentType(MediaType.parseMediaType(media.contentType()))
+                        .contentLength(media.contentLength())
+                        .<Void>build())
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 
     @RequestMapping("/stream/{title}")
-    public ResponseEntity<Resource> streamMedia(@PathVariable("title") String title) {
+    public void streamMedia(@PathVariable("title") String title,
+                            HttpServletRequest request,
+                            HttpServletResponse response) {
         try {
-            File file = findMediaFile(title);
+            MediaMetadata media = findMedia(title);
 
-            if (file == null) {
-                return ResponseEntity.notFound().build();
+            if (media == null) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
             }
 
-            Resource resource = new FileSystemResource(file);
-
-            String mimeType = Files.probeContentType(Paths.get(file.getAbsolutePath()));
-            if (mimeType == null) {
-                mimeType = "application/octet-stream";
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + media.fileName() + "\"");
+            mediaStreamer.stream(media, request, response);
+        } catch (IOException e) {
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             }
-
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(mimeType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getName() + "\"")
-                    .body(resource);
-        } catch (Exception e) {
-            return ResponseEntity.status(500).build();
         }
     }
 
-    private File findMediaFile(String title) {
+    private MediaMetadata findMedia(String title) {
         String sanitizedTitle = StringUtils.cleanPath(title);
-
-        File directory = new File(MEDIA_DIR);
-        if (directory.exists() && directory.isDirectory()) {
-            for (File file : directory.listFiles()) {
-                if (file.getName().startsWith(sanitizedTitle)) {
-                    return file;
-                }
-            }
-        }
-        return null;
+        return mediaIndex.find(sanitizedTitle).orElse(null);
     }
 }
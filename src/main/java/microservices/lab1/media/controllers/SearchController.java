@@ -0,0 +1,74 @@
+package microservices.lab1.media.controllers;
+
+import lombok.RequiredArgsConstructor;
+import microservices.lab1.common.pagination.Keyset;
+import microservices.lab1.media.search.SearchHit;
+import microservices.lab1.media.search.SearchIndex;
+import microservices.lab1.media.search.SearchPage;
+import microservices.lab1.music.services.MusicService;
+import microservices.lab1.video.services.VideoService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@RestController
+@RequestMapping("/api/search")
+@RequiredArgsConstructor
+public class SearchController {
+
+    private static final String TOTAL_COUNT = "X-Total-Count";
+
+    private final SearchIndex searchIndex;
+    private final MusicService musicService;
+    private final VideoService videoService;
+
+    @GetMapping
+    public ResponseEntity<List<SearchHit>> search(
+            @RequestParam String q,
+            @RequestParam(required = false) String type,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "20") int limit) {
+        Set<SearchHit.Type> types = type != null
+                ? EnumSet.of(SearchHit.Type.from(type))
+                : EnumSet.allOf(SearchHit.Type.class);
+        int pageSize = Keyset.limit(limit);
+        SearchPage page = searchIndex.search(q, types, offset, pageSize);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(TOTAL_COUNT, String.valueOf(page.total()));
+        int nextOffset = offset + pageSize;
+        if (nextOffset < Math.min(page.total(), SearchIndex.MAX_WINDOW)) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("offset", nextOffset)
+                    .replaceQueryParam("limit", Math.min(pageSize, SearchIndex.MAX_WINDOW - nextOffset))
+                    .build()
+                    .toUriString();
+            headers.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return new ResponseEntity<>(page.hits(), headers, HttpStatus.OK);
+    }
+
+    @PostMapping("/rebuild")
+    public ResponseEntity<Map<String, Integer>> rebuild() {
+        musicService.rebuildSearchIndex();
+        videoService.rebuildSearchIndex();
+
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        for (SearchHit.Type type : SearchHit.Type.values()) {
+            sizes.put(type.value(), searchIndex.size(type));
+        }
+        return ResponseEntity.ok(sizes);
+    }
+}
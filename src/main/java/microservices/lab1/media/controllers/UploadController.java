@@ -0,0 +1,92 @@
+package microservices.lab1.media.controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import microservices.lab1.media.upload.ResumableUploads;
+import microservices.lab1.media.upload.UploadSession;
+import microservices.lab1.media.upload.UploadStatus;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Optional;
+
+/**
+ * Resumable uploads. A finished upload becomes a row through
+ * {@code POST /api/music/uploads/{id}} or {@code POST /api/videos/uploads/{id}}.
+ */
+@RestController
+@RequestMapping("/media/uploads")
+@RequiredArgsConstructor
+public class UploadController {
+
+    public static final String UPLOAD_LENGTH = "Upload-Length";
+    public static final String UPLOAD_OFFSET = "Upload-Offset";
+
+    private final ResumableUploads resumableUploads;
+
+    @PostMapping
+    public ResponseEntity<UploadStatus> createUpload(@RequestHeader(UPLOAD_LENGTH) long length,
+                                                     @RequestParam(required = false) String fileName) {
+        try {
+            UploadSession session = resumableUploads.create(length, fileName);
+            return ResponseEntity.created(URI.create("/media/uploads/" + session.id()))
+                    .header(UPLOAD_OFFSET, "0")
+                    .body(session.status());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Pieces may overlap and may be sent in parallel.
+     */
+    @PatchMapping("/{id}")
+    public ResponseEntity<UploadStatus> uploadPiece(@PathVariable("id") String id,
+                                                    @RequestHeader(UPLOAD_OFFSET) long offset,
+                                                    HttpServletRequest request) {
+        Optional<UploadSession> session = resumableUploads.find(id);
+        if (session.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            resumableUploads.write(session.get(), offset, request.getInputStream());
+            return status(session.get());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<UploadStatus> getUpload(@PathVariable("id") String id) {
+        return resumableUploads.find(id)
+                .map(this::status)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> cancelUpload(@PathVariable("id") String id) {
+        if (resumableUploads.cancel(id)) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.notFound().build();
+    }
+
+    private ResponseEntity<UploadStatus> status(UploadSession session) {
+        UploadStatus status = session.status();
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET, Long.toString(status.offset()))
+                .header(UPLOAD_LENGTH, Long.toString(status.length()))
+                .body(status);
+    }
+}
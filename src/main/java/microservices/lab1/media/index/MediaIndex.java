@@ -0,0 +1,195 @@
+package microservices.lab1.media.index;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import microservices.lab1.media.storage.MediaMetadata;
+import microservices.lab1.media.storage.MediaTypes;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * In-memory index of streamable media keyed by {@code <title>_<millis>}. A lookup
+ * prefers exact title matches, most recent first, and otherwise the first key
+ * starting with the title. Changes share the read side of {@link #lock} and a
+ * rebuild holds the write side, so no change lands in a map being replaced.
+ */
+@Component
+public class MediaIndex {
+
+    private static final char TITLE_SEPARATOR = '_';
+
+    private final Path directory;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile ConcurrentSkipListMap<String, MediaMetadata> entries = new ConcurrentSkipListMap<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    public MediaIndex(@Value("${media.directory}") String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        rebuild();
+
+        watcher = new Thread(this::watch, "media-index-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+    }
+
+    public Optional<MediaMetadata> find(String title) {
+        ConcurrentSkipListMap<String, MediaMetadata> current = entries;
+
+        NavigableMap<String, MediaMetadata> sameTitle = current.subMap(
+                title + TITLE_SEPARATOR, true, title + TITLE_SEPARATOR + Character.MAX_VALUE, true);
+        if (!sameTitle.isEmpty()) {
+            return Optional.of(sameTitle.lastEntry().getValue());
+        }
+
+        Map.Entry<String, MediaMetadata> candidate = current.ceilingEntry(title);
+        if (candidate != null && candidate.getKey().startsWith(title)) {
+            return Optional.of(candidate.getValue());
+        }
+        return Optional.empty();
+    }
+
+    public void register(MediaMetadata media) {
+        change(current -> current.put(media.fileName(), media));
+    }
+
+    public void unregister(Path file) {
+        change(current -> current.remove(file.getFileName().toString()));
+    }
+
+    public void register(String title, long id, MediaMetadata media) {
+        change(current -> current.put(key(title, id, media.lastModified()), media));
+    }
+
+    public void unregister(String title, long id, Instant lastModified) {
+        change(current -> current.remove(key(title, id, lastModified)));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static String key(String title, long id, Instant lastModified) {
+        return title + TITLE_SEPARATOR + lastModified.toEpochMilli() + '.' + id;
+    }
+
+    private void change(Consumer<ConcurrentSkipListMap<String, MediaMetadata>> change) {
+        lock.readLock().lock();
+        try {
+            change.accept(entries);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void rebuild() throws IOException {
+        lock.writeLock().lock();
+        try {
+            ConcurrentSkipListMap<String, MediaMetadata> scanned = new ConcurrentSkipListMap<>();
+            entries.forEach((name, known) -> {
+                if (known.sha256() != null && !name.equals(known.fileName()) && Files.exists(known.path())) {
+                    scanned.put(name, known);
+                }
+            });
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+                for (Path file : files) {
+                    MediaMetadata known = entries.get(file.getFileName().toString());
+                    scanned.put(file.getFileName().toString(),
+                            known != null && known.sha256() != null ? known : describe(file));
+                }
+            }
+            entries = scanned;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private MediaMetadata describe(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return new MediaMetadata(
+                file,
+                MediaTypes.fromFileName(file.getFileName().toString()),
+                attributes.size(),
+                null,
+                attributes.lastModifiedTime().toInstant());
+    }
+
+    private void onFileChanged(Path file) throws IOException {
+        MediaMetadata described = describe(file);
+        change(current -> current.compute(file.getFileName().toString(),
+                (name, known) -> known != null && known.sha256() != null ? known : described));
+    }
+
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                try {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rebuild();
+                        continue;
+                    }
+
+                    Path file = directory.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        unregister(file);
+                    } else if (Files.isRegularFile(file)) {
+                        onFileChanged(file);
+                    }
+                } catch (IOException e) {
+                    // Keep serving the previous entry; the next event for the file retries.
+                }
+            }
+
+            if (!key.reset()) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package microservices.lab1.media.ingest;
+
+import microservices.lab1.media.storage.MediaMetadata;
+
+/**
+ * A failed job may already hold a reference to stored content, which the owner
+ * of the row has to give back.
+ */
+public record IngestCompleted(IngestJob job, IngestStatus status, MediaMetadata media) {
+}
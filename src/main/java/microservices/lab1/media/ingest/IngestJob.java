@@ -0,0 +1,22 @@
+package microservices.lab1.media.ingest;
+
+import microservices.lab1.media.storage.MediaMetadata;
+
+/**
+ * {@code fileName} is the name the file was uploaded under, if still known.
+ */
+public record IngestJob(Source source, long id, MediaMetadata media, String fileName) {
+
+    public enum Source {
+        MUSIC,
+        VIDEO
+    }
+
+    public static String key(Source source, long id) {
+        return source + ":" + id;
+    }
+
+    public String key() {
+        return key(source, id);
+    }
+}
@@ -0,0 +1,169 @@
+package microservices.lab1.media.ingest;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background work on uploaded media, each stage limited to its
+ * {@link IngestStage#concurrency()}. The queue is only a fast path: rows stay
+ * {@link IngestStatus#PENDING} and are offered again after a restart or when it
+ * was full.
+ */
+@Component
+public class IngestPipeline implements MeterBinder {
+
+    private static final String QUEUED = "queued";
+
+    private final List<IngestStage> stages;
+    private final Semaphore[] stagePermits;
+    private final ApplicationEventPublisher events;
+    private final BlockingQueue<IngestJob> queue;
+    private final Semaphore inFlight;
+    private final Duration retryBackoff;
+    private final ConcurrentHashMap<String, String> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private final LongAdder failures = new LongAdder();
+    private final int maxInFlight;
+    private Thread dispatcher;
+
+    public IngestPipeline(List<IngestStage> stages,
+                          ApplicationEventPublisher events,
+                          @Value("${media.ingest.queue-capacity:1000}") int queueCapacity,
+                          @Value("${media.ingest.max-in-flight:32}") int maxInFlight,
+                          @Value("${media.ingest.retry-backoff:PT1S}") Duration retryBackoff) {
+        this.stages = List.copyOf(stages);
+        this.stagePermits = new Semaphore[this.stages.size()];
+        for (int i = 0; i < stagePermits.length; i++) {
+            stagePermits[i] = new Semaphore(this.stages.get(i).concurrency());
+        }
+        this.events = events;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.retryBackoff = retryBackoff;
+    }
+
+    @PostConstruct
+    public void start() {
+        dispatcher = Thread.ofVirtual().name("media-ingest-dispatcher").start(this::dispatch);
+    }
+
+    @PreDestroy
+    public void stop() {
+        dispatcher.interrupt();
+        workers.shutdownNow();
+    }
+
+    /**
+     * {@code false} if the queue is full.
+     */
+    public boolean submit(IngestJob job) {
+        if (jobs.putIfAbsent(job.key(), QUEUED) != null) {
+            return true;
+        }
+        if (!queue.offer(job)) {
+            jobs.remove(job.key(), QUEUED);
+            return false;
+        }
+        return true;
+    }
+
+    public Optional<String> stage(IngestJob.Source source, long id) {
+        return Optional.ofNullable(jobs.get(IngestJob.key(source, id)));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("media.ingest.queued", queue, BlockingQueue::size)
+                .description("Media ingest jobs waiting to start")
+                .register(registry);
+        Gauge.builder("media.ingest.running", inFlight, permits -> maxInFlight - permits.availablePermits())
+                .description("Media ingest jobs being processed")
+                .register(registry);
+        FunctionCounter.builder("media.ingest.failures", failures, LongAdder::sum)
+                .description("Media ingest jobs that failed a stage for good")
+                .register(registry);
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                inFlight.acquire();
+                IngestJob job = queue.take();
+                workers.execute(() -> {
+                    try {
+                        process(job);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (InterruptedException | RejectedExecutionException e) {
+            // Shutting down; rows of unfinished jobs are still pending.
+        }
+    }
+
+    private void process(IngestJob job) {
+        MediaMetadata media = job.media();
+        IngestStatus status = IngestStatus.READY;
+        try {
+            for (int i = 0; i < stages.size(); i++) {
+                jobs.put(job.key(), stages.get(i).name());
+                media = run(i, job, media);
+            }
+        } catch (InterruptedException e) {
+            jobs.remove(job.key());
+            return;
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            status = IngestStatus.FAILED;
+        }
+
+        try {
+            events.publishEvent(new IngestCompleted(job, status, media));
+        } catch (RuntimeException e) {
+            // The row stays pending and is offered again later.
+        } finally {
+            jobs.remove(job.key());
+        }
+    }
+
+    private MediaMetadata run(int index, IngestJob job, MediaMetadata media) throws IOException, InterruptedException {
+        IngestStage stage = stages.get(index);
+        Semaphore permits = stagePermits[index];
+        for (int attempt = 1; ; attempt++) {
+            permits.acquire();
+            try {
+                return stage.process(job, media);
+            } catch (IOException e) {
+                if (attempt >= stage.attempts()) {
+                    throw e;
+                }
+            } finally {
+                permits.release();
+            }
+            Thread.sleep(retryBackoff.multipliedBy(1L << Math.min(attempt - 1, 10)));
+        }
+    }
+}
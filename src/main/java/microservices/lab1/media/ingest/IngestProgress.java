@@ -0,0 +1,4 @@
+package microservices.lab1.media.ingest;
+
+public record IngestProgress(long id, IngestStatus status, String stage) {
+}
@@ -0,0 +1,20 @@
+package microservices.lab1.media.ingest;
+
+import microservices.lab1.media.storage.MediaMetadata;
+
+import java.io.IOException;
+
+/**
+ * An {@link IOException} is retried up to {@link #attempts()} times; any other
+ * exception fails the job at once.
+ */
+public interface IngestStage {
+
+    String name();
+
+    int concurrency();
+
+    int attempts();
+
+    MediaMetadata process(IngestJob job, MediaMetadata media) throws IOException;
+}
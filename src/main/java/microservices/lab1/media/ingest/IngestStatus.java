@@ -0,0 +1,10 @@
+package microservices.lab1.media.ingest;
+
+/**
+ * Only {@link #READY} media is streamed.
+ */
+public enum IngestStatus {
+    PENDING,
+    READY,
+    FAILED
+}
@@ -0,0 +1,52 @@
+package microservices.lab1.media.ingest;
+
+import microservices.lab1.media.storage.ContentStore;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Hashes and stores a file received without a hash; other media passes through.
+ */
+@Component
+@Order(1)
+public class StoreStage implements IngestStage {
+
+    private final ContentStore contentStore;
+    private final int concurrency;
+    private final int attempts;
+
+    public StoreStage(ContentStore contentStore,
+                      @Value("${media.ingest.store.concurrency:2}") int concurrency,
+                      @Value("${media.ingest.store.attempts:3}") int attempts) {
+        this.contentStore = contentStore;
+        this.concurrency = concurrency;
+        this.attempts = attempts;
+    }
+
+    @Override
+    public String name() {
+        return "store";
+    }
+
+    @Override
+    public int concurrency() {
+        return concurrency;
+    }
+
+    @Override
+    public int attempts() {
+        return attempts;
+    }
+
+    @Override
+    public MediaMetadata process(IngestJob job, MediaMetadata media) throws IOException {
+        if (media.sha256() != null) {
+            return media;
+        }
+        return contentStore.store(media.path(), job.fileName());
+    }
+}
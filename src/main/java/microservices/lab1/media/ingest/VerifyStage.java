@@ -0,0 +1,55 @@
+package microservices.lab1.media.ingest;
+
+import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.media.storage.MediaFileWriter;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Reads the stored file back, so a file damaged on its way to disk is never
+ * streamed.
+ */
+@Component
+@Order(2)
+public class VerifyStage implements IngestStage {
+
+    private final MediaFileWriter mediaFileWriter;
+    private final int concurrency;
+    private final int attempts;
+
+    public VerifyStage(MediaFileWriter mediaFileWriter,
+                       @Value("${media.ingest.verify.concurrency:4}") int concurrency,
+                       @Value("${media.ingest.verify.attempts:3}") int attempts) {
+        this.mediaFileWriter = mediaFileWriter;
+        this.concurrency = concurrency;
+        this.attempts = attempts;
+    }
+
+    @Override
+    public String name() {
+        return "verify";
+    }
+
+    @Override
+    public int concurrency() {
+        return concurrency;
+    }
+
+    @Override
+    public int attempts() {
+        return attempts;
+    }
+
+    @Override
+    public MediaMetadata process(IngestJob job, MediaMetadata media) throws IOException {
+        MediaMetadata actual = mediaFileWriter.describe(media.path(), job.fileName());
+        if (actual.contentLength() != media.contentLength() || !actual.sha256().equals(media.sha256())) {
+            throw new CustomException("Файл " + media.path() + " не збігається зі своїм SHA-256.");
+        }
+        return media;
+    }
+}
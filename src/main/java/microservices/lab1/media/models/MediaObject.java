@@ -0,0 +1,34 @@
+package microservices.lab1.media.models;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.Instant;
+
+/**
+ * {@code releasedAt} is when the reference count last went down.
+ */
+@Entity
+@Table(name = "media_object", indexes = {
+        @Index(name = "idx_media_object_released", columnList = "reference_count, released_at")
+})
+@Getter
+@Setter
+public class MediaObject {
+
+    @Id
+    @Column(length = 64)
+    private String sha256;
+    private String contentType;
+    private Long contentLength;
+    @ColumnDefault("0")
+    private long referenceCount;
+    private Instant createdAt;
+    private Instant releasedAt;
+}
@@ -0,0 +1,230 @@
+package microservices.lab1.media.reclaim;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import microservices.lab1.media.cache.MediaBlockCache;
+import microservices.lab1.media.models.MediaObject;
+import microservices.lab1.media.repository.MediaObjectRepository;
+import microservices.lab1.media.storage.ContentStore;
+import microservices.lab1.media.storage.MediaStorage;
+import microservices.lab1.media.storage.StoredFile;
+import microservices.lab1.media.upload.ResumableUploads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Deletes media files nothing refers to any more, once they are older than
+ * {@code media.reclaim.grace-period}. Each run also reconciles a few slices of
+ * storage against the database, pacing deletions to
+ * {@code media.reclaim.max-operations-per-second}.
+ */
+@Component
+public class MediaReclaimer implements MeterBinder {
+
+    private final ContentStore contentStore;
+    private final MediaStorage mediaStorage;
+    private final MediaObjectRepository mediaObjectRepository;
+    private final ResumableUploads resumableUploads;
+    private final MediaBlockCache blockCache;
+    private final Duration gracePeriod;
+    private final int batchSize;
+    private final int shardsPerRun;
+    private final long operationNanos;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final LongAdder deleted = new LongAdder();
+    private final Lock run = new ReentrantLock();
+    private final Object pacing = new Object();
+    private int nextShard;
+    private long nextOperation = System.nanoTime();
+
+    public MediaReclaimer(ContentStore contentStore,
+                          MediaStorage mediaStorage,
+                          MediaObjectRepository mediaObjectRepository,
+                          ResumableUploads resumableUploads,
+                          MediaBlockCache blockCache,
+                          @Value("${media.reclaim.grace-period:PT24H}") Duration gracePeriod,
+                          @Value("${media.reclaim.batch-size:200}") int batchSize,
+                          @Value("${media.reclaim.shards-per-run:4}") int shardsPerRun,
+                          @Value("${media.reclaim.max-operations-per-second:50}") double maxOperationsPerSecond) {
+        this.contentStore = contentStore;
+        this.mediaStorage = mediaStorage;
+        this.mediaObjectRepository = mediaObjectRepository;
+        this.resumableUploads = resumableUploads;
+        this.blockCache = blockCache;
+        this.gracePeriod = gracePeriod;
+        this.batchSize = batchSize;
+        this.shardsPerRun = shardsPerRun;
+        this.operationNanos = (long) (TimeUnit.SECONDS.toNanos(1) / maxOperationsPerSecond);
+    }
+
+    @Scheduled(fixedDelayString = "${media.reclaim.interval:PT10M}", initialDelayString = "${media.reclaim.interval:PT10M}")
+    public void sweep() {
+        if (running.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("media-reclaimer").start(() -> {
+                try {
+                    reclaim();
+                } finally {
+                    running.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the number of files deleted.
+     */
+    public int reclaim() {
+        run.lock();
+        try {
+            Instant cutoff = Instant.now().minus(gracePeriod);
+            int count = 0;
+            for (String sha256 : mediaObjectRepository.findReleasedBefore(cutoff, Limit.of(batchSize))) {
+                count += reclaim(sha256) ? 1 : 0;
+            }
+            for (int i = 0; i < Math.min(shardsPerRun, MediaStorage.SHARDS); i++) {
+                count += reconcile(nextShard, cutoff);
+                nextShard = (nextShard + 1) % MediaStorage.SHARDS;
+            }
+            return count;
+        } finally {
+            run.unlock();
+        }
+    }
+
+    /**
+     * Meant to run after the change commits.
+     */
+    public void discardLater(String sha256, String path) {
+        Thread.ofVirtual().name("media-reclaimer-discard").start(() -> discard(sha256, path));
+    }
+
+    /**
+     * If the file could not be deleted, a later run finds it.
+     */
+    public boolean discard(String sha256, String path) {
+        if (sha256 != null && reclaim(sha256)) {
+            return true;
+        }
+        if (path == null) {
+            return false;
+        }
+        try {
+            if (sha256 != null && Paths.get(path).endsWith(sha256)
+                    || mediaObjectRepository.countCatalogPaths(path) > 0) {
+                return false;
+            }
+            return delete(path);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("media.reclaim.deleted", deleted, LongAdder::sum)
+                .description("Unreferenced media files deleted")
+                .register(registry);
+    }
+
+    /**
+     * Objects that have a row are left to their reference count.
+     */
+    private int reconcile(int shard, Instant cutoff) {
+        List<StoredFile> files;
+        try {
+            files = mediaStorage.list(shard);
+        } catch (IOException e) {
+            return 0;
+        }
+        List<StoredFile> old = files.stream().filter(file -> file.lastModified().isBefore(cutoff)).toList();
+        List<String> hashes = old.stream().map(StoredFile::sha256).filter(Objects::nonNull).toList();
+        Map<String, MediaObject> objects = hashes.isEmpty() ? Map.of() : mediaObjectRepository.findAllById(hashes)
+                .stream().collect(Collectors.toMap(MediaObject::getSha256, Function.identity()));
+        List<String> paths = old.stream().filter(file -> file.sha256() == null)
+                .flatMap(file -> Stream.of(file.path().toString(), file.path().toAbsolutePath().normalize().toString()))
+                .distinct()
+                .toList();
+        Set<String> referenced = paths.isEmpty() ? Set.of() : new HashSet<>(mediaObjectRepository.findCatalogPaths(paths));
+
+        int count = 0;
+        for (StoredFile file : old) {
+            if (file.sha256() != null) {
+                if (!objects.containsKey(file.sha256()) && reclaim(file.sha256())) {
+                    count++;
+                }
+            } else if (!referenced.contains(file.path().toString())
+                    && !referenced.contains(file.path().toAbsolutePath().normalize().toString())
+                    && !resumableUploads.holds(file.path()) && discard(null, file.path().toString())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean reclaim(String sha256) {
+        pace();
+        try {
+            Optional<Path> stored = mediaStorage.find(sha256);
+            if (contentStore.reclaim(sha256)) {
+                stored.ifPresent(blockCache::evict);
+                deleted.increment();
+                return true;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Still unreferenced, so it is tried again on the next run.
+        }
+        return false;
+    }
+
+    private boolean delete(String path) {
+        pace();
+        try {
+            Path file = Paths.get(path);
+            if (Files.deleteIfExists(file)) {
+                blockCache.evict(file);
+                deleted.increment();
+                return true;
+            }
+        } catch (IOException e) {
+            // Still unreferenced, so it is tried again on the next run.
+        }
+        return false;
+    }
+
+    private void pace() {
+        long wait;
+        synchronized (pacing) {
+            long now = System.nanoTime();
+            nextOperation = Math.max(nextOperation, now) + operationNanos;
+            wait = nextOperation - operationNanos - now;
+        }
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package microservices.lab1.media.repository;
+
+import microservices.lab1.media.models.MediaObject;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface MediaObjectRepository extends JpaRepository<MediaObject, String> {
+
+    /**
+     * A single upsert, so concurrent first uploads of the same content cannot collide.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into media_object (sha256, content_type, content_length, reference_count, created_at) " +
+            "values (:sha256, :contentType, :contentLength, 1, :createdAt) " +
+            "on duplicate key update reference_count = reference_count + 1, released_at = null, " +
+            "content_type = coalesce(content_type, :contentType)", nativeQuery = true)
+    int acquire(@Param("sha256") String sha256,
+                @Param("contentType") String contentType,
+                @Param("contentLength") long contentLength,
+                @Param("createdAt") Instant createdAt);
+
+    @Transactional
+    @Modifying
+    @Query("update MediaObject o set o.referenceCount = o.referenceCount - 1, o.releasedAt = :releasedAt " +
+            "where o.sha256 = :sha256 and o.referenceCount > 0")
+    int release(@Param("sha256") String sha256, @Param("releasedAt") Instant releasedAt);
+
+    /**
+     * An unreferenced row for a stored file that has none, so it can be locked while
+     * it is reclaimed.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into media_object (sha256, reference_count, created_at, released_at) " +
+            "values (:sha256, 0, :releasedAt, :releasedAt) " +
+            "on duplicate key update reference_count = reference_count", nativeQuery = true)
+    int adopt(@Param("sha256") String sha256, @Param("releasedAt") Instant releasedAt);
+
+    @Query("select o.sha256 from MediaObject o where o.referenceCount = 0 and o.releasedAt < :releasedBefore " +
+            "order by o.releasedAt")
+    List<String> findReleasedBefore(@Param("releasedBefore") Instant releasedBefore, Limit limit);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select o from MediaObject o where o.sha256 = :sha256 and o.referenceCount = 0")
+    Optional<MediaObject> lockUnreferenced(@Param("sha256") String sha256);
+
+    /**
+     * Catalog rows holding a hash, whatever the reference count says.
+     */
+    @Query(value = "select (select count(*) from music where sha256 = :sha256) " +
+            "+ (select count(*) from video where sha256 = :sha256)", nativeQuery = true)
+    long countCatalogReferences(@Param("sha256") String sha256);
+
+    @Query(value = "select (select count(*) from music where path = :path) " +
+            "+ (select count(*) from video where path = :path)", nativeQuery = true)
+    long countCatalogPaths(@Param("path") String path);
+
+    @Query(value = "select path from music where path in :paths " +
+            "union select path from video where path in :paths", nativeQuery = true)
+    List<String> findCatalogPaths(@Param("paths") Collection<String> paths);
+}
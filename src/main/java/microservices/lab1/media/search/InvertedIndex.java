@@ -0,0 +1,345 @@
+package microservices.lab1.media.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index over one catalog type. A query matches documents containing all
+ * of its terms; the shortest posting list drives the scan and the others are
+ * probed with galloping search.
+ */
+final class InvertedIndex {
+
+    static final int TITLE_WEIGHT = 3;
+    static final int SUBTITLE_WEIGHT = 2;
+    static final int GENRE_WEIGHT = 1;
+
+    private final SearchHit.Type type;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Long, SearchDocument> documents = new HashMap<>();
+    private final SuggestionTrie suggestions = new SuggestionTrie();
+    private Set<Long> touched;
+
+    InvertedIndex(SearchHit.Type type) {
+        this.type = type;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void put(SearchDocument document) {
+        lock.writeLock().lock();
+        try {
+            if (touched != null) {
+                touched.add(document.id());
+            }
+            write(document);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            if (touched != null) {
+                touched.add(id);
+            }
+            SearchDocument previous = documents.remove(id);
+            if (previous != null) {
+                unlink(previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Until {@link #endLoad()}, ids written through {@link #put} or {@link #remove}
+     * are newer than the rows being loaded and {@link #load} skips them.
+     */
+    void beginLoad() {
+        lock.writeLock().lock();
+        try {
+            touched = new HashSet<>();
+            suggestions.defer();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void load(SearchDocument document) {
+        lock.writeLock().lock();
+        try {
+            if (touched == null || !touched.contains(document.id())) {
+                write(document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void endLoad() {
+        lock.writeLock().lock();
+        try {
+            touched = null;
+            suggestions.resume();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    SearchPage search(Collection<String> terms, int k) {
+        lock.readLock().lock();
+        try {
+            if (terms.isEmpty()) {
+                return new SearchPage(List.of(), 0);
+            }
+            Postings[] lists = new Postings[terms.size()];
+            int n = 0;
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    return new SearchPage(List.of(), 0);
+                }
+                lists[n++] = list;
+            }
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+
+            double[] idf = new double[lists.length];
+            for (int i = 0; i < lists.length; i++) {
+                idf[i] = Math.log(1 + (double) documents.size() / lists[i].size);
+            }
+
+            TopK top = new TopK(k);
+            int total = 0;
+            int[] cursors = new int[lists.length];
+            Postings lead = lists[0];
+            scan:
+            for (int p = 0; p < lead.size; p++) {
+                long id = lead.ids[p];
+                double score = lead.weights[p] * idf[0];
+                for (int i = 1; i < lists.length; i++) {
+                    Postings list = lists[i];
+                    int at = list.seek(id, cursors[i]);
+                    cursors[i] = at;
+                    if (at == list.size) {
+                        break scan;
+                    }
+                    if (list.ids[at] != id) {
+                        continue scan;
+                    }
+                    score += list.weights[at] * idf[i];
+                }
+                total++;
+                top.offer(id, score);
+            }
+
+            List<SearchHit> hits = new ArrayList<>(top.size);
+            for (int i = top.drain(); i < top.ids.length; i++) {
+                SearchDocument document = documents.get(top.ids[i]);
+                hits.add(new SearchHit(type, document.id(), document.title(), document.subtitle(),
+                        document.genre(), top.scores[i]));
+            }
+            return new SearchPage(hits, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<String> suggest(String prefix, int k) {
+        lock.readLock().lock();
+        try {
+            return suggestions.suggest(prefix, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(SearchDocument document) {
+        SearchDocument previous = documents.put(document.id(), document);
+        if (previous != null) {
+            unlink(previous);
+        }
+        terms(document).forEach((term, weight) ->
+                postings.computeIfAbsent(term, t -> new Postings()).put(document.id(), weight));
+        suggestions.add(document.title());
+        suggestions.add(document.subtitle());
+    }
+
+    private void unlink(SearchDocument document) {
+        for (String term : terms(document).keySet()) {
+            Postings list = postings.get(term);
+            if (list != null && list.remove(document.id()) && list.size == 0) {
+                postings.remove(term);
+            }
+        }
+        suggestions.remove(document.title());
+        suggestions.remove(document.subtitle());
+    }
+
+    private static Map<String, Integer> terms(SearchDocument document) {
+        Map<String, Integer> terms = new HashMap<>();
+        addTerms(terms, document.title(), TITLE_WEIGHT);
+        addTerms(terms, document.subtitle(), SUBTITLE_WEIGHT);
+        addTerms(terms, document.genre(), GENRE_WEIGHT);
+        return terms;
+    }
+
+    private static void addTerms(Map<String, Integer> terms, String field, int weight) {
+        for (String token : new HashSet<>(SearchText.tokens(field))) {
+            terms.merge(token, weight, Integer::sum);
+        }
+    }
+
+    private static final class Postings {
+
+        private long[] ids = new long[4];
+        private byte[] weights = new byte[4];
+        private int size;
+
+        void put(long id, int weight) {
+            int at = size == 0 || ids[size - 1] < id ? -size - 1 : Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                weights[at] = (byte) weight;
+                return;
+            }
+            int insert = -at - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            System.arraycopy(ids, insert, ids, insert + 1, size - insert);
+            System.arraycopy(weights, insert, weights, insert + 1, size - insert);
+            ids[insert] = id;
+            weights[insert] = (byte) weight;
+            size++;
+        }
+
+        boolean remove(long id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0) {
+                return false;
+            }
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            System.arraycopy(weights, at + 1, weights, at, size - at - 1);
+            size--;
+            return true;
+        }
+
+        /**
+         * Index of the first id not less than {@code id}, at or after {@code from}.
+         */
+        int seek(long id, int from) {
+            if (from >= size || ids[from] >= id) {
+                return from;
+            }
+            int low = from;
+            int step = 1;
+            while (low + step < size && ids[low + step] < id) {
+                low += step;
+                step <<= 1;
+            }
+            int at = Arrays.binarySearch(ids, low + 1, Math.min(low + step, size), id);
+            return at >= 0 ? at : -at - 1;
+        }
+    }
+
+    /**
+     * On equal scores the lower id ranks higher.
+     */
+    private static final class TopK {
+
+        private final long[] ids;
+        private final double[] scores;
+        private int size;
+
+        TopK(int k) {
+            ids = new long[k];
+            scores = new double[k];
+        }
+
+        void offer(long id, double score) {
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (size > 0 && ranksAbove(id, score, 0)) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        int drain() {
+            int end = ids.length;
+            while (size > 0) {
+                long id = ids[0];
+                double score = scores[0];
+                size--;
+                ids[0] = ids[size];
+                scores[0] = scores[size];
+                siftDown(0);
+                end--;
+                ids[end] = id;
+                scores[end] = score;
+            }
+            return end;
+        }
+
+        private boolean ranksAbove(long id, double score, int i) {
+            return score > scores[i] || score == scores[i] && id < ids[i];
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!ranksAbove(ids[parent], scores[parent], i)) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int worst = i;
+                for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                    if (ranksAbove(ids[worst], scores[worst], child)) {
+                        worst = child;
+                    }
+                }
+                if (worst == i) {
+                    return;
+                }
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package microservices.lab1.media.search;
+
+/**
+ * {@code subtitle} is the artist of a track or the director of a video.
+ */
+public record SearchDocument(long id, String title, String subtitle, String genre) {
+}
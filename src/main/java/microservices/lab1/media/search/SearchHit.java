@@ -0,0 +1,27 @@
+package microservices.lab1.media.search;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import microservices.lab1.common.exception.CustomException;
+
+import java.util.Locale;
+
+public record SearchHit(Type type, long id, String title, String subtitle, String genre, double score) {
+
+    public enum Type {
+        MUSIC, VIDEO;
+
+        @JsonValue
+        public String value() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Type from(String value) {
+            for (Type type : values()) {
+                if (type.value().equalsIgnoreCase(value)) {
+                    return type;
+                }
+            }
+            throw new CustomException("Невідомий тип каталогу: " + value);
+        }
+    }
+}
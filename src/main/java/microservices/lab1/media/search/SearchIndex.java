@@ -0,0 +1,135 @@
+package microservices.lab1.media.search;
+
+import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.common.transaction.AfterCommit;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * In-memory full-text index of the catalogs, one {@link InvertedIndex} per type.
+ * Writes are applied once their transaction commits, under the read side of
+ * {@link #swap}; {@link #rebuild} registers the new index under its write side
+ * before querying, so no write lands only in the index being replaced.
+ */
+@Component
+public class SearchIndex {
+
+    public static final int MAX_WINDOW = 1000;
+    public static final int MAX_SUGGESTIONS = SuggestionTrie.TOP;
+
+    private static final Comparator<SearchHit> RANKING = Comparator.comparingDouble(SearchHit::score).reversed()
+            .thenComparing(SearchHit::type)
+            .thenComparingLong(SearchHit::id);
+
+    private final Map<SearchHit.Type, InvertedIndex> live = new ConcurrentHashMap<>();
+    private final Map<SearchHit.Type, InvertedIndex> loading = new ConcurrentHashMap<>();
+    private final ReadWriteLock swap = new ReentrantReadWriteLock();
+    private final Lock rebuilding = new ReentrantLock();
+
+    public SearchIndex() {
+        for (SearchHit.Type type : SearchHit.Type.values()) {
+            live.put(type, new InvertedIndex(type));
+        }
+    }
+
+    public void put(SearchHit.Type type, SearchDocument document) {
+        AfterCommit.run(() -> apply(type, index -> index.put(document)));
+    }
+
+    public void remove(SearchHit.Type type, long id) {
+        AfterCommit.run(() -> apply(type, index -> index.remove(id)));
+    }
+
+    public List<String> suggest(SearchHit.Type type, String prefix, int limit) {
+        return live.get(type).suggest(prefix, Math.max(1, Math.min(limit, MAX_SUGGESTIONS)));
+    }
+
+    public int size(SearchHit.Type type) {
+        return live.get(type).size();
+    }
+
+    /**
+     * Only the first {@link #MAX_WINDOW} hits can be paged through.
+     */
+    public SearchPage search(String query, Set<SearchHit.Type> types, int offset, int limit) {
+        Set<String> terms = new LinkedHashSet<>(SearchText.tokens(query));
+        if (terms.isEmpty()) {
+            throw new CustomException("Пошуковий запит порожній.");
+        }
+        if (offset < 0 || offset + limit > MAX_WINDOW) {
+            throw new CustomException("Можна переглянути лише перші " + MAX_WINDOW + " результатів.");
+        }
+
+        List<SearchHit> hits = new ArrayList<>();
+        int total = 0;
+        for (SearchHit.Type type : types) {
+            SearchPage page = live.get(type).search(terms, offset + limit);
+            hits.addAll(page.hits());
+            total += page.total();
+        }
+        hits.sort(RANKING);
+        int from = Math.min(offset, hits.size());
+        int to = Math.min(offset + limit, hits.size());
+        return new SearchPage(List.copyOf(hits.subList(from, to)), total);
+    }
+
+    /**
+     * Returns the number of documents in the new index.
+     */
+    public int rebuild(SearchHit.Type type, Supplier<Stream<SearchDocument>> source) {
+        rebuilding.lock();
+        try {
+            InvertedIndex fresh = new InvertedIndex(type);
+            fresh.beginLoad();
+            swap.writeLock().lock();
+            try {
+                loading.put(type, fresh);
+            } finally {
+                swap.writeLock().unlock();
+            }
+            try (Stream<SearchDocument> documents = source.get()) {
+                documents.forEach(fresh::load);
+                swap.writeLock().lock();
+                try {
+                    live.put(type, fresh);
+                } finally {
+                    swap.writeLock().unlock();
+                }
+            } finally {
+                loading.remove(type);
+                fresh.endLoad();
+            }
+            return fresh.size();
+        } finally {
+            rebuilding.unlock();
+        }
+    }
+
+    private void apply(SearchHit.Type type, Consumer<InvertedIndex> change) {
+        swap.readLock().lock();
+        try {
+            InvertedIndex pending = loading.get(type);
+            InvertedIndex current = live.get(type);
+            change.accept(current);
+            if (pending != null && pending != current) {
+                change.accept(pending);
+            }
+        } finally {
+            swap.readLock().unlock();
+        }
+    }
+}
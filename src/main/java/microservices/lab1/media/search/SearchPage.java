@@ -0,0 +1,6 @@
+package microservices.lab1.media.search;
+
+import java.util.List;
+
+public record SearchPage(List<SearchHit> hits, int total) {
+}
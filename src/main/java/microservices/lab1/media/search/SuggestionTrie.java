@@ -0,0 +1,366 @@
+package microservices.lab1.media.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Path-compressed prefix trie for autocomplete. Keys are inserted from the start
+ * and from every later word. Every node keeps its {@link #TOP} heaviest
+ * suggestions; rankings are never modified in place, so a node with one child
+ * and no entries of its own can share the child's array.
+ * <p>
+ * Not thread-safe: {@link InvertedIndex} guards it with its lock.
+ */
+final class SuggestionTrie {
+
+    static final int TOP = 10;
+
+    private static final int MAX_DEPTH = 32;
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+    private static final char[] NO_LABELS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final Node root = new Node("", 0, 0);
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean deferred;
+
+    void add(String text) {
+        change(text, 1);
+    }
+
+    void remove(String text) {
+        change(text, -1);
+    }
+
+    /**
+     * Until {@link #resume()}, which ranks every node in one pass.
+     */
+    void defer() {
+        deferred = true;
+    }
+
+    void resume() {
+        deferred = false;
+        rank(root);
+    }
+
+    List<String> suggest(String prefix, int k) {
+        String key = key(prefix);
+        if (key.isEmpty()) {
+            return List.of();
+        }
+        Node node = find(key, Math.min(key.length(), MAX_DEPTH));
+        if (node == null) {
+            return List.of();
+        }
+
+        int count = Math.min(k, TOP);
+        if (key.length() <= MAX_DEPTH) {
+            List<String> texts = new ArrayList<>(Math.min(count, node.top.length));
+            for (int i = 0; i < node.top.length && i < count; i++) {
+                texts.add(node.top[i].text);
+            }
+            return texts;
+        }
+
+        Entry[] best = new Entry[count];
+        int size = 0;
+        String wordStart = " " + key;
+        for (int i = 0; i < node.ownSize; i++) {
+            Entry entry = node.own[i];
+            if (entry.key.startsWith(key) || entry.key.contains(wordStart)) {
+                size = offer(best, size, entry);
+            }
+        }
+        List<String> texts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            texts.add(best[i].text);
+        }
+        return texts;
+    }
+
+    private void change(String text, int delta) {
+        String key = key(text);
+        if (key.isEmpty()) {
+            return;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (delta < 0) {
+                return;
+            }
+            entry = new Entry(text.strip(), key);
+            entries.put(key, entry);
+            for (int start = 0; start >= 0; start = nextWord(key, start)) {
+                insert(key, start).addOwn(entry);
+            }
+        }
+
+        entry.weight += delta;
+        boolean removed = entry.weight <= 0;
+        if (removed) {
+            entries.remove(key);
+        }
+        Node[] path = new Node[MAX_DEPTH + 1];
+        for (int start = 0; start >= 0; start = nextWord(key, start)) {
+            int i = path(key, start, path) - 1;
+            if (removed) {
+                path[i].removeOwn(entry);
+                for (; i > 0 && path[i].isEmpty(); i--) {
+                    path[i - 1].removeChild(path[i]);
+                }
+            }
+            for (; i >= 0 && !deferred; i--) {
+                if (!rerank(path[i], entry, delta > 0)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private Node insert(String key, int start) {
+        int end = Math.min(key.length(), start + MAX_DEPTH);
+        Node node = root;
+        int at = start;
+        while (at < end) {
+            Node child = node.child(key.charAt(at));
+            if (child == null) {
+                return node.addChild(new Node(key, at, end));
+            }
+            int common = child.commonPrefix(key, at, end);
+            if (common < child.length()) {
+                Node middle = new Node(child.source, child.start, child.start + common);
+                node.replaceChild(child, middle);
+                child.start += common;
+                middle.addChild(child);
+                middle.top = child.top;
+                child = middle;
+            }
+            node = child;
+            at += common;
+        }
+        return node;
+    }
+
+    /**
+     * {@code null} if no key starts with {@code key}.
+     */
+    private Node find(String key, int end) {
+        Node node = root;
+        int at = 0;
+        while (at < end) {
+            Node child = node.child(key.charAt(at));
+            if (child == null) {
+                return null;
+            }
+            int common = child.commonPrefix(key, at, end);
+            if (at + common < end && common < child.length()) {
+                return null;
+            }
+            node = child;
+            at += common;
+        }
+        return node;
+    }
+
+    private int path(String key, int start, Node[] path) {
+        int end = Math.min(key.length(), start + MAX_DEPTH);
+        Node node = root;
+        int size = 0;
+        path[size++] = node;
+        for (int at = start; at < end; at += node.length()) {
+            node = node.child(key.charAt(at));
+            path[size++] = node;
+        }
+        return size;
+    }
+
+    /**
+     * Nodes above can only change if this one did.
+     */
+    private boolean rerank(Node node, Entry entry, boolean raised) {
+        Entry[] previous = node.top;
+        if (node.ownSize == 0 && node.size == 1) {
+            node.top = node.children[0].top;
+        } else if (raised) {
+            Entry[] best = new Entry[TOP];
+            int size = offer(best, 0, entry);
+            for (Entry other : previous) {
+                size = offer(best, size, other);
+            }
+            if (contains(best, size, entry)) {
+                node.top = Arrays.copyOf(best, size);
+            }
+        } else if (contains(previous, previous.length, entry)) {
+            rankOwnAndChildren(node);
+        }
+        return node.top != previous;
+    }
+
+    private void rank(Node node) {
+        for (int i = 0; i < node.size; i++) {
+            rank(node.children[i]);
+        }
+        rankOwnAndChildren(node);
+    }
+
+    private void rankOwnAndChildren(Node node) {
+        if (node.ownSize == 0 && node.size == 1) {
+            node.top = node.children[0].top;
+            return;
+        }
+        Entry[] best = new Entry[TOP];
+        int size = 0;
+        for (int i = 0; i < node.ownSize; i++) {
+            size = offer(best, size, node.own[i]);
+        }
+        for (int i = 0; i < node.size; i++) {
+            for (Entry entry : node.children[i].top) {
+                size = offer(best, size, entry);
+            }
+        }
+        node.top = size == 0 ? NO_ENTRIES : Arrays.copyOf(best, size);
+    }
+
+    private static int offer(Entry[] best, int size, Entry entry) {
+        if (contains(best, size, entry)) {
+            return size;
+        }
+        int at = size;
+        while (at > 0 && entry.ranksAbove(best[at - 1])) {
+            at--;
+        }
+        if (at == best.length) {
+            return size;
+        }
+        int end = Math.min(size, best.length - 1);
+        System.arraycopy(best, at, best, at + 1, end - at);
+        best[at] = entry;
+        return Math.min(size + 1, best.length);
+    }
+
+    private static boolean contains(Entry[] entries, int size, Entry entry) {
+        for (int i = 0; i < size; i++) {
+            if (entries[i] == entry) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int nextWord(String key, int start) {
+        int space = key.indexOf(' ', start);
+        return space < 0 ? -1 : space + 1;
+    }
+
+    private static String key(String text) {
+        return String.join(" ", SearchText.tokens(text));
+    }
+
+    private static final class Entry {
+
+        private final String text;
+        private final String key;
+        private int weight;
+
+        Entry(String text, String key) {
+            this.text = text;
+            this.key = key;
+        }
+
+        boolean ranksAbove(Entry other) {
+            return weight > other.weight || weight == other.weight && text.compareTo(other.text) < 0;
+        }
+    }
+
+    /**
+     * The edge leading to a node is labelled {@code source[start, end)}.
+     */
+    private static final class Node {
+
+        private final String source;
+        private int start;
+        private final int end;
+        private char[] labels = NO_LABELS;
+        private Node[] children = NO_NODES;
+        private int size;
+        private Entry[] own = NO_ENTRIES;
+        private int ownSize;
+        private Entry[] top = NO_ENTRIES;
+
+        Node(String source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        int length() {
+            return end - start;
+        }
+
+        int commonPrefix(String key, int from, int to) {
+            int length = Math.min(length(), to - from);
+            int common = 0;
+            while (common < length && source.charAt(start + common) == key.charAt(from + common)) {
+                common++;
+            }
+            return common;
+        }
+
+        Node child(char label) {
+            int at = Arrays.binarySearch(labels, 0, size, label);
+            return at >= 0 ? children[at] : null;
+        }
+
+        Node addChild(Node child) {
+            char label = child.source.charAt(child.start);
+            int insert = -Arrays.binarySearch(labels, 0, size, label) - 1;
+            if (size == labels.length) {
+                labels = Arrays.copyOf(labels, Math.max(1, size * 2));
+                children = Arrays.copyOf(children, Math.max(1, size * 2));
+            }
+            System.arraycopy(labels, insert, labels, insert + 1, size - insert);
+            System.arraycopy(children, insert, children, insert + 1, size - insert);
+            labels[insert] = label;
+            children[insert] = child;
+            size++;
+            return child;
+        }
+
+        void replaceChild(Node child, Node replacement) {
+            children[Arrays.binarySearch(labels, 0, size, child.source.charAt(child.start))] = replacement;
+        }
+
+        void removeChild(Node child) {
+            int at = Arrays.binarySearch(labels, 0, size, child.source.charAt(child.start));
+            System.arraycopy(labels, at + 1, labels, at, size - at - 1);
+            System.arraycopy(children, at + 1, children, at, size - at - 1);
+            size--;
+            children[size] = null;
+        }
+
+        void addOwn(Entry entry) {
+            if (ownSize == own.length) {
+                own = Arrays.copyOf(own, Math.max(1, ownSize * 2));
+            }
+            own[ownSize++] = entry;
+        }
+
+        void removeOwn(Entry entry) {
+            for (int i = 0; i < ownSize; i++) {
+                if (own[i] == entry) {
+                    System.arraycopy(own, i + 1, own, i, ownSize - i - 1);
+                    own[--ownSize] = null;
+                    return;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return size == 0 && ownSize == 0;
+        }
+    }
+}
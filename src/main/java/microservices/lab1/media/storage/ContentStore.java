@@ -0,0 +1,111 @@
+package microservices.lab1.media.storage;
+
+import lombok.RequiredArgsConstructor;
+import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.media.models.MediaObject;
+import microservices.lab1.media.repository.MediaObjectRepository;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed media files, each kept once however many rows use it. Each
+ * row holding a hash counts as a reference in {@link MediaObject}; files nothing
+ * refers to stay on disk until they are {@link #reclaim reclaimed}.
+ */
+@Component
+@RequiredArgsConstructor
+public class ContentStore {
+
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+
+    private final MediaStorage mediaStorage;
+    private final MediaObjectRepository mediaObjectRepository;
+
+    public MediaMetadata store(MultipartFile file) throws IOException {
+        return acquire(write(file));
+    }
+
+    /**
+     * Until it is {@link #acquire acquired} the file is left to the reclaimer.
+     */
+    public MediaMetadata write(MultipartFile file) throws IOException {
+        return mediaStorage.store(file);
+    }
+
+    /**
+     * If this fails the file is left where it was.
+     */
+    public MediaMetadata store(Path file, String fileName) throws IOException {
+        MediaMetadata media = mediaStorage.store(file, fileName);
+        acquire(media);
+        return media;
+    }
+
+    public MediaMetadata reference(String sha256) {
+        MediaMetadata media = find(sha256)
+                .orElseThrow(() -> new CustomException("Файл з SHA-256 " + sha256 + " не знайдено."));
+        acquire(media);
+        return media;
+    }
+
+    public void release(String sha256) {
+        if (sha256 != null) {
+            mediaObjectRepository.release(sha256, Instant.now());
+        }
+    }
+
+    /**
+     * Holds the object's row lock, so a concurrent upload of the same content either
+     * keeps the file or finds it gone.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public boolean reclaim(String sha256) throws IOException {
+        mediaObjectRepository.adopt(sha256, Instant.now());
+        Optional<MediaObject> object = mediaObjectRepository.lockUnreferenced(sha256);
+        if (object.isEmpty() || mediaObjectRepository.countCatalogReferences(sha256) > 0) {
+            return false;
+        }
+        boolean deleted = mediaStorage.delete(sha256);
+        mediaObjectRepository.delete(object.get());
+        return deleted;
+    }
+
+    public Optional<MediaMetadata> find(String sha256) {
+        String hash = sha256 == null ? "" : sha256.toLowerCase(Locale.ROOT);
+        if (!SHA256.matcher(hash).matches()) {
+            return Optional.empty();
+        }
+        Optional<MediaObject> object = mediaObjectRepository.findById(hash);
+        Optional<Path> stored = object.isPresent() ? mediaStorage.find(hash) : Optional.empty();
+        if (stored.isEmpty()) {
+            return Optional.empty();
+        }
+        Path path = stored.get();
+        try {
+            return Optional.of(new MediaMetadata(path, object.get().getContentType(), object.get().getContentLength(),
+                    hash, Files.getLastModifiedTime(path).toInstant()));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    public MediaMetadata acquire(MediaMetadata media) {
+        mediaObjectRepository.acquire(media.sha256(), media.contentType(), media.contentLength(), Instant.now());
+        if (mediaStorage.find(media.sha256()).isEmpty()) {
+            // Reclaimed after it was stored; the row lock now keeps it from going again.
+            throw new OptimisticLockingFailureException("Файл " + media.sha256() + " було видалено під час збереження.");
+        }
+        return media;
+    }
+}
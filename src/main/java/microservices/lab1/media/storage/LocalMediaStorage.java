@@ -0,0 +1,249 @@
+package microservices.lab1.media.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Media on local disks, at {@code <mount>/objects/<sha[0,2)>/<sha[2,4)>/<sha>}.
+ * With several mounts, a hash belongs to one of them by consistent hashing over
+ * {@link #VIRTUAL_NODES} points per mount, and objects are still found on their
+ * old mount until they are moved.
+ */
+@Component
+public class LocalMediaStorage implements MediaStorage {
+
+    private static final int VIRTUAL_NODES = 128;
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+
+    private final MediaFileWriter mediaFileWriter;
+    private final List<Path> mounts;
+    private final long[] ring;
+    private final Path[] owners;
+
+    public LocalMediaStorage(MediaFileWriter mediaFileWriter,
+                             @Value("${media.storage.mounts:${media.directory}}") String[] mounts) {
+        this.mediaFileWriter = mediaFileWriter;
+        this.mounts = new ArrayList<>(mounts.length);
+        for (String mount : mounts) {
+            this.mounts.add(Paths.get(mount.strip()));
+        }
+
+        record Point(long position, Path mount) {
+        }
+        List<Point> points = new ArrayList<>(this.mounts.size() * VIRTUAL_NODES);
+        for (Path mount : this.mounts) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                points.add(new Point(position(mount + "#" + i), mount));
+            }
+        }
+        points.sort((a, b) -> Long.compare(a.position(), b.position()));
+        this.ring = new long[points.size()];
+        this.owners = new Path[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            ring[i] = points.get(i).position();
+            owners[i] = points.get(i).mount();
+        }
+    }
+
+    @Override
+    public MediaMetadata store(MultipartFile file) throws IOException {
+        Path temporary = temporary();
+        MediaMetadata written = mediaFileWriter.write(file, temporary);
+        try {
+            return place(temporary, written);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    @Override
+    public MediaMetadata store(Path file, String fileName) throws IOException {
+        return place(file, mediaFileWriter.describe(file, fileName));
+    }
+
+    @Override
+    public Path temporary() throws IOException {
+        UUID id = uuid7();
+        Path incoming = mounts.get(Math.floorMod(id.hashCode(), mounts.size())).resolve("incoming");
+        Files.createDirectories(incoming);
+        return incoming.resolve(id + ".part");
+    }
+
+    @Override
+    public List<Path> incoming() {
+        return mounts.stream().map(mount -> mount.resolve("incoming")).toList();
+    }
+
+    @Override
+    public Optional<Path> find(String sha256) {
+        Path owner = mount(sha256);
+        Path path = path(owner, sha256);
+        if (Files.isRegularFile(path)) {
+            return Optional.of(path);
+        }
+        for (Path mount : mounts) {
+            if (!mount.equals(owner) && Files.isRegularFile(path(mount, sha256))) {
+                return Optional.of(path(mount, sha256));
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean delete(String sha256) throws IOException {
+        boolean deleted = false;
+        for (Path mount : mounts) {
+            deleted |= Files.deleteIfExists(path(mount, sha256));
+        }
+        return deleted;
+    }
+
+    @Override
+    public List<StoredFile> list(int shard) throws IOException {
+        String prefix = HexFormat.of().toHexDigits((byte) shard);
+        List<StoredFile> files = new ArrayList<>();
+        for (Path mount : mounts) {
+            collect(mount.resolve("objects").resolve(prefix), 2, true, files);
+            if (shard == 0) {
+                collect(mount.resolve("incoming"), 1, false, files);
+                collect(mount, 1, false, files);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * On failure the file is back where it was.
+     */
+    private MediaMetadata place(Path temporary, MediaMetadata written) throws IOException {
+        Path target = find(written.sha256()).orElse(null);
+        if (target != null) {
+            Files.deleteIfExists(temporary);
+        } else {
+            Path owner = mount(written.sha256());
+            target = path(owner, written.sha256());
+            Files.createDirectories(target.getParent());
+            Path incoming = owner.resolve("incoming");
+            Path staged = temporary;
+            if (!incoming.equals(temporary.getParent())) {
+                staged = incoming.resolve(temporary.getFileName());
+                Files.createDirectories(incoming);
+                Files.move(temporary, staged);
+                // Copied, since it came from another mount.
+                force(staged);
+            }
+            try {
+                Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                if (staged != temporary) {
+                    try {
+                        Files.move(staged, temporary);
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                }
+                throw e;
+            }
+            force(target.getParent());
+        }
+
+        return new MediaMetadata(target, written.contentType(), written.contentLength(), written.sha256(),
+                Files.getLastModifiedTime(target).toInstant());
+    }
+
+    private Path mount(String sha256) {
+        long position = Long.parseUnsignedLong(sha256.substring(0, 16), 16);
+        int at = Arrays.binarySearch(ring, position);
+        if (at < 0) {
+            at = -at - 1;
+        }
+        return owners[at == ring.length ? 0 : at];
+    }
+
+    /**
+     * Platforms that cannot open a directory for reading rely on the file system's
+     * own ordering instead.
+     */
+    private static void force(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException | UnsupportedOperationException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    private static void collect(Path directory, int depth, boolean objects, List<StoredFile> files) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, Set.of(), depth, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                String name = file.getFileName().toString();
+                if (attributes.isRegularFile() && (!objects || SHA256.matcher(name).matches())) {
+                    files.add(new StoredFile(file, objects ? name : null, attributes.lastModifiedTime().toInstant()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Deleted or moved while listing.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static Path path(Path mount, String sha256) {
+        return mount.resolve("objects").resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    private static UUID uuid7() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSignificant = System.currentTimeMillis() << 16 | 0x7000 | random.nextInt(0x1000);
+        long leastSignificant = random.nextLong() & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L;
+        return new UUID(mostSignificant, leastSignificant);
+    }
+
+    private static long position(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            long position = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                position = position << 8 | (digest[i] & 0xFF);
+            }
+            return position;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package microservices.lab1.media.storage;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Copies an upload to disk in fixed-size chunks, hashing it on the way.
+ */
+@Component
+public class MediaFileWriter {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    public MediaMetadata write(MultipartFile file, Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+
+        FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try (channel;
+             InputStream in = file.getInputStream();
+             ReadableByteChannel source = Channels.newChannel(in)) {
+            Fingerprint fingerprint = new Fingerprint();
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            long written = 0;
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                fingerprint.update(buffer);
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+                buffer.clear();
+            }
+            channel.force(true);
+
+            return fingerprint.toMetadata(target, file.getOriginalFilename(), written);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    public MediaMetadata describe(Path file, String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Fingerprint fingerprint = new Fingerprint();
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            long read = 0;
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                fingerprint.update(buffer);
+                read += buffer.limit();
+                buffer.clear();
+            }
+
+            return fingerprint.toMetadata(file, fileName, read);
+        }
+    }
+
+    private static final class Fingerprint {
+
+        private final MessageDigest digest = sha256();
+        private final byte[] header = new byte[MediaTypes.HEADER_LENGTH];
+        private int headerLength;
+
+        void update(ByteBuffer buffer) {
+            digest.update(buffer.array(), 0, buffer.limit());
+            if (headerLength < header.length) {
+                int count = Math.min(buffer.limit(), header.length - headerLength);
+                System.arraycopy(buffer.array(), 0, header, headerLength, count);
+                headerLength += count;
+            }
+        }
+
+        MediaMetadata toMetadata(Path file, String fileName, long length) throws IOException {
+            return new MediaMetadata(
+                    file,
+                    MediaTypes.detect(header, headerLength, fileName),
+                    length,
+                    HexFormat.of().formatHex(digest.digest()),
+                    Files.getLastModifiedTime(file).toInstant());
+        }
+
+        private static MessageDigest sha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package microservices.lab1.media.storage;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+
+/**
+ * {@code sha256} is {@code null} for files that were not ingested by this service.
+ */
+public record MediaMetadata(Path path, String contentType, long contentLength, String sha256, Instant lastModified) {
+
+    public MediaMetadata(String path, String contentType, Long contentLength, String sha256, Instant lastModified) {
+        this(Paths.get(path), contentType, contentLength, sha256, lastModified);
+    }
+
+    public String fileName() {
+        return path.getFileName().toString();
+    }
+
+    public String etag() {
+        if (sha256 != null) {
+            return "\"" + sha256 + "\"";
+        }
+        return "\"" + Long.toHexString(contentLength) + "-" + Long.toHexString(lastModified.toEpochMilli()) + "\"";
+    }
+}
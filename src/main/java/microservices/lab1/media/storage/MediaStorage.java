@@ -0,0 +1,43 @@
+package microservices.lab1.media.storage;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Media bytes addressed by their SHA-256. Reference counting is left to
+ * {@link ContentStore}.
+ */
+public interface MediaStorage {
+
+    int SHARDS = 256;
+
+    MediaMetadata store(MultipartFile file) throws IOException;
+
+    /**
+     * The file is gone afterwards, also when the content was already stored. If the
+     * call fails the file is left in place, so it can be repeated.
+     */
+    MediaMetadata store(Path file, String fileName) throws IOException;
+
+    /**
+     * On the storage's own disks, so {@link #store(Path, String)} need not copy it.
+     */
+    Path temporary() throws IOException;
+
+    List<Path> incoming();
+
+    Optional<Path> find(String sha256);
+
+    boolean delete(String sha256) throws IOException;
+
+    /**
+     * The objects whose SHA-256 starts with the byte {@code shard}, and for shard 0
+     * also files being received and those written before storage was
+     * content-addressed.
+     */
+    List<StoredFile> list(int shard) throws IOException;
+}
@@ -0,0 +1,72 @@
+package microservices.lab1.media.storage;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+import java.nio.charset.StandardCharsets;
+
+public final class MediaTypes {
+
+    public static final int HEADER_LENGTH = 12;
+
+    private MediaTypes() {
+    }
+
+    public static String detect(byte[] header, int length, String fileName) {
+        if (length >= 3 && startsWith(header, 0, "ID3")) {
+            return "audio/mpeg";
+        }
+        if (length >= 2 && (header[0] & 0xFF) == 0xFF) {
+            if ((header[1] & 0xF6) == 0xF0) {
+                return "audio/aac";
+            }
+            if ((header[1] & 0xE0) == 0xE0) {
+                return "audio/mpeg";
+            }
+        }
+        if (length >= 12 && startsWith(header, 4, "ftyp")) {
+            if (startsWith(header, 8, "M4A ") || startsWith(header, 8, "M4B ")) {
+                return "audio/mp4";
+            }
+            if (startsWith(header, 8, "qt  ")) {
+                return "video/quicktime";
+            }
+            return "video/mp4";
+        }
+        if (length >= 12 && startsWith(header, 0, "RIFF")) {
+            if (startsWith(header, 8, "WAVE")) {
+                return "audio/wav";
+            }
+            if (startsWith(header, 8, "AVI ")) {
+                return "video/x-msvideo";
+            }
+        }
+        if (length >= 4 && startsWith(header, 0, "OggS")) {
+            return "audio/ogg";
+        }
+        if (length >= 4 && startsWith(header, 0, "fLaC")) {
+            return "audio/flac";
+        }
+        if (length >= 4 && (header[0] & 0xFF) == 0x1A && (header[1] & 0xFF) == 0x45
+                && (header[2] & 0xFF) == 0xDF && (header[3] & 0xFF) == 0xA3) {
+            return "video/webm";
+        }
+        return fromFileName(fileName);
+    }
+
+    public static String fromFileName(String fileName) {
+        return MediaTypeFactory.getMediaType(fileName)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                .toString();
+    }
+
+    private static boolean startsWith(byte[] header, int offset, String signature) {
+        byte[] expected = signature.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < expected.length; i++) {
+            if (header[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
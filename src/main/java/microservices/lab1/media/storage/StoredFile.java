@@ -0,0 +1,10 @@
+package microservices.lab1.media.storage;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * {@code sha256} is {@code null} for a file still being received.
+ */
+public record StoredFile(Path path, String sha256, Instant lastModified) {
+}
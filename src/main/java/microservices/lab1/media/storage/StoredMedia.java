@@ -0,0 +1,11 @@
+package microservices.lab1.media.storage;
+
+import java.time.Instant;
+
+public record StoredMedia(long id, String title, MediaMetadata media) {
+
+    public StoredMedia(Long id, String title, String path, String contentType, Long contentLength,
+                       String sha256, Instant lastModified) {
+        this(id, title, new MediaMetadata(path, contentType, contentLength, sha256, lastModified));
+    }
+}
@@ -0,0 +1,80 @@
+package microservices.lab1.media.storage;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Moves the files of rows hashed before media was content-addressed into
+ * {@link MediaStorage}. Files move before the transaction commits, so running
+ * again after a failure points those rows at the objects.
+ */
+@Component
+public class V3_1__Move_media_into_object_storage extends BaseJavaMigration {
+
+    private static final List<String> TABLES = List.of("music", "video");
+
+    private final MediaStorage mediaStorage;
+
+    public V3_1__Move_media_into_object_storage(MediaStorage mediaStorage) {
+        this.mediaStorage = mediaStorage;
+    }
+
+    @Override
+    public void migrate(Context context) throws IOException {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(context.getConnection(), true));
+        for (String table : TABLES) {
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                    "select id, path, sha256 from " + table + " where sha256 is not null and path is not null");
+            for (Map<String, Object> row : rows) {
+                move(jdbcTemplate, table, row);
+            }
+        }
+    }
+
+    private void move(JdbcTemplate jdbcTemplate, String table, Map<String, Object> row) throws IOException {
+        Path file = Paths.get((String) row.get("path"));
+        String sha256 = (String) row.get("sha256");
+        Optional<Path> stored = mediaStorage.find(sha256);
+        if (stored.isPresent() && stored.get().equals(file)) {
+            return;
+        }
+
+        MediaMetadata media;
+        if (Files.isRegularFile(file)) {
+            media = mediaStorage.store(file, file.getFileName().toString());
+        } else if (stored.isPresent()) {
+            media = new MediaMetadata(stored.get(), null, 0, sha256, Files.getLastModifiedTime(stored.get()).toInstant());
+        } else {
+            // Nothing on disk to move; the row stays as it was.
+            return;
+        }
+
+        if (!media.sha256().equals(sha256)) {
+            jdbcTemplate.update("update media_object set reference_count = reference_count - 1 where sha256 = ?", sha256);
+            jdbcTemplate.update("delete from media_object where sha256 = ? and reference_count <= 0", sha256);
+            if (jdbcTemplate.update("update media_object set reference_count = reference_count + 1 where sha256 = ?",
+                    media.sha256()) == 0) {
+                jdbcTemplate.update("insert into media_object (sha256, content_type, content_length, reference_count, created_at) "
+                                + "values (?, ?, ?, 1, ?)",
+                        media.sha256(), media.contentType(), media.contentLength(), Timestamp.from(Instant.now()));
+            }
+            jdbcTemplate.update("update " + table + " set sha256 = ?, content_length = ? where id = ?",
+                    media.sha256(), media.contentLength(), row.get("id"));
+        }
+        jdbcTemplate.update("update " + table + " set path = ?, last_modified = ? where id = ?",
+                media.path().toString(), Timestamp.from(media.lastModified()), row.get("id"));
+    }
+}
@@ -0,0 +1,238 @@
+package microservices.lab1.media.streaming;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import microservices.lab1.media.cache.MediaBlockCache;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes a media file to the response, honouring {@code Range}, {@code If-Range}
+ * and the validators recorded at ingest. Whole files and single ranges go to
+ * Tomcat's sendfile when the container supports it, other regions through
+ * {@code transferTo}; only ranges {@link MediaBlockCache} admits are copied from
+ * its blocks.
+ */
+@Component
+public class MediaStreamer {
+
+    static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String BYTES = "bytes";
+
+    private final boolean zeroCopy;
+    private final MediaBlockCache blockCache;
+
+    public MediaStreamer(@Value("${media.streaming.zero-copy:true}") boolean zeroCopy, MediaBlockCache blockCache) {
+        this.zeroCopy = zeroCopy;
+        this.blockCache = blockCache;
+    }
+
+    public void stream(MediaMetadata media, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String contentType = media.contentType();
+        long length = media.contentLength();
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES);
+        response.setHeader(HttpHeaders.ETAG, media.etag());
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, media.lastModified().toEpochMilli());
+        if (new ServletWebRequest(request, response).checkNotModified(media.etag(), media.lastModified().toEpochMilli())) {
+            return;
+        }
+
+        List<long[]> regions = requestedRegions(request, media);
+        if (regions == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            writeBody(media, request, response, List.of(new long[]{0, length - 1}), null);
+        } else if (regions.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES + " */" + length);
+        } else if (regions.size() == 1) {
+            long[] region = regions.get(0);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(region, length));
+            response.setContentLengthLong(region[1] - region[0] + 1);
+            writeBody(media, request, response, regions, null);
+        } else {
+            String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType("multipart/byteranges; boundary=" + boundary);
+            response.setContentLengthLong(multipartLength(regions, contentType, length, boundary));
+            writeBody(media, request, response, regions, boundary);
+        }
+    }
+
+    /**
+     * {@code null} for the whole file, an empty list if no range can be satisfied,
+     * and merged inclusive {@code [start, end]} pairs otherwise.
+     */
+    private List<long[]> requestedRegions(HttpServletRequest request, MediaMetadata media) {
+        long length = media.contentLength();
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (!StringUtils.hasText(rangeHeader) || !ifRangeMatches(request, media)) {
+            return null;
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        List<long[]> regions = new ArrayList<>(ranges.size());
+        for (HttpRange range : ranges) {
+            try {
+                long start = range.getRangeStart(length);
+                long end = range.getRangeEnd(length);
+                if (start <= end) {
+                    regions.add(new long[]{start, end});
+                }
+            } catch (IllegalArgumentException e) {
+                // Unsatisfiable range; the remaining ones may still be served.
+            }
+        }
+        if (regions.size() < 2) {
+            return regions;
+        }
+
+        regions.sort(Comparator.comparingLong(region -> region[0]));
+        List<long[]> merged = new ArrayList<>(regions.size());
+        long[] last = null;
+        for (long[] region : regions) {
+            if (last != null && region[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], region[1]);
+            } else {
+                last = region;
+                merged.add(last);
+            }
+        }
+        if (merged.size() == 1 && merged.get(0)[0] == 0 && merged.get(0)[1] == length - 1) {
+            return null;
+        }
+        return merged;
+    }
+
+    private boolean ifRangeMatches(HttpServletRequest request, MediaMetadata media) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (!StringUtils.hasText(ifRange)) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(media.etag());
+        }
+        try {
+            long date = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return date / 1000 == media.lastModified().toEpochMilli() / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void writeBody(MediaMetadata media, HttpServletRequest request, HttpServletResponse response,
+                           List<long[]> regions, String boundary) throws IOException {
+        if (HttpMethod.HEAD.matches(request.getMethod())) {
+            return;
+        }
+        boolean[] cached = new boolean[regions.size()];
+        for (int i = 0; i < regions.size(); i++) {
+            long[] region = regions.get(i);
+            cached[i] = blockCache.isEnabled() && blockCache.admit(media, region[0], region[1] - region[0] + 1);
+        }
+        if (boundary == null && !cached[0] && sendfile(media.path(), regions.get(0), request)) {
+            return;
+        }
+
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(media.path(), StandardOpenOption.READ)) {
+            for (int i = 0; i < regions.size(); i++) {
+                long[] region = regions.get(i);
+                long count = region[1] - region[0] + 1;
+                if (boundary != null) {
+                    out.write(partHeader(region, media.contentType(), media.contentLength(), boundary));
+                }
+                if (cached[i]) {
+                    blockCache.copy(media, channel, region[0], count, out);
+                } else {
+                    transfer(channel, region[0], count, target);
+                }
+            }
+            if (boundary != null) {
+                out.write(closingBoundary(boundary));
+            }
+        }
+        out.flush();
+    }
+
+    private boolean sendfile(Path file, long[] region, HttpServletRequest request) {
+        if (!zeroCopy || region[1] < region[0] || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, region[0]);
+        // Tomcat's end offset is exclusive.
+        request.setAttribute(SENDFILE_END, region[1] + 1);
+        return true;
+    }
+
+    private void transfer(FileChannel channel, long position, long count, WritableByteChannel target) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new EOFException("Media file is shorter than expected");
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    private long multipartLength(List<long[]> regions, String contentType, long length, String boundary) {
+        long total = closingBoundary(boundary).length;
+        for (long[] region : regions) {
+            total += partHeader(region, contentType, length, boundary).length + region[1] - region[0] + 1;
+        }
+        return total;
+    }
+
+    private byte[] partHeader(long[] region, String contentType, long length, String boundary) {
+        String header = "\r\n--" + boundary + "\r\n"
+                + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                + HttpHeaders.CONTENT_RANGE + ": " + contentRange(region, length) + "\r\n\r\n";
+        return header.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private byte[] closingBoundary(String boundary) {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private String contentRange(long[] region, long length) {
+        return BYTES + " " + region[0] + "-" + region[1] + "/" + length;
+    }
+}
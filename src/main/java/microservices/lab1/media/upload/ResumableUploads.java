@@ -0,0 +1,334 @@
+package microservices.lab1.media.upload;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.media.storage.MediaStorage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Uploads sent in pieces, each written straight to its offset in a file of the
+ * announced length, so pieces may arrive in any order and in parallel. A session
+ * is saved to {@code <id>.session} next to its file, so it survives a restart and
+ * is visible to other instances sharing the disk; it is only dropped after
+ * {@code media.upload.expire-after} without a piece.
+ */
+@Component
+public class ResumableUploads {
+
+    private static final String STATE_SUFFIX = ".session";
+
+    private final MediaStorage mediaStorage;
+    private final long maxLength;
+    private final Duration expireAfter;
+    private final ConcurrentHashMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    public ResumableUploads(MediaStorage mediaStorage,
+                            @Value("${media.upload.max-length:10GB}") DataSize maxLength,
+                            @Value("${media.upload.expire-after:PT24H}") Duration expireAfter) {
+        this.mediaStorage = mediaStorage;
+        this.maxLength = maxLength.toBytes();
+        this.expireAfter = expireAfter;
+    }
+
+    /**
+     * The file is extended to its full length up front.
+     */
+    public UploadSession create(long length, String fileName) throws IOException {
+        if (length <= 0 || length > maxLength) {
+            throw new CustomException("Довжина файлу має бути від 1 до " + maxLength + " байтів.");
+        }
+        Path file = mediaStorage.temporary();
+        if (Files.getFileStore(file.toAbsolutePath().getParent()).getUsableSpace() < length) {
+            throw new CustomException("Недостатньо місця для файлу довжиною " + length + " байтів.");
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            channel.write(ByteBuffer.allocate(1), length - 1);
+        } catch (IOException e) {
+            channel.close();
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), fileName, length, file, channel,
+                Instant.now().plus(expireAfter));
+        try {
+            save(session);
+        } catch (IOException | RuntimeException e) {
+            discard(session);
+            throw e;
+        }
+        sessions.put(session.id(), session);
+        return session;
+    }
+
+    @PostConstruct
+    public void load() {
+        for (Path incoming : mediaStorage.incoming()) {
+            if (!Files.isDirectory(incoming)) {
+                continue;
+            }
+            try (DirectoryStream<Path> states = Files.newDirectoryStream(incoming, "*" + STATE_SUFFIX)) {
+                for (Path state : states) {
+                    load(state);
+                }
+            } catch (IOException e) {
+                // Sessions in this directory are loaded when they are asked for.
+            }
+        }
+    }
+
+    public Optional<UploadSession> find(String id) {
+        UploadSession session = sessions.get(id);
+        if (session != null || !isSessionId(id)) {
+            return Optional.ofNullable(session);
+        }
+        for (Path incoming : mediaStorage.incoming()) {
+            Path state = incoming.resolve(id + STATE_SUFFIX);
+            if (Files.exists(state)) {
+                return Optional.ofNullable(load(state));
+            }
+        }
+        return Optional.empty();
+    }
+
+    public boolean holds(Path file) {
+        return sessions.values().stream().anyMatch(session -> session.file().equals(file)
+                || state(session).equals(file) || pending(state(session)).equals(file));
+    }
+
+    public void write(UploadSession session, long position, InputStream body) throws IOException {
+        if (!Files.exists(state(session))) {
+            if (sessions.remove(session.id(), session)) {
+                session.close();
+            }
+            throw new CustomException("Сесію завантаження " + session.id() + " не знайдено.");
+        }
+        session.expireAt(Instant.now().plus(expireAfter));
+        try {
+            session.write(position, body);
+        } finally {
+            save(session);
+        }
+    }
+
+    /**
+     * The session stays open, so a caller that fails afterwards can complete it again.
+     */
+    public UploadSession findComplete(String id) {
+        UploadSession session = find(id)
+                .orElseThrow(() -> new CustomException("Сесію завантаження " + id + " не знайдено."));
+        if (!session.isComplete()) {
+            throw new CustomException("Завантаження " + id + " не завершено: отримано " + session.offset()
+                    + " з " + session.length() + " байтів.");
+        }
+        return session;
+    }
+
+    /**
+     * The caller takes over the file.
+     */
+    public UploadSession complete(String id) throws IOException {
+        UploadSession session = findComplete(id);
+        if (!sessions.remove(id, session)) {
+            throw new CustomException("Сесію завантаження " + id + " не знайдено.");
+        }
+        try {
+            session.finish();
+        } catch (IOException e) {
+            Files.deleteIfExists(session.file());
+            Files.deleteIfExists(state(session));
+            throw e;
+        }
+        Files.deleteIfExists(state(session));
+        return session;
+    }
+
+    public boolean cancel(String id) {
+        Optional<UploadSession> session = find(id);
+        if (session.isEmpty() || !sessions.remove(id, session.get())) {
+            return false;
+        }
+        discard(session.get());
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${media.upload.expiry-check-interval:PT1M}")
+    public void expire() {
+        Instant now = Instant.now();
+        sessions.forEach((id, session) -> {
+            if (session.expiresAt().isAfter(now)) {
+                return;
+            }
+            try {
+                Instant saved = Instant.parse(read(state(session)).getProperty("expiresAt"));
+                if (saved.isAfter(now)) {
+                    session.expireAt(saved);
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Without a saved state the session is as old as it looks here.
+            }
+            if (sessions.remove(id, session)) {
+                discard(session);
+            }
+        });
+    }
+
+    /**
+     * Leaves the sessions on disk, so the uploads carry on after a restart.
+     */
+    @PreDestroy
+    public void close() {
+        sessions.values().removeIf(session -> {
+            try {
+                session.close();
+            } catch (IOException e) {
+                // The session is saved already.
+            }
+            return true;
+        });
+    }
+
+    private UploadSession load(Path state) {
+        try {
+            Properties saved = read(state);
+            String id = saved.getProperty("id");
+            Path file = state.resolveSibling(saved.getProperty("file"));
+            if (!Files.isRegularFile(file)) {
+                Files.deleteIfExists(state);
+                return null;
+            }
+            UploadSession session = new UploadSession(id, saved.getProperty("fileName"),
+                    Long.parseLong(saved.getProperty("length")), file,
+                    FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                    Instant.parse(saved.getProperty("expiresAt")));
+            receive(session, saved);
+            UploadSession loaded = sessions.putIfAbsent(id, session);
+            if (loaded != null) {
+                session.close();
+                return loaded;
+            }
+            return session;
+        } catch (IOException | RuntimeException e) {
+            // An unreadable state is left for the reclaimer.
+            return null;
+        }
+    }
+
+    /**
+     * Flushes the pieces the session lists before replacing its saved state, adding
+     * the pieces another instance saved in the meantime.
+     */
+    private void save(UploadSession session) throws IOException {
+        Path state = state(session);
+        FileLock lock = session.lock();
+        try {
+            session.force();
+            if (Files.exists(state)) {
+                Properties saved = read(state);
+                receive(session, saved);
+                Instant expiresAt = Instant.parse(saved.getProperty("expiresAt"));
+                if (expiresAt.isAfter(session.expiresAt())) {
+                    session.expireAt(expiresAt);
+                }
+            }
+
+            UploadStatus status = session.status();
+            Properties properties = new Properties();
+            properties.setProperty("id", session.id());
+            if (session.fileName() != null) {
+                properties.setProperty("fileName", session.fileName());
+            }
+            properties.setProperty("length", Long.toString(session.length()));
+            properties.setProperty("file", session.file().getFileName().toString());
+            properties.setProperty("expiresAt", status.expiresAt().toString());
+            properties.setProperty("received", status.received().stream()
+                    .map(range -> range.start() + "-" + range.end())
+                    .collect(Collectors.joining(",")));
+
+            Path pending = pending(state);
+            try (FileChannel channel = FileChannel.open(pending, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                 Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+                writer.flush();
+                channel.force(true);
+            }
+            Files.move(pending, state, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            session.unlock(lock);
+        }
+    }
+
+    private static void receive(UploadSession session, Properties saved) {
+        String received = saved.getProperty("received", "");
+        for (String range : received.split(",")) {
+            int dash = range.indexOf('-');
+            if (dash > 0) {
+                session.receive(Long.parseLong(range.substring(0, dash)), Long.parseLong(range.substring(dash + 1)));
+            }
+        }
+    }
+
+    private static Properties read(Path state) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(state, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    private static Path state(UploadSession session) {
+        return session.file().resolveSibling(session.id() + STATE_SUFFIX);
+    }
+
+    private static Path pending(Path state) {
+        return state.resolveSibling(state.getFileName() + ".tmp");
+    }
+
+    private static boolean isSessionId(String id) {
+        try {
+            return UUID.fromString(id).toString().equals(id);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void discard(UploadSession session) {
+        try {
+            session.close();
+            Files.deleteIfExists(session.file());
+            Files.deleteIfExists(state(session));
+        } catch (IOException e) {
+            // The file stays in the incoming directory of its mount.
+        }
+    }
+}
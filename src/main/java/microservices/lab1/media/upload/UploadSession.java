@@ -0,0 +1,166 @@
+package microservices.lab1.media.upload;
+
+import microservices.lab1.common.exception.CustomException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A file of the announced length and the byte ranges of it that have arrived.
+ */
+public class UploadSession {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final String id;
+    private final String fileName;
+    private final long length;
+    private final Path file;
+    private final FileChannel channel;
+    private final TreeMap<Long, Long> received = new TreeMap<>();
+    private final ReentrantLock saving = new ReentrantLock();
+    private volatile Instant expiresAt;
+
+    UploadSession(String id, String fileName, long length, Path file, FileChannel channel, Instant expiresAt) {
+        this.id = id;
+        this.fileName = fileName;
+        this.length = length;
+        this.file = file;
+        this.channel = channel;
+        this.expiresAt = expiresAt;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String fileName() {
+        return fileName;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public Instant expiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Bytes received from the start without a gap.
+     */
+    public synchronized long offset() {
+        Long end = received.get(0L);
+        return end == null ? 0 : end;
+    }
+
+    public synchronized boolean isComplete() {
+        return offset() == length;
+    }
+
+    public synchronized UploadStatus status() {
+        List<UploadStatus.Range> ranges = new ArrayList<>(received.size());
+        for (Map.Entry<Long, Long> range : received.entrySet()) {
+            ranges.add(new UploadStatus.Range(range.getKey(), range.getValue()));
+        }
+        return new UploadStatus(id, length, offset(), ranges, expiresAt);
+    }
+
+    void expireAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Whatever was written counts as received, even if the body breaks off.
+     */
+    void write(long position, InputStream body) throws IOException {
+        if (position < 0 || position > length) {
+            throw new CustomException("Зміщення " + position + " виходить за межі файлу довжиною " + length + " байтів.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        long end = position;
+        try {
+            int read;
+            while ((read = body.read(buffer.array(), 0, (int) Math.min(CHUNK_SIZE, length - end))) > 0) {
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    end += channel.write(buffer, end);
+                }
+                buffer.clear();
+            }
+            if (end == length && body.read() != -1) {
+                throw new CustomException("Частина виходить за межі файлу довжиною " + length + " байтів.");
+            }
+        } finally {
+            receive(position, end);
+        }
+    }
+
+    void finish() throws IOException {
+        try (channel) {
+            channel.force(false);
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Also excludes other instances sharing the disk. The locked byte lies past the
+     * end of the content.
+     */
+    FileLock lock() throws IOException {
+        saving.lock();
+        try {
+            return channel.lock(length, 1, false);
+        } catch (IOException | RuntimeException e) {
+            saving.unlock();
+            throw e;
+        }
+    }
+
+    void unlock(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            saving.unlock();
+        }
+    }
+
+    synchronized void receive(long start, long end) {
+        if (start >= end) {
+            return;
+        }
+        Map.Entry<Long, Long> before = received.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        Map.Entry<Long, Long> after = received.ceilingEntry(start);
+        while (after != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            received.remove(after.getKey());
+            after = received.ceilingEntry(start);
+        }
+        received.put(start, end);
+    }
+}
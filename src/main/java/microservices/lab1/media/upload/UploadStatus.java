@@ -0,0 +1,13 @@
+package microservices.lab1.media.upload;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * {@code received} holds half-open {@code [start, end)} byte ranges.
+ */
+public record UploadStatus(String id, long length, long offset, List<Range> received, Instant expiresAt) {
+
+    public record Range(long start, long end) {
+    }
+}
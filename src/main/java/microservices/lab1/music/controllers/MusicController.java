@@ -2,15 +2,27 @@ package microservices.lab1.music.controllers;
 
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import microservices.lab1.common.bulk.Bulk;
+import microservices.lab1.common.bulk.BulkItemResult;
+import microservices.lab1.common.pagination.Keyset;
+import microservices.lab1.common.projection.GenreCount;
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.common.version.EntityTags;
+import microservices.lab1.media.ingest.IngestProgress;
+import microservices.lab1.music.dto.BulkUpdateMusicDTO;
 import microservices.lab1.music.dto.CreateMusicDTO;
 import microservices.lab1.music.dto.UpdateMusicDTO;
 import microservices.lab1.music.dto.DeleteMusicDTO;
 import microservices.lab1.music.dto.GetMusicDTO;
 import microservices.lab1.music.services.MusicService;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.util.List;
@@ -21,14 +33,19 @@ import java.util.List;
 public class MusicController {
 
     private final MusicService musicService;
+    private final CatalogVersion catalogVersion;
 
     @PostMapping(consumes = {"multipart/form-data"})
     public ResponseEntity<GetMusicDTO> createMusic(
             @RequestPart("music") @Valid CreateMusicDTO musicDTO,
-            @RequestPart("file") MultipartFile file) {
+            @RequestPart(value = "file", required = false) MultipartFile file,
+            @RequestParam(required = false) String sha256) {
         try {
             if (file == null || file.isEmpty()) {
-                return ResponseEntity.badRequest().build();
+                if (sha256 == null) {
+                    return ResponseEntity.badRequest().build();
+                }
+                return new ResponseEntity<>(musicService.saveWithExistingMedia(musicDTO, sha256), HttpStatus.CREATED);
             }
             GetMusicDTO createdMusic = musicService.save(musicDTO, file);
             return new ResponseEntity<>(createdMusic, HttpStatus.CREATED);
@@ -38,30 +55,109 @@ public class MusicController {
         }
     }
 
+    /**
+     * Creates the row from a finished resumable upload, see {@code /media/uploads}.
+     */
+    @PostMapping("/uploads/{uploadId}")
+    public ResponseEntity<GetMusicDTO> createMusicFromUpload(
+            @PathVariable String uploadId,
+            @RequestBody @Valid CreateMusicDTO musicDTO) throws IOException {
+        return new ResponseEntity<>(musicService.saveUpload(musicDTO, uploadId), HttpStatus.CREATED);
+    }
+
+    @PostMapping("/bulk")
+    public ResponseEntity<List<BulkItemResult<GetMusicDTO>>> createMusicBulk(@RequestBody List<CreateMusicDTO> musicDTOs) {
+        List<BulkItemResult<GetMusicDTO>> results = musicService.saveAll(musicDTOs);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.CREATED));
+    }
+
+    @PutMapping("/bulk")
+    public ResponseEntity<List<BulkItemResult<GetMusicDTO>>> updateMusicBulk(@RequestBody List<BulkUpdateMusicDTO> musicDTOs) {
+        List<BulkItemResult<GetMusicDTO>> results = musicService.updateAll(musicDTOs);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.OK));
+    }
+
+    @DeleteMapping("/bulk")
+    public ResponseEntity<List<BulkItemResult<Void>>> deleteMusicBulk(@RequestBody List<Long> ids) {
+        List<BulkItemResult<Void>> results = musicService.deleteAll(ids);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.OK));
+    }
+
+    @GetMapping("/genres")
+    public ResponseEntity<List<GenreCount>> getMusicGenres(WebRequest request) {
+        CatalogVersion.Stamp version = catalogVersion.current();
+        if (request.checkNotModified(version.etag(), version.lastModified())) {
+            return null;
+        }
+        return ResponseEntity.ok(musicService.countGenres());
+    }
+
+    @GetMapping("/suggest")
+    public ResponseEntity<List<String>> suggestMusic(@RequestParam String q, @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(musicService.suggest(q, limit));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<GetMusicDTO> getMusicById(@PathVariable long id) {
         GetMusicDTO music = musicService.findById(id);
         if (music != null) {
-            return new ResponseEntity<>(music, HttpStatus.OK);
+            return ResponseEntity.ok().eTag(EntityTags.of(music.getVersion())).body(music);
         }
         return new ResponseEntity<>(HttpStatus.NOT_FOUND);
     }
 
+    @GetMapping("/{id}/status")
+    public ResponseEntity<IngestProgress> getMusicStatus(@PathVariable long id) {
+        return ResponseEntity.ok(musicService.findIngestProgress(id));
+    }
+
+    @GetMapping(params = "ids")
+    public ResponseEntity<List<BulkItemResult<GetMusicDTO>>> getMusicByIds(@RequestParam List<Long> ids, WebRequest request) {
+        CatalogVersion.Stamp version = catalogVersion.current();
+        if (request.checkNotModified(version.etag(), version.lastModified())) {
+            return null;
+        }
+        List<BulkItemResult<GetMusicDTO>> results = musicService.findAllByIds(ids);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.OK));
+    }
+
     @GetMapping
-    public ResponseEntity<List<GetMusicDTO>> getAllMusic() {
-        List<GetMusicDTO> musicList = musicService.findAll();
-        return new ResponseEntity<>(musicList, HttpStatus.OK);
+    public ResponseEntity<List<GetMusicDTO>> getAllMusic(
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String genre,
+            @RequestParam(required = false) String artist,
+            @RequestParam(required = false) Long userId,
+            @RequestParam(defaultValue = "false") boolean all,
+            WebRequest request) {
+        CatalogVersion.Stamp version = catalogVersion.current();
+        if (request.checkNotModified(version.etag(), version.lastModified())) {
+            return null;
+        }
+        if (all) {
+            List<GetMusicDTO> musicList = musicService.findAll();
+            return new ResponseEntity<>(musicList, HttpStatus.OK);
+        }
+        List<GetMusicDTO> musicList = musicService.findPage(after, limit, genre, artist, userId);
+        return Keyset.response(musicList, limit, GetMusicDTO::getId);
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportMusic() {
+        StreamingResponseBody body = out -> musicService.exportAll(out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
     @PutMapping(value = "/{id}", consumes = {"multipart/form-data"})
     public ResponseEntity<GetMusicDTO> updateMusic(
             @PathVariable long id,
             @RequestPart("music") @Valid UpdateMusicDTO musicDTO,
-            @RequestPart(value = "file", required = false) MultipartFile file) {
+            @RequestPart(value = "file", required = false) MultipartFile file,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
-            GetMusicDTO updatedMusic = musicService.update(id, musicDTO, file);
+            GetMusicDTO updatedMusic = musicService.update(id, musicDTO, file, EntityTags.expectedVersion(ifMatch));
             if (updatedMusic != null) {
-                return new ResponseEntity<>(updatedMusic, HttpStatus.OK);
+                return ResponseEntity.ok().eTag(EntityTags.of(updatedMusic.getVersion())).body(updatedMusic);
             }
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         } catch (IOException e) {
@@ -71,8 +167,11 @@ public class MusicController {
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteMusic(@PathVariable long id, @RequestBody DeleteMusicDTO deleteDTO) {
-        boolean deleted = musicService.delete(id, deleteDTO.getUserId());
+    public ResponseEntity<Void> deleteMusic(
+            @PathVariable long id,
+            @RequestBody DeleteMusicDTO deleteDTO,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        boolean deleted = musicService.delete(id, deleteDTO.getUserId(), EntityTags.expectedVersion(ifMatch));
         if (deleted) {
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
@@ -0,0 +1,14 @@
+package microservices.lab1.music.dto;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class BulkUpdateMusicDTO extends UpdateMusicDTO {
+    @NotNull(message = "ID is required")
+    private Long id;
+
+    private Long version;
+}
@@ -1,14 +1,25 @@
 package microservices.lab1.music.dto;
 
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 @Getter
 @Setter
+@NoArgsConstructor
 public class GetMusicDTO {
     private Long id;
     private String title;
     private String artist;
     private String genre;
     private String path;
+    private long version;
+
+    public GetMusicDTO(Long id, String title, String artist, String genre, long version) {
+        this.id = id;
+        this.title = title;
+        this.artist = artist;
+        this.genre = genre;
+        this.version = version;
+    }
 }
\ No newline at end of file
@@ -10,6 +10,14 @@ import microservices.lab1.user.models.User;
 import microservices.lab1.user.repository.UserRepository;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
 @Component
 @RequiredArgsConstructor
 public class MusicMapper {
@@ -17,32 +25,54 @@ public class MusicMapper {
     private final UserRepository userRepository;
 
     public Music toEntity(CreateMusicDTO dto) {
+        return toEntity(dto, findUser(dto.getUserId()));
+    }
+
+    public Music toEntity(CreateMusicDTO dto, User user) {
         Music music = new Music();
         music.setTitle(dto.getTitle());
         music.setArtist(dto.getArtist());
         music.setGenre(dto.getGenre());
-        User user = userRepository.findById(dto.getUserId())
-                .orElseThrow(() -> new CustomException("Користувача з ID " + dto.getUserId() + " не знайдено."));
         music.setUser(user);
         return music;
     }
 
     public Music toEntity(UpdateMusicDTO dto, Music existingMusic) {
+        return toEntity(dto, existingMusic, findUser(dto.getUserId()));
+    }
+
+    public Music toEntity(UpdateMusicDTO dto, Music existingMusic, User user) {
         existingMusic.setTitle(dto.getTitle());
         existingMusic.setArtist(dto.getArtist());
         existingMusic.setGenre(dto.getGenre());
-        User user = userRepository.findById(dto.getUserId())
-                .orElseThrow(() -> new CustomException("Користувача з ID " + dto.getUserId() + " не знайдено."));
         existingMusic.setUser(user);
         return existingMusic;
     }
 
+    /**
+     * Unknown ids are absent from the map.
+     */
+    public Map<Long, User> findUsers(Collection<Long> userIds) {
+        Set<Long> ids = userIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return userRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+    }
+
+    private User findUser(Long userId) {
+        return userRepository.findById(userId)
+                .orElseThrow(() -> new CustomException("Користувача з ID " + userId + " не знайдено."));
+    }
+
     public GetMusicDTO toGetMusicDTO(Music music) {
         GetMusicDTO dto = new GetMusicDTO();
         dto.setId(music.getId());
         dto.setTitle(music.getTitle());
         dto.setArtist(music.getArtist());
         dto.setGenre(music.getGenre());
+        dto.setVersion(music.getVersion());
         return dto;
     }
 }
\ No newline at end of file
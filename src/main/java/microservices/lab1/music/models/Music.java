@@ -3,24 +3,56 @@ import com.fasterxml.jackson.annotation.JsonBackReference;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.type.SqlTypes;
+import microservices.lab1.media.ingest.IngestStatus;
 import microservices.lab1.user.models.User;
 
+import java.time.Instant;
+
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_music_title", columnList = "title"),
+        @Index(name = "idx_music_genre_id", columnList = "genre, id"),
+        @Index(name = "idx_music_artist_id", columnList = "artist, id"),
+        @Index(name = "idx_music_user_id", columnList = "user_id, id")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "music")
 @Getter
 @Setter
 public class Music {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "music_seq")
+    @SequenceGenerator(name = "music_seq", sequenceName = "music_seq", allocationSize = 50)
     private Long id;
-    @Lob
+    @Version
+    @ColumnDefault("0")
+    private long version;
+    @Column(length = 100)
     private String title;
+    @Column(length = 100)
     private String artist;
+    @Column(length = 50)
     private String genre;
     private String path;
+    private String contentType;
+    private Long contentLength;
+    @Column(length = 64)
+    private String sha256;
+    private Instant lastModified;
+    @Enumerated(EnumType.STRING)
+    @JdbcTypeCode(SqlTypes.VARCHAR)
+    @Column(length = 16, nullable = false)
+    @ColumnDefault("'READY'")
+    private IngestStatus ingestStatus = IngestStatus.READY;
     @JsonBackReference
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     private User user;
 
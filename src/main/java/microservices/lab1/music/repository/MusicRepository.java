@@ -1,5 +1,83 @@
 package microservices.lab1.music.repository;
+import microservices.lab1.common.projection.GenreCount;
+import microservices.lab1.common.projection.OwnedId;
+import microservices.lab1.music.dto.GetMusicDTO;
 import microservices.lab1.music.models.Music;
+import microservices.lab1.media.search.SearchDocument;
+import microservices.lab1.media.ingest.IngestStatus;
+import microservices.lab1.media.storage.StoredMedia;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
-public interface MusicRepository extends JpaRepository<Music, Long> {}
\ No newline at end of file
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public interface MusicRepository extends JpaRepository<Music, Long> {
+
+    @Query("select new microservices.lab1.media.storage.StoredMedia(m.id, m.title, m.path, m.contentType, " +
+            "m.contentLength, m.sha256, m.lastModified) from Music m " +
+            "where m.sha256 is not null and m.ingestStatus = microservices.lab1.media.ingest.IngestStatus.READY")
+    List<StoredMedia> findStoredMedia();
+
+    @Query("select new microservices.lab1.media.storage.StoredMedia(m.id, m.title, m.path, m.contentType, " +
+            "m.contentLength, m.sha256, m.lastModified) from Music m " +
+            "where m.ingestStatus = microservices.lab1.media.ingest.IngestStatus.PENDING")
+    List<StoredMedia> findPendingMedia();
+
+    @Query("select m.ingestStatus from Music m where m.id = :id")
+    Optional<IngestStatus> findIngestStatusById(@Param("id") long id);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    @Query("select new microservices.lab1.music.dto.GetMusicDTO(m.id, m.title, m.artist, m.genre, m.version) " +
+            "from Music m where m.id = :id")
+    Optional<GetMusicDTO> findDtoById(@Param("id") long id);
+
+    @Query("select new microservices.lab1.music.dto.GetMusicDTO(m.id, m.title, m.artist, m.genre, m.version) " +
+            "from Music m order by m.id")
+    List<GetMusicDTO> findAllDtos();
+
+    @Query("select new microservices.lab1.music.dto.GetMusicDTO(m.id, m.title, m.artist, m.genre, m.version) " +
+            "from Music m where m.id > :after " +
+            "and (:genre is null or m.genre = :genre) " +
+            "and (:artist is null or m.artist = :artist) " +
+            "and (:userId is null or m.user.id = :userId) " +
+            "order by m.id")
+    List<GetMusicDTO> findPage(@Param("after") long after,
+                         @Param("genre") String genre,
+                         @Param("artist") String artist,
+                         @Param("userId") Long userId,
+                         Limit limit);
+
+    @Query("select new microservices.lab1.common.projection.GenreCount(m.genre, count(m)) from Music m " +
+            "where m.genre is not null group by m.genre")
+    List<GenreCount> countGenres();
+
+    @Query("select new microservices.lab1.common.projection.OwnedId(m.user.id, m.id) from Music m " +
+            "where m.user.id in :userIds order by m.user.id, m.id")
+    List<OwnedId> findIdsByUserIds(@Param("userIds") Collection<Long> userIds);
+
+    /**
+     * Streams every row for the export, 1000 rows per round trip. MySQL
+     * Connector/J only honours the fetch size with {@code useCursorFetch=true} on
+     * the connection and buffers the whole result set otherwise. The connection is
+     * busy until the stream is closed.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select m from Music m order by m.id")
+    Stream<Music> streamAll();
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select new microservices.lab1.media.search.SearchDocument(m.id, m.title, m.artist, m.genre) " +
+            "from Music m order by m.id")
+    Stream<SearchDocument> streamSearchDocuments();
+}
\ No newline at end of file
@@ -1,23 +1,63 @@
 package microservices.lab1.music.services;
 
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
+import microservices.lab1.common.bulk.Bulk;
+import microservices.lab1.common.bulk.BulkItemResult;
 import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.common.facet.GenreCounter;
+import microservices.lab1.common.export.NdjsonWriter;
+import microservices.lab1.common.lookup.MultiIdLoader;
+import microservices.lab1.common.pagination.Keyset;
+import microservices.lab1.common.projection.GenreCount;
+import microservices.lab1.common.transaction.AfterCommit;
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.common.version.EntityTags;
+import microservices.lab1.media.index.MediaIndex;
+import microservices.lab1.media.ingest.IngestCompleted;
+import microservices.lab1.media.ingest.IngestJob;
+import microservices.lab1.media.ingest.IngestPipeline;
+import microservices.lab1.media.ingest.IngestProgress;
+import microservices.lab1.media.ingest.IngestStatus;
+import microservices.lab1.media.reclaim.MediaReclaimer;
+import microservices.lab1.media.search.SearchDocument;
+import microservices.lab1.media.search.SearchHit;
+import microservices.lab1.media.search.SearchIndex;
+import microservices.lab1.media.storage.ContentStore;
+import microservices.lab1.media.storage.MediaMetadata;
+import microservices.lab1.media.storage.MediaTypes;
+import microservices.lab1.media.upload.ResumableUploads;
+import microservices.lab1.media.upload.UploadSession;
+import microservices.lab1.music.dto.BulkUpdateMusicDTO;
 import microservices.lab1.music.dto.CreateMusicDTO;
 import microservices.lab1.music.dto.UpdateMusicDTO;
 import microservices.lab1.music.dto.GetMusicDTO;
 import microservices.lab1.music.mapper.MusicMapper;
 import microservices.lab1.music.models.Music;
 import microservices.lab1.music.repository.MusicRepository;
+import microservices.lab1.user.models.User;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.OutputStream;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -25,89 +65,429 @@ public class MusicService {
 
     private final MusicRepository musicRepository;
     private final MusicMapper musicMapper;
+    private final ContentStore contentStore;
+    private final ResumableUploads resumableUploads;
+    private final IngestPipeline ingestPipeline;
+    private final MediaReclaimer mediaReclaimer;
+    private final MediaIndex mediaIndex;
+    private final CatalogVersion catalogVersion;
+    private final NdjsonWriter ndjsonWriter;
+    private final Validator validator;
+    private final MultiIdLoader multiIdLoader;
+    private final SearchIndex searchIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final GenreCounter genreCounts = new GenreCounter();
 
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerStoredMedia() {
+        musicRepository.findStoredMedia().forEach(stored -> mediaIndex.register(stored.title(), stored.id(), stored.media()));
+    }
+
+    /**
+     * Not read-only, so it runs on the primary and sees every committed write.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void rebuildSearchIndex() {
+        searchIndex.rebuild(SearchHit.Type.MUSIC, musicRepository::streamSearchDocuments);
+    }
+
+    /**
+     * The file is stored before the transaction starts, so no connection is held
+     * while it is copied.
+     */
     public GetMusicDTO save(CreateMusicDTO musicDTO, MultipartFile file) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new CustomException("Файл не передано.");
         }
 
+        MediaMetadata written = contentStore.write(file);
+        return transactionTemplate.execute(status -> {
+            Music music = musicMapper.toEntity(musicDTO);
+            music.setIngestStatus(IngestStatus.PENDING);
+            return create(music, contentStore.acquire(written), file.getOriginalFilename());
+        });
+    }
+
+    @Transactional
+    public GetMusicDTO saveWithExistingMedia(CreateMusicDTO musicDTO, String sha256) {
+        return create(musicMapper.toEntity(musicDTO), contentStore.reference(sha256), null);
+    }
+
+    /**
+     * The session is only ended once the row is saved, so a failed request can be
+     * sent again.
+     */
+    @Transactional(rollbackFor = IOException.class)
+    public GetMusicDTO saveUpload(CreateMusicDTO musicDTO, String uploadId) throws IOException {
+        UploadSession upload = resumableUploads.findComplete(uploadId);
         Music music = musicMapper.toEntity(musicDTO);
+        music.setIngestStatus(IngestStatus.PENDING);
+        MediaMetadata received = new MediaMetadata(upload.file(), MediaTypes.fromFileName(upload.fileName()),
+                upload.length(), null, Instant.now());
+        GetMusicDTO created = create(music, received, upload.fileName());
+        musicRepository.flush();
+        resumableUploads.complete(uploadId);
+        return created;
+    }
 
-        File mediaDirectory = new File("media");
-        if (!mediaDirectory.exists()) {
-            mediaDirectory.mkdirs();
+    /**
+     * Ignored unless the row still holds the media the job started from.
+     */
+    @EventListener
+    @Transactional
+    public void finishIngest(IngestCompleted event) {
+        IngestJob job = event.job();
+        if (job.source() != IngestJob.Source.MUSIC) {
+            return;
+        }
+        boolean acquired = job.media().sha256() == null && event.media() != null && event.media().sha256() != null;
+        Music music = musicRepository.findById(job.id()).orElse(null);
+        if (music == null || music.getIngestStatus() != IngestStatus.PENDING
+                || !Objects.equals(music.getPath(), job.media().path().toString())) {
+            if (acquired) {
+                contentStore.release(event.media().sha256());
+            }
+            return;
         }
 
-        String fileName = musicDTO.getTitle() + "_" + System.currentTimeMillis() + getFileExtension(file.getOriginalFilename());
-        Path filePath = Paths.get("src/main/resources/media", fileName);
-        Files.write(filePath, file.getBytes());
+        if (event.status() == IngestStatus.READY) {
+            applyMedia(music, event.media());
+        } else if (acquired) {
+            contentStore.release(event.media().sha256());
+        }
+        music.setIngestStatus(event.status());
+        catalogVersion.increment();
+        registerMedia(music);
+    }
 
-        music.setFilePath(filePath.toString());
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${media.ingest.resubmit-interval:PT1M}",
+            initialDelayString = "${media.ingest.resubmit-interval:PT1M}")
+    @Transactional(readOnly = true)
+    public void resumeIngest() {
+        musicRepository.findPendingMedia().forEach(stored -> ingestPipeline.submit(
+                new IngestJob(IngestJob.Source.MUSIC, stored.id(), stored.media(), null)));
+    }
 
-        Music savedMusic = musicRepository.save(music);
-        return musicMapper.toGetMusicDTO(savedMusic);
+    @Transactional(readOnly = true)
+    public IngestProgress findIngestProgress(long id) {
+        IngestStatus status = musicRepository.findIngestStatusById(id)
+                .orElseThrow(() -> new CustomException("Музику з ID " + id + " не знайдено."));
+        return new IngestProgress(id, status, ingestPipeline.stage(IngestJob.Source.MUSIC, id).orElse(null));
+    }
+
+    public List<GenreCount> countGenres() {
+        return genreCounts.counts();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${catalog.facets.reconcile-interval}",
+            initialDelayString = "${catalog.facets.reconcile-interval}")
+    @Transactional(readOnly = true)
+    public void reconcileGenreCounts() {
+        genreCounts.reset(musicRepository.countGenres());
+    }
+
+    public List<String> suggest(String prefix, int limit) {
+        return searchIndex.suggest(SearchHit.Type.MUSIC, prefix, limit);
     }
 
+    @Transactional(readOnly = true)
     public GetMusicDTO findById(long id) {
-        Music music = musicRepository.findById(id)
+        return musicRepository.findDtoById(id)
                 .orElseThrow(() -> new CustomException("Музику з ID " + id + " не знайдено."));
-        return musicMapper.toGetMusicDTO(music);
     }
 
-    public List<GetMusicDTO> findAll() {
-        return musicRepository.findAll().stream()
-                .map(musicMapper::toGetMusicDTO)
-                .collect(Collectors.toList());
+    @Transactional(readOnly = true)
+    public List<GetMusicDTO> findPage(Long after, int limit, String genre, String artist, Long userId) {
+        return musicRepository.findPage(Keyset.after(after), genre, artist, userId, Limit.of(Keyset.limit(limit)));
     }
 
-    public GetMusicDTO update(long id, UpdateMusicDTO musicDTO, MultipartFile file) throws IOException {
-        if (!musicRepository.existsById(id)) {
-            throw new CustomException("Музику з ID " + id + " не знайдено.");
+    @Transactional(readOnly = true)
+    public List<BulkItemResult<GetMusicDTO>> findAllByIds(List<Long> ids) {
+        Bulk.checkSize(ids);
+        List<Music> musics = multiIdLoader.load(Music.class, ids);
+        List<BulkItemResult<GetMusicDTO>> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Music music = musics.get(i);
+            results.add(music != null
+                    ? BulkItemResult.ok(i, HttpStatus.OK, ids.get(i), musicMapper.toGetMusicDTO(music))
+                    : BulkItemResult.failed(i, HttpStatus.NOT_FOUND, ids.get(i), "Музику з ID " + ids.get(i) + " не знайдено."));
         }
+        return results;
+    }
 
-        Music music = musicRepository.findById(id).get();
-        music = musicMapper.toEntity(musicDTO, music);
+    @Transactional(readOnly = true)
+    public List<GetMusicDTO> findAll() {
+        return musicRepository.findAllDtos();
+    }
 
+    @Transactional(readOnly = true)
+    public long exportAll(OutputStream out) throws IOException {
+        try (Stream<Music> rows = musicRepository.streamAll()) {
+            return ndjsonWriter.write(rows, musicMapper::toGetMusicDTO, GetMusicDTO.class, out);
+        }
+    }
+
+    /**
+     * A stale {@code expectedVersion} fails with 412, a concurrent edit with 409.
+     */
+    public GetMusicDTO update(long id, UpdateMusicDTO musicDTO, MultipartFile file, Long expectedVersion) throws IOException {
         if (file != null && file.isEmpty()) {
             throw new CustomException("Файл не передано.");
         }
 
-        if (file != null) {
-            File mediaDirectory = new File("media");
-            if (!mediaDirectory.exists()) {
-                mediaDirectory.mkdirs();
-            }
+        MediaMetadata written = file == null ? null : contentStore.write(file);
+        String fileName = written == null ? null : file.getOriginalFilename();
+        return transactionTemplate.execute(status -> update(id, musicDTO, written, fileName, expectedVersion));
+    }
 
-            String fileName = musicDTO.getTitle() + "_" + System.currentTimeMillis() + getFileExtension(file.getOriginalFilename());
-            Path filePath = Paths.get("src/main/resources/media", fileName);
-            Files.write(filePath, file.getBytes());
+    private GetMusicDTO update(long id, UpdateMusicDTO musicDTO, MediaMetadata written, String fileName, Long expectedVersion) {
+        Music music = musicRepository.findById(id)
+                .orElseThrow(() -> new CustomException("Музику з ID " + id + " не знайдено."));
+        EntityTags.checkVersion(expectedVersion, music.getVersion());
+        String previousPath = music.getPath();
+        String previousTitle = music.getTitle();
+        String previousSha256 = music.getSha256();
+        Instant previousLastModified = music.getLastModified();
+        String previousGenre = music.getGenre();
+        MediaMetadata media = null;
+        music = musicMapper.toEntity(musicDTO, music);
 
-            music.setFilePath(filePath.toString());
+        if (written != null) {
+            media = contentStore.acquire(written);
+            applyMedia(music, media);
+            music.setIngestStatus(IngestStatus.PENDING);
         }
 
-        Music updatedMusic = musicRepository.save(music);
+        Music updatedMusic = musicRepository.saveAndFlush(music);
+        catalogVersion.increment();
+        if (media != null) {
+            contentStore.release(previousSha256);
+            AfterCommit.run(() -> mediaReclaimer.discardLater(previousSha256, previousPath));
+            if (previousPath != null) {
+                mediaIndex.unregister(Paths.get(previousPath));
+            }
+        }
+        if (previousSha256 != null) {
+            mediaIndex.unregister(previousTitle, id, previousLastModified);
+        }
+        registerMedia(updatedMusic);
+        ingest(updatedMusic, fileName);
+        index(updatedMusic);
+        genreCounts.move(previousGenre, updatedMusic.getGenre());
         return musicMapper.toGetMusicDTO(updatedMusic);
     }
 
-    public boolean delete(long id, Long userId) {
-        if (!musicRepository.existsById(id)) {
-            throw new CustomException("Музику з ID " + id + " не знайдено.");
-        }
-
-        Music music = musicRepository.findById(id).get();
+    /**
+     * Changing the owner bumps the version, so the versioned delete also fails if
+     * the owner changed since the row was checked.
+     */
+    @Transactional
+    public boolean delete(long id, Long userId, Long expectedVersion) {
+        Music music = musicRepository.findById(id)
+                .orElseThrow(() -> new CustomException("Музику з ID " + id + " не знайдено."));
+        EntityTags.checkVersion(expectedVersion, music.getVersion());
         if (userId != null && (music.getUser() == null || !music.getUser().getId().equals(userId))) {
             throw new CustomException("Музика не належить користувачу з ID " + userId);
         }
 
-        musicRepository.deleteById(id);
+        musicRepository.delete(music);
+        musicRepository.flush();
+        catalogVersion.increment();
+        searchIndex.remove(SearchHit.Type.MUSIC, id);
+        genreCounts.decrement(music.getGenre());
+        contentStore.release(music.getSha256());
+        unregisterMedia(music);
         return true;
     }
 
-    private String getFileExtension(String fileName) {
-        if (fileName == null) {
-            return "";
+    @Transactional
+    public List<BulkItemResult<GetMusicDTO>> saveAll(List<CreateMusicDTO> musicDTOs) {
+        Bulk.checkSize(musicDTOs);
+        Map<Long, User> users = musicMapper.findUsers(musicDTOs.stream()
+                .filter(Objects::nonNull)
+                .map(CreateMusicDTO::getUserId)
+                .collect(Collectors.toList()));
+
+        List<BulkItemResult<GetMusicDTO>> results = new ArrayList<>(Collections.nCopies(musicDTOs.size(), null));
+        Music[] accepted = new Music[musicDTOs.size()];
+        for (int i = 0; i < musicDTOs.size(); i++) {
+            CreateMusicDTO dto = musicDTOs.get(i);
+            String error = Bulk.validate(validator, dto);
+            if (error != null) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, null, error));
+            } else if (!users.containsKey(dto.getUserId())) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, null,
+                        "Користувача з ID " + dto.getUserId() + " не знайдено."));
+            } else {
+                accepted[i] = musicMapper.toEntity(dto, users.get(dto.getUserId()));
+            }
         }
-        int dotIndex = fileName.lastIndexOf('.');
-        return (dotIndex == -1) ? "" : fileName.substring(dotIndex);
+
+        List<Music> saved = nonNull(accepted);
+        musicRepository.saveAll(saved);
+        for (int i = 0; i < accepted.length; i++) {
+            if (accepted[i] != null) {
+                index(accepted[i]);
+                genreCounts.increment(accepted[i].getGenre());
+                results.set(i, BulkItemResult.ok(i, HttpStatus.CREATED, accepted[i].getId(),
+                        musicMapper.toGetMusicDTO(accepted[i])));
+            }
+        }
+        if (!saved.isEmpty()) {
+            catalogVersion.increment();
+        }
+        return results;
+    }
+
+    @Transactional
+    public List<BulkItemResult<GetMusicDTO>> updateAll(List<BulkUpdateMusicDTO> musicDTOs) {
+        Bulk.checkSize(musicDTOs);
+        List<BulkUpdateMusicDTO> present = musicDTOs.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        Map<Long, Music> existing = musicRepository.findAllById(present.stream()
+                        .map(BulkUpdateMusicDTO::getId)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(Music::getId, Function.identity()));
+        Map<Long, User> users = musicMapper.findUsers(present.stream()
+                .map(BulkUpdateMusicDTO::getUserId)
+                .collect(Collectors.toList()));
+
+        List<BulkItemResult<GetMusicDTO>> results = new ArrayList<>(Collections.nCopies(musicDTOs.size(), null));
+        Music[] updated = new Music[musicDTOs.size()];
+        String[] previousGenres = new String[musicDTOs.size()];
+        for (int i = 0; i < musicDTOs.size(); i++) {
+            BulkUpdateMusicDTO dto = musicDTOs.get(i);
+            String error = Bulk.validate(validator, dto);
+            if (error != null) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, dto != null ? dto.getId() : null, error));
+            } else if (!existing.containsKey(dto.getId())) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.NOT_FOUND, dto.getId(),
+                        "Музику з ID " + dto.getId() + " не знайдено."));
+            } else if (dto.getVersion() != null && dto.getVersion() != existing.get(dto.getId()).getVersion()) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.PRECONDITION_FAILED, dto.getId(),
+                        "Запис змінено: очікувана версія " + dto.getVersion() + "."));
+            } else if (!users.containsKey(dto.getUserId())) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, dto.getId(),
+                        "Користувача з ID " + dto.getUserId() + " не знайдено."));
+            } else {
+                previousGenres[i] = existing.get(dto.getId()).getGenre();
+                updated[i] = musicMapper.toEntity(dto, existing.get(dto.getId()), users.get(dto.getUserId()));
+            }
+        }
+
+        musicRepository.flush();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] != null) {
+                index(updated[i]);
+                genreCounts.move(previousGenres[i], updated[i].getGenre());
+                results.set(i, BulkItemResult.ok(i, HttpStatus.OK, updated[i].getId(), musicMapper.toGetMusicDTO(updated[i])));
+            }
+        }
+        if (!nonNull(updated).isEmpty()) {
+            catalogVersion.increment();
+        }
+        return results;
+    }
+
+    @Transactional
+    public List<BulkItemResult<Void>> deleteAll(List<Long> ids) {
+        Bulk.checkSize(ids);
+        Map<Long, Music> existing = musicRepository.findAllById(ids.stream()
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(Music::getId, Function.identity()));
+
+        List<BulkItemResult<Void>> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Long id = ids.get(i);
+            if (existing.containsKey(id)) {
+                results.add(BulkItemResult.ok(i, HttpStatus.NO_CONTENT, id, null));
+            } else {
+                results.add(BulkItemResult.failed(i, HttpStatus.NOT_FOUND, id, "Музику з ID " + id + " не знайдено."));
+            }
+        }
+
+        musicRepository.deleteAll(existing.values());
+        if (!existing.isEmpty()) {
+            catalogVersion.increment();
+        }
+        existing.keySet().forEach(id -> searchIndex.remove(SearchHit.Type.MUSIC, id));
+        existing.values().forEach(music -> genreCounts.decrement(music.getGenre()));
+        existing.values().forEach(music -> {
+            contentStore.release(music.getSha256());
+            unregisterMedia(music);
+        });
+        return results;
+    }
+
+    private List<Music> nonNull(Music[] musics) {
+        List<Music> list = new ArrayList<>(musics.length);
+        for (Music music : musics) {
+            if (music != null) {
+                list.add(music);
+            }
+        }
+        return list;
+    }
+
+    private void index(Music music) {
+        searchIndex.put(SearchHit.Type.MUSIC, new SearchDocument(music.getId(), music.getTitle(),
+                music.getArtist(), music.getGenre()));
+    }
+
+    private GetMusicDTO create(Music music, MediaMetadata media, String fileName) {
+        applyMedia(music, media);
+        Music savedMusic = musicRepository.save(music);
+        catalogVersion.increment();
+        registerMedia(savedMusic);
+        ingest(savedMusic, fileName);
+        index(savedMusic);
+        genreCounts.increment(savedMusic.getGenre());
+        return musicMapper.toGetMusicDTO(savedMusic);
+    }
+
+    private void registerMedia(Music music) {
+        if (music.getSha256() != null && music.getIngestStatus() == IngestStatus.READY) {
+            mediaIndex.register(music.getTitle(), music.getId(), media(music));
+        }
+    }
+
+    private void ingest(Music music, String fileName) {
+        if (music.getIngestStatus() == IngestStatus.PENDING) {
+            IngestJob job = new IngestJob(IngestJob.Source.MUSIC, music.getId(), media(music), fileName);
+            AfterCommit.run(() -> ingestPipeline.submit(job));
+        }
+    }
+
+    private static MediaMetadata media(Music music) {
+        return new MediaMetadata(music.getPath(), music.getContentType(), music.getContentLength(), music.getSha256(),
+                music.getLastModified());
+    }
+
+    private void unregisterMedia(Music music) {
+        if (music.getSha256() != null) {
+            mediaIndex.unregister(music.getTitle(), music.getId(), music.getLastModified());
+        }
+        if (music.getPath() != null) {
+            mediaIndex.unregister(Paths.get(music.getPath()));
+        }
+        if (music.getSha256() == null && music.getPath() != null) {
+            // Hashed content is kept for the reclaimer's grace period instead.
+            String path = music.getPath();
+            AfterCommit.run(() -> mediaReclaimer.discardLater(null, path));
+        }
+    }
+
+    private void applyMedia(Music music, MediaMetadata media) {
+        music.setFilePath(media.path().toString());
+        music.setContentType(media.contentType());
+        music.setContentLength(media.contentLength());
+        music.setSha256(media.sha256());
+        music.setLastModified(media.lastModified());
     }
 }
\ No newline at end of file
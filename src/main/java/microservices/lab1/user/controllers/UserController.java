@@ -2,14 +2,22 @@ package microservices.lab1.user.controllers;
 
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import microservices.lab1.common.bulk.Bulk;
+import microservices.lab1.common.bulk.BulkItemResult;
+import microservices.lab1.common.pagination.Keyset;
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.common.version.EntityTags;
+import microservices.lab1.user.dto.BulkUpdateUserDTO;
 import microservices.lab1.user.dto.CreateUserDTO;
 import microservices.lab1.user.dto.UpdateUserDTO;
 import microservices.lab1.user.dto.DeleteUserDTO;
 import microservices.lab1.user.dto.GetUserDTO;
 import microservices.lab1.user.services.UserService;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 
@@ -19,6 +27,7 @@ import java.util.List;
 public class UserController {
 
     private final UserService userService;
+    private final CatalogVersion catalogVersion;
 
     @PostMapping
     public ResponseEntity<GetUserDTO> createUser(@RequestBody @Valid CreateUserDTO userDTO) {
@@ -26,33 +35,79 @@ public class UserController {
         return new ResponseEntity<>(createdUser, HttpStatus.CREATED);
     }
 
+    @PostMapping("/bulk")
+    public ResponseEntity<List<BulkItemResult<GetUserDTO>>> createUsersBulk(@RequestBody List<CreateUserDTO> userDTOs) {
+        List<BulkItemResult<GetUserDTO>> results = userService.saveAll(userDTOs);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.CREATED));
+    }
+
+    @PutMapping("/bulk")
+    public ResponseEntity<List<BulkItemResult<GetUserDTO>>> updateUsersBulk(@RequestBody List<BulkUpdateUserDTO> userDTOs) {
+        List<BulkItemResult<GetUserDTO>> results = userService.updateAll(userDTOs);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.OK));
+    }
+
+    @DeleteMapping("/bulk")
+    public ResponseEntity<List<BulkItemResult<Void>>> deleteUsersBulk(@RequestBody List<Long> ids) {
+        List<BulkItemResult<Void>> results = userService.deleteAll(ids);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.OK));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<GetUserDTO> getUserById(@PathVariable long id) {
         GetUserDTO user = userService.findById(id);
         if (user != null) {
-            return new ResponseEntity<>(user, HttpStatus.OK);
+            return ResponseEntity.ok().eTag(EntityTags.of(user.getVersion())).body(user);
         }
         return new ResponseEntity<>(HttpStatus.NOT_FOUND);
     }
 
+    @GetMapping(params = "ids")
+    public ResponseEntity<List<BulkItemResult<GetUserDTO>>> getUsersByIds(@RequestParam List<Long> ids, WebRequest request) {
+        CatalogVersion.Stamp version = catalogVersion.current();
+        if (request.checkNotModified(version.etag(), version.lastModified())) {
+            return null;
+        }
+        List<BulkItemResult<GetUserDTO>> results = userService.findAllByIds(ids);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.OK));
+    }
+
     @GetMapping
-    public ResponseEntity<List<GetUserDTO>> getAllUsers() {
-        List<GetUserDTO> userList = userService.findAll();
-        return new ResponseEntity<>(userList, HttpStatus.OK);
+    public ResponseEntity<List<GetUserDTO>> getAllUsers(
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(defaultValue = "false") boolean all,
+            WebRequest request) {
+        CatalogVersion.Stamp version = catalogVersion.current();
+        if (request.checkNotModified(version.etag(), version.lastModified())) {
+            return null;
+        }
+        if (all) {
+            List<GetUserDTO> userList = userService.findAll();
+            return new ResponseEntity<>(userList, HttpStatus.OK);
+        }
+        List<GetUserDTO> userList = userService.findPage(after, limit);
+        return Keyset.response(userList, limit, GetUserDTO::getId);
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<GetUserDTO> updateUser(@PathVariable long id, @RequestBody @Valid UpdateUserDTO userDTO) {
-        GetUserDTO updatedUser = userService.update(userDTO, id);
+    public ResponseEntity<GetUserDTO> updateUser(
+            @PathVariable long id,
+            @RequestBody @Valid UpdateUserDTO userDTO,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        GetUserDTO updatedUser = userService.update(userDTO, id, EntityTags.expectedVersion(ifMatch));
         if (updatedUser != null) {
-            return new ResponseEntity<>(updatedUser, HttpStatus.OK);
+            return ResponseEntity.ok().eTag(EntityTags.of(updatedUser.getVersion())).body(updatedUser);
         }
         return new ResponseEntity<>(HttpStatus.NOT_FOUND);
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteUser(@PathVariable long id, @RequestBody DeleteUserDTO deleteDTO) {
-        if (userService.delete(id, deleteDTO.getUsername())) {
+    public ResponseEntity<Void> deleteUser(
+            @PathVariable long id,
+            @RequestBody DeleteUserDTO deleteDTO,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        if (userService.delete(id, deleteDTO.getUsername(), EntityTags.expectedVersion(ifMatch))) {
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
         return new ResponseEntity<>(HttpStatus.NOT_FOUND);
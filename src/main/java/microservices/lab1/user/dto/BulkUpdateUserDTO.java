@@ -0,0 +1,14 @@
+package microservices.lab1.user.dto;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class BulkUpdateUserDTO extends UpdateUserDTO {
+    @NotNull(message = "ID is required")
+    private Long id;
+
+    private Long version;
+}
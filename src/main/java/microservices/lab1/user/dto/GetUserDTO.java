@@ -13,4 +13,5 @@ public class GetUserDTO {
     private String password;
     private List<Long> musicIds;
     private List<Long> videoIds;
+    private long version;
 }
\ No newline at end of file
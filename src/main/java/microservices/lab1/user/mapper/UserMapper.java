@@ -2,6 +2,7 @@ package microservices.lab1.user.mapper;
 
 import lombok.RequiredArgsConstructor;
 import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.common.projection.OwnedId;
 import microservices.lab1.music.models.Music;
 import microservices.lab1.music.repository.MusicRepository;
 import microservices.lab1.user.dto.CreateUserDTO;
@@ -12,31 +13,51 @@ import microservices.lab1.video.models.Video;
 import microservices.lab1.video.repository.VideoRepository;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Component
 @RequiredArgsConstructor
 public class UserMapper {
 
+    static final int ID_BATCH_SIZE = 500;
+
     private final MusicRepository musicRepository;
     private final VideoRepository videoRepository;
 
     public User toEntity(CreateUserDTO dto) {
+        return toEntity(dto, findMusics(dto.getMusicIds()), findVideos(dto.getVideoIds()));
+    }
+
+    public User toEntity(CreateUserDTO dto, Map<Long, Music> musics, Map<Long, Video> videos) {
         User user = new User();
         user.setUsername(dto.getUsername());
         user.setPassword(dto.getPassword());
-        user.setMusics(getMusicEntities(dto.getMusicIds()));
-        user.setVideos(getVideoEntities(dto.getVideoIds()));
+        user.setMusics(getMusicEntities(dto.getMusicIds(), musics));
+        user.setVideos(getVideoEntities(dto.getVideoIds(), videos));
         return user;
     }
 
     public User toEntity(UpdateUserDTO dto, User existingUser) {
+        return toEntity(dto, existingUser, findMusics(dto.getMusicIds()), findVideos(dto.getVideoIds()));
+    }
+
+    public User toEntity(UpdateUserDTO dto, User existingUser, Map<Long, Music> loadedMusics, Map<Long, Video> loadedVideos) {
+        List<Music> musics = getMusicEntities(dto.getMusicIds(), loadedMusics);
+        List<Video> videos = getVideoEntities(dto.getVideoIds(), loadedVideos);
         existingUser.setUsername(dto.getUsername());
         existingUser.setPassword(dto.getPassword());
-        existingUser.setMusics(getMusicEntities(dto.getMusicIds()));
-        existingUser.setVideos(getVideoEntities(dto.getVideoIds()));
+        existingUser.setMusics(musics);
+        existingUser.setVideos(videos);
         return existingUser;
     }
 
@@ -51,28 +72,111 @@ public class UserMapper {
         dto.setVideoIds(user.getVideos() != null
                 ? user.getVideos().stream().map(Video::getId).collect(Collectors.toList())
                 : Collections.emptyList());
+        dto.setVersion(user.getVersion());
         return dto;
     }
 
-    private List<Music> getMusicEntities(List<Long> musicIds) {
+    public List<GetUserDTO> toGetUserDTOs(List<User> users) {
+        List<GetUserDTO> dtos = new ArrayList<>(users.size());
+        for (int from = 0; from < users.size(); from += ID_BATCH_SIZE) {
+            List<User> batch = users.subList(from, Math.min(from + ID_BATCH_SIZE, users.size()));
+            List<Long> userIds = batch.stream().map(User::getId).collect(Collectors.toList());
+            Map<Long, long[]> musicIds = groupByOwner(musicRepository.findIdsByUserIds(userIds));
+            Map<Long, long[]> videoIds = groupByOwner(videoRepository.findIdsByUserIds(userIds));
+
+            for (User user : batch) {
+                GetUserDTO dto = new GetUserDTO();
+                dto.setId(user.getId());
+                dto.setUsername(user.getUsername());
+                dto.setPassword(user.getPassword());
+                dto.setMusicIds(boxed(musicIds.get(user.getId())));
+                dto.setVideoIds(boxed(videoIds.get(user.getId())));
+                dto.setVersion(user.getVersion());
+                dtos.add(dto);
+            }
+        }
+        return dtos;
+    }
+
+    private Map<Long, long[]> groupByOwner(List<OwnedId> rows) {
+        Map<Long, long[]> grouped = new HashMap<>();
+        int start = 0;
+        for (int end = 1; end <= rows.size(); end++) {
+            if (end == rows.size() || !rows.get(end).ownerId().equals(rows.get(start).ownerId())) {
+                long[] ids = new long[end - start];
+                for (int i = start; i < end; i++) {
+                    ids[i - start] = rows.get(i).id();
+                }
+                grouped.put(rows.get(start).ownerId(), ids);
+                start = end;
+            }
+        }
+        return grouped;
+    }
+
+    private List<Long> boxed(long[] ids) {
+        return ids != null
+                ? Arrays.stream(ids).boxed().collect(Collectors.toList())
+                : Collections.emptyList();
+    }
+
+    /**
+     * Unknown ids are absent from the map.
+     */
+    public Map<Long, Music> findMusics(Collection<Long> musicIds) {
+        Set<Long> ids = distinctIds(musicIds);
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return musicRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Music::getId, Function.identity()));
+    }
+
+    /**
+     * Unknown ids are absent from the map.
+     */
+    public Map<Long, Video> findVideos(Collection<Long> videoIds) {
+        Set<Long> ids = distinctIds(videoIds);
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return videoRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Video::getId, Function.identity()));
+    }
+
+    private Set<Long> distinctIds(Collection<Long> ids) {
+        return ids != null
+                ? ids.stream().filter(Objects::nonNull).collect(Collectors.toSet())
+                : Collections.emptySet();
+    }
+
+    private List<Music> getMusicEntities(List<Long> musicIds, Map<Long, Music> loaded) {
         if (musicIds == null || musicIds.isEmpty()) {
             return Collections.emptyList();
         }
-        List<Music> musics = musicRepository.findAllById(musicIds);
+        List<Music> musics = resolve(musicIds, loaded);
         if (musics.size() != musicIds.size()) {
             throw new CustomException("Деякі музичні треки не знайдено.");
         }
         return musics;
     }
 
-    private List<Video> getVideoEntities(List<Long> videoIds) {
+    private List<Video> getVideoEntities(List<Long> videoIds, Map<Long, Video> loaded) {
         if (videoIds == null || videoIds.isEmpty()) {
             return Collections.emptyList();
         }
-        List<Video> videos = videoRepository.findAllById(videoIds);
+        List<Video> videos = resolve(videoIds, loaded);
         if (videos.size() != videoIds.size()) {
             throw new CustomException("Деякі відео не знайдено.");
         }
         return videos;
     }
+
+    private <T> List<T> resolve(List<Long> ids, Map<Long, T> loaded) {
+        return ids.stream()
+                .distinct()
+                .map(id -> id != null ? loaded.get(id) : null)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
 }
\ No newline at end of file
@@ -1,5 +1,11 @@
 package microservices.lab1.user.repository;
 import microservices.lab1.user.models.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 
-public interface UserRepository extends JpaRepository<User, Long> {}
\ No newline at end of file
+import java.util.List;
+
+public interface UserRepository extends JpaRepository<User, Long> {
+
+    List<User> findByIdGreaterThanOrderById(long after, Limit limit);
+}
\ No newline at end of file
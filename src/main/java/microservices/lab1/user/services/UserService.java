@@ -1,16 +1,35 @@
 package microservices.lab1.user.services;
 
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
+import microservices.lab1.common.bulk.Bulk;
+import microservices.lab1.common.bulk.BulkItemResult;
 import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.common.lookup.MultiIdLoader;
+import microservices.lab1.common.pagination.Keyset;
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.common.version.EntityTags;
+import microservices.lab1.music.models.Music;
+import microservices.lab1.user.dto.BulkUpdateUserDTO;
 import microservices.lab1.user.dto.CreateUserDTO;
 import microservices.lab1.user.dto.UpdateUserDTO;
 import microservices.lab1.user.dto.GetUserDTO;
 import microservices.lab1.user.mapper.UserMapper;
 import microservices.lab1.user.models.User;
 import microservices.lab1.user.repository.UserRepository;
+import microservices.lab1.video.models.Video;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -19,44 +38,199 @@ public class UserService {
 
     private final UserRepository userRepository;
     private final UserMapper userMapper;
+    private final CatalogVersion catalogVersion;
+    private final Validator validator;
+    private final MultiIdLoader multiIdLoader;
 
     public GetUserDTO save(CreateUserDTO userDTO) {
         User user = userMapper.toEntity(userDTO);
         User savedUser = userRepository.save(user);
+        catalogVersion.increment();
         return userMapper.toGetUserDTO(savedUser);
     }
 
+    @Transactional(readOnly = true)
     public GetUserDTO findById(long id) {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new CustomException("Користувача з ID " + id + " не знайдено."));
         return userMapper.toGetUserDTO(user);
     }
 
-    public List<GetUserDTO> findAll() {
-        return userRepository.findAll().stream()
-                .map(userMapper::toGetUserDTO)
-                .collect(Collectors.toList());
+    @Transactional(readOnly = true)
+    public List<GetUserDTO> findPage(Long after, int limit) {
+        return userMapper.toGetUserDTOs(
+                userRepository.findByIdGreaterThanOrderById(Keyset.after(after), Limit.of(Keyset.limit(limit))));
     }
 
-    public GetUserDTO update(UpdateUserDTO userDTO, long id) {
-        if (!userRepository.existsById(id)) {
-            throw new CustomException("Користувача з ID " + id + " не знайдено.");
+    @Transactional(readOnly = true)
+    public List<BulkItemResult<GetUserDTO>> findAllByIds(List<Long> ids) {
+        Bulk.checkSize(ids);
+        List<User> users = multiIdLoader.load(User.class, ids);
+        Map<Long, GetUserDTO> dtos = new HashMap<>();
+        userMapper.toGetUserDTOs(users.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList()))
+                .forEach(dto -> dtos.put(dto.getId(), dto));
+
+        List<BulkItemResult<GetUserDTO>> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            GetUserDTO dto = users.get(i) != null ? dtos.get(users.get(i).getId()) : null;
+            results.add(dto != null
+                    ? BulkItemResult.ok(i, HttpStatus.OK, ids.get(i), dto)
+                    : BulkItemResult.failed(i, HttpStatus.NOT_FOUND, ids.get(i), "Користувача з ID " + ids.get(i) + " не знайдено."));
         }
-        User existingUser = userRepository.findById(id).get();
+        return results;
+    }
+
+    @Transactional(readOnly = true)
+    public List<GetUserDTO> findAll() {
+        return userMapper.toGetUserDTOs(userRepository.findAll());
+    }
+
+    /**
+     * A stale {@code expectedVersion} fails with 412.
+     */
+    @Transactional
+    public GetUserDTO update(UpdateUserDTO userDTO, long id, Long expectedVersion) {
+        User existingUser = userRepository.findById(id)
+                .orElseThrow(() -> new CustomException("Користувача з ID " + id + " не знайдено."));
+        EntityTags.checkVersion(expectedVersion, existingUser.getVersion());
         User updatedUser = userMapper.toEntity(userDTO, existingUser);
-        updatedUser = userRepository.save(updatedUser);
+        updatedUser = userRepository.saveAndFlush(updatedUser);
+        catalogVersion.increment();
         return userMapper.toGetUserDTO(updatedUser);
     }
 
-    public boolean delete(long id, String username) {
-        if (!userRepository.existsById(id)) {
-            throw new CustomException("Користувача з ID " + id + " не знайдено.");
-        }
-        User user = userRepository.findById(id).get();
+    /**
+     * A rename bumps the version, so the versioned delete cannot race with the
+     * username check.
+     */
+    @Transactional
+    public boolean delete(long id, String username, Long expectedVersion) {
+        User user = userRepository.findById(id)
+                .orElseThrow(() -> new CustomException("Користувача з ID " + id + " не знайдено."));
+        EntityTags.checkVersion(expectedVersion, user.getVersion());
         if (username != null && !username.isBlank() && !user.getUsername().equals(username)) {
             throw new CustomException("Ім'я користувача не співпадає.");
         }
-        userRepository.deleteById(id);
+        userRepository.delete(user);
+        userRepository.flush();
+        catalogVersion.increment();
         return true;
     }
+
+    @Transactional
+    public List<BulkItemResult<GetUserDTO>> saveAll(List<CreateUserDTO> userDTOs) {
+        Bulk.checkSize(userDTOs);
+        Map<Long, Music> musics = userMapper.findMusics(referencedIds(userDTOs, CreateUserDTO::getMusicIds));
+        Map<Long, Video> videos = userMapper.findVideos(referencedIds(userDTOs, CreateUserDTO::getVideoIds));
+        List<BulkItemResult<GetUserDTO>> results = new ArrayList<>(userDTOs.size());
+        List<User> accepted = new ArrayList<>(userDTOs.size());
+        List<Integer> positions = new ArrayList<>(userDTOs.size());
+        for (int i = 0; i < userDTOs.size(); i++) {
+            String error = Bulk.validate(validator, userDTOs.get(i));
+            try {
+                if (error == null) {
+                    accepted.add(userMapper.toEntity(userDTOs.get(i), musics, videos));
+                    positions.add(i);
+                }
+            } catch (CustomException e) {
+                error = e.getMessage();
+            }
+            results.add(error != null ? BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, null, error) : null);
+        }
+
+        userRepository.saveAll(accepted);
+        for (int j = 0; j < accepted.size(); j++) {
+            User user = accepted.get(j);
+            results.set(positions.get(j),
+                    BulkItemResult.ok(positions.get(j), HttpStatus.CREATED, user.getId(), userMapper.toGetUserDTO(user)));
+        }
+        if (!accepted.isEmpty()) {
+            catalogVersion.increment();
+        }
+        return results;
+    }
+
+    @Transactional
+    public List<BulkItemResult<GetUserDTO>> updateAll(List<BulkUpdateUserDTO> userDTOs) {
+        Bulk.checkSize(userDTOs);
+        Map<Long, User> existing = userRepository.findAllById(userDTOs.stream()
+                        .filter(Objects::nonNull)
+                        .map(BulkUpdateUserDTO::getId)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        Map<Long, Music> musics = userMapper.findMusics(referencedIds(userDTOs, BulkUpdateUserDTO::getMusicIds));
+        Map<Long, Video> videos = userMapper.findVideos(referencedIds(userDTOs, BulkUpdateUserDTO::getVideoIds));
+
+        List<BulkItemResult<GetUserDTO>> results = new ArrayList<>(Collections.nCopies(userDTOs.size(), null));
+        User[] updated = new User[userDTOs.size()];
+        for (int i = 0; i < userDTOs.size(); i++) {
+            BulkUpdateUserDTO dto = userDTOs.get(i);
+            String error = Bulk.validate(validator, dto);
+            if (error != null) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, dto != null ? dto.getId() : null, error));
+            } else if (!existing.containsKey(dto.getId())) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.NOT_FOUND, dto.getId(),
+                        "Користувача з ID " + dto.getId() + " не знайдено."));
+            } else if (dto.getVersion() != null && dto.getVersion() != existing.get(dto.getId()).getVersion()) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.PRECONDITION_FAILED, dto.getId(),
+                        "Запис змінено: очікувана версія " + dto.getVersion() + "."));
+            } else {
+                try {
+                    updated[i] = userMapper.toEntity(dto, existing.get(dto.getId()), musics, videos);
+                } catch (CustomException e) {
+                    results.set(i, BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, dto.getId(), e.getMessage()));
+                }
+            }
+        }
+
+        userRepository.flush();
+        boolean applied = false;
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] != null) {
+                results.set(i, BulkItemResult.ok(i, HttpStatus.OK, updated[i].getId(), userMapper.toGetUserDTO(updated[i])));
+                applied = true;
+            }
+        }
+        if (applied) {
+            catalogVersion.increment();
+        }
+        return results;
+    }
+
+    @Transactional
+    public List<BulkItemResult<Void>> deleteAll(List<Long> ids) {
+        Bulk.checkSize(ids);
+        Map<Long, User> existing = userRepository.findAllById(ids.stream()
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        List<BulkItemResult<Void>> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Long id = ids.get(i);
+            if (existing.containsKey(id)) {
+                results.add(BulkItemResult.ok(i, HttpStatus.NO_CONTENT, id, null));
+            } else {
+                results.add(BulkItemResult.failed(i, HttpStatus.NOT_FOUND, id, "Користувача з ID " + id + " не знайдено."));
+            }
+        }
+
+        userRepository.deleteAll(existing.values());
+        if (!existing.isEmpty()) {
+            catalogVersion.increment();
+        }
+        return results;
+    }
+
+    private <T> List<Long> referencedIds(List<T> dtos, Function<T, List<Long>> ids) {
+        return dtos.stream()
+                .filter(Objects::nonNull)
+                .map(ids)
+                .filter(Objects::nonNull)
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+    }
 }
\ No newline at end of file
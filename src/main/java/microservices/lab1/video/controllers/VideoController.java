@@ -2,15 +2,27 @@ package microservices.lab1.video.controllers;
 
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import microservices.lab1.common.bulk.Bulk;
+import microservices.lab1.common.bulk.BulkItemResult;
+import microservices.lab1.common.pagination.Keyset;
+import microservices.lab1.common.projection.GenreCount;
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.common.version.EntityTags;
+import microservices.lab1.media.ingest.IngestProgress;
+import microservices.lab1.video.dto.BulkUpdateVideoDTO;
 import microservices.lab1.video.dto.CreateVideoDTO;
 import microservices.lab1.video.dto.UpdateVideoDTO;
 import microservices.lab1.video.dto.DeleteVideoDTO;
 import microservices.lab1.video.dto.GetVideoDTO;
 import microservices.lab1.video.services.VideoService;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.util.List;
@@ -21,14 +33,19 @@ import java.util.List;
 public class VideoController {
 
     private final VideoService videoService;
+    private final CatalogVersion catalogVersion;
 
     @PostMapping(consumes = {"multipart/form-data"})
     public ResponseEntity<GetVideoDTO> createVideo(
             @RequestPart("video") @Valid CreateVideoDTO videoDTO,
-            @RequestPart("file") MultipartFile file) {
+            @RequestPart(value = "file", required = false) MultipartFile file,
+            @RequestParam(required = false) String sha256) {
         try {
             if (file == null || file.isEmpty()) {
-                return ResponseEntity.badRequest().build();
+                if (sha256 == null) {
+                    return ResponseEntity.badRequest().build();
+                }
+                return new ResponseEntity<>(videoService.saveWithExistingMedia(videoDTO, sha256), HttpStatus.CREATED);
             }
             GetVideoDTO createdVideo = videoService.save(videoDTO, file);
             return new ResponseEntity<>(createdVideo, HttpStatus.CREATED);
@@ -38,30 +55,109 @@ public class VideoController {
         }
     }
 
+    /**
+     * Creates the row from a finished resumable upload, see {@code /media/uploads}.
+     */
+    @PostMapping("/uploads/{uploadId}")
+    public ResponseEntity<GetVideoDTO> createVideoFromUpload(
+            @PathVariable String uploadId,
+            @RequestBody @Valid CreateVideoDTO videoDTO) throws IOException {
+        return new ResponseEntity<>(videoService.saveUpload(videoDTO, uploadId), HttpStatus.CREATED);
+    }
+
+    @PostMapping("/bulk")
+    public ResponseEntity<List<BulkItemResult<GetVideoDTO>>> createVideosBulk(@RequestBody List<CreateVideoDTO> videoDTOs) {
+        List<BulkItemResult<GetVideoDTO>> results = videoService.saveAll(videoDTOs);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.CREATED));
+    }
+
+    @PutMapping("/bulk")
+    public ResponseEntity<List<BulkItemResult<GetVideoDTO>>> updateVideosBulk(@RequestBody List<BulkUpdateVideoDTO> videoDTOs) {
+        List<BulkItemResult<GetVideoDTO>> results = videoService.updateAll(videoDTOs);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.OK));
+    }
+
+    @DeleteMapping("/bulk")
+    public ResponseEntity<List<BulkItemResult<Void>>> deleteVideosBulk(@RequestBody List<Long> ids) {
+        List<BulkItemResult<Void>> results = videoService.deleteAll(ids);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.OK));
+    }
+
+    @GetMapping("/genres")
+    public ResponseEntity<List<GenreCount>> getVideoGenres(WebRequest request) {
+        CatalogVersion.Stamp version = catalogVersion.current();
+        if (request.checkNotModified(version.etag(), version.lastModified())) {
+            return null;
+        }
+        return ResponseEntity.ok(videoService.countGenres());
+    }
+
+    @GetMapping("/suggest")
+    public ResponseEntity<List<String>> suggestVideos(@RequestParam String q, @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(videoService.suggest(q, limit));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<GetVideoDTO> getVideoById(@PathVariable long id) {
         GetVideoDTO video = videoService.findById(id);
         if (video != null) {
-            return new ResponseEntity<>(video, HttpStatus.OK);
+            return ResponseEntity.ok().eTag(EntityTags.of(video.getVersion())).body(video);
         }
         return new ResponseEntity<>(HttpStatus.NOT_FOUND);
     }
 
+    @GetMapping("/{id}/status")
+    public ResponseEntity<IngestProgress> getVideoStatus(@PathVariable long id) {
+        return ResponseEntity.ok(videoService.findIngestProgress(id));
+    }
+
+    @GetMapping(params = "ids")
+    public ResponseEntity<List<BulkItemResult<GetVideoDTO>>> getVideosByIds(@RequestParam List<Long> ids, WebRequest request) {
+        CatalogVersion.Stamp version = catalogVersion.current();
+        if (request.checkNotModified(version.etag(), version.lastModified())) {
+            return null;
+        }
+        List<BulkItemResult<GetVideoDTO>> results = videoService.findAllByIds(ids);
+        return new ResponseEntity<>(results, Bulk.status(results, HttpStatus.OK));
+    }
+
     @GetMapping
-    public ResponseEntity<List<GetVideoDTO>> getAllVideos() {
-        List<GetVideoDTO> videoList = videoService.findAll();
-        return new ResponseEntity<>(videoList, HttpStatus.OK);
+    public ResponseEntity<List<GetVideoDTO>> getAllVideos(
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String genre,
+            @RequestParam(required = false) String director,
+            @RequestParam(required = false) Long userId,
+            @RequestParam(defaultValue = "false") boolean all,
+            WebRequest request) {
+        CatalogVersion.Stamp version = catalogVersion.current();
+        if (request.checkNotModified(version.etag(), version.lastModified())) {
+            return null;
+        }
+        if (all) {
+            List<GetVideoDTO> videoList = videoService.findAll();
+            return new ResponseEntity<>(videoList, HttpStatus.OK);
+        }
+        List<GetVideoDTO> videoList = videoService.findPage(after, limit, genre, director, userId);
+        return Keyset.response(videoList, limit, GetVideoDTO::getId);
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportVideo() {
+        StreamingResponseBody body = out -> videoService.exportAll(out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
     @PutMapping(value = "/{id}", consumes = {"multipart/form-data"})
     public ResponseEntity<GetVideoDTO> updateVideo(
             @PathVariable long id,
             @RequestPart("video") @Valid UpdateVideoDTO videoDTO,
-            @RequestPart(value = "file", required = false) MultipartFile file) {
+            @RequestPart(value = "file", required = false) MultipartFile file,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
-            GetVideoDTO updatedVideo = videoService.update(id, videoDTO, file);
+            GetVideoDTO updatedVideo = videoService.update(id, videoDTO, file, EntityTags.expectedVersion(ifMatch));
             if (updatedVideo != null) {
-                return new ResponseEntity<>(updatedVideo, HttpStatus.OK);
+                return ResponseEntity.ok().eTag(EntityTags.of(updatedVideo.getVersion())).body(updatedVideo);
             }
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         } catch (IOException e) {
@@ -71,8 +167,11 @@ public class VideoController {
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteVideo(@PathVariable long id, @RequestBody DeleteVideoDTO deleteDTO) {
-        if (videoService.delete(id, deleteDTO.getUserId())) {
+    public ResponseEntity<Void> deleteVideo(
+            @PathVariable long id,
+            @RequestBody DeleteVideoDTO deleteDTO,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        if (videoService.delete(id, deleteDTO.getUserId(), EntityTags.expectedVersion(ifMatch))) {
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
         return new ResponseEntity<>(HttpStatus.NOT_FOUND);
@@ -1,10 +1,14 @@
 package microservices.lab1.video.dto;
 
+import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 @Getter
 @Setter
+@NoArgsConstructor
+@AllArgsConstructor
 public class GetVideoDTO {
     private Long id;
     private String title;
@@ -12,4 +16,5 @@ public class GetVideoDTO {
     private String genre;
     private String path;
     private Long userId;
+    private long version;
 }
\ No newline at end of file
@@ -10,6 +10,14 @@ import microservices.lab1.video.dto.GetVideoDTO;
 import microservices.lab1.video.models.Video;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
 @Component
 @RequiredArgsConstructor
 public class VideoMapper {
@@ -17,26 +25,47 @@ public class VideoMapper {
     private final UserRepository userRepository;
 
     public Video toEntity(CreateVideoDTO dto) {
+        return toEntity(dto, findUser(dto.getUserId()));
+    }
+
+    public Video toEntity(CreateVideoDTO dto, User user) {
         Video video = new Video();
         video.setTitle(dto.getTitle());
         video.setDirector(dto.getDirector());
         video.setGenre(dto.getGenre());
-        User user = userRepository.findById(dto.getUserId())
-                .orElseThrow(() -> new CustomException("Користувача з ID " + dto.getUserId() + " не знайдено."));
         video.setUser(user);
         return video;
     }
 
     public Video toEntity(UpdateVideoDTO dto, Video existingVideo) {
+        return toEntity(dto, existingVideo, findUser(dto.getUserId()));
+    }
+
+    public Video toEntity(UpdateVideoDTO dto, Video existingVideo, User user) {
         existingVideo.setTitle(dto.getTitle());
         existingVideo.setDirector(dto.getDirector());
         existingVideo.setGenre(dto.getGenre());
-        User user = userRepository.findById(dto.getUserId())
-                .orElseThrow(() -> new CustomException("Користувача з ID " + dto.getUserId() + " не знайдено."));
         existingVideo.setUser(user);
         return existingVideo;
     }
 
+    /**
+     * Unknown ids are absent from the map.
+     */
+    public Map<Long, User> findUsers(Collection<Long> userIds) {
+        Set<Long> ids = userIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return userRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+    }
+
+    private User findUser(Long userId) {
+        return userRepository.findById(userId)
+                .orElseThrow(() -> new CustomException("Користувача з ID " + userId + " не знайдено."));
+    }
+
     public GetVideoDTO toGetVideoDTO(Video video) {
         GetVideoDTO dto = new GetVideoDTO();
         dto.setId(video.getId());
@@ -45,6 +74,7 @@ public class VideoMapper {
         dto.setGenre(video.getGenre());
         dto.setPath(video.getPath());
         dto.setUserId(video.getUser() != null ? video.getUser().getId() : null);
+        dto.setVersion(video.getVersion());
         return dto;
     }
 }
\ No newline at end of file
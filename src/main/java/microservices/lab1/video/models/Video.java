@@ -4,23 +4,57 @@ import com.fasterxml.jackson.annotation.JsonBackReference;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.type.SqlTypes;
+import microservices.lab1.media.ingest.IngestStatus;
 import microservices.lab1.user.models.User;
 
+import java.time.Instant;
+
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_video_title", columnList = "title"),
+        @Index(name = "idx_video_genre_id", columnList = "genre, id"),
+        @Index(name = "idx_video_director_id", columnList = "director, id"),
+        @Index(name = "idx_video_user_id", columnList = "user_id, id")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "video")
 @Getter
 @Setter
 public class Video {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "video_seq")
+    @SequenceGenerator(name = "video_seq", sequenceName = "video_seq", allocationSize = 50)
     private Long id;
 
+    @Version
+    @ColumnDefault("0")
+    private long version;
+
+    @Column(length = 100)
     private String title;
+    @Column(length = 100)
     private String director;
+    @Column(length = 50)
     private String genre;
     private String path;
+    private String contentType;
+    private Long contentLength;
+    @Column(length = 64)
+    private String sha256;
+    private Instant lastModified;
+    @Enumerated(EnumType.STRING)
+    @JdbcTypeCode(SqlTypes.VARCHAR)
+    @Column(length = 16, nullable = false)
+    @ColumnDefault("'READY'")
+    private IngestStatus ingestStatus = IngestStatus.READY;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     @JsonBackReference
     private User user;
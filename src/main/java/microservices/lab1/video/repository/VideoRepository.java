@@ -1,5 +1,83 @@
 package microservices.lab1.video.repository;
+import microservices.lab1.common.projection.GenreCount;
+import microservices.lab1.common.projection.OwnedId;
+import microservices.lab1.video.dto.GetVideoDTO;
 import microservices.lab1.video.models.Video;
+import microservices.lab1.media.search.SearchDocument;
+import microservices.lab1.media.ingest.IngestStatus;
+import microservices.lab1.media.storage.StoredMedia;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
-public interface VideoRepository extends JpaRepository<Video, Long> {}
\ No newline at end of file
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public interface VideoRepository extends JpaRepository<Video, Long> {
+
+    @Query("select new microservices.lab1.media.storage.StoredMedia(v.id, v.title, v.path, v.contentType, " +
+            "v.contentLength, v.sha256, v.lastModified) from Video v " +
+            "where v.sha256 is not null and v.ingestStatus = microservices.lab1.media.ingest.IngestStatus.READY")
+    List<StoredMedia> findStoredMedia();
+
+    @Query("select new microservices.lab1.media.storage.StoredMedia(v.id, v.title, v.path, v.contentType, " +
+            "v.contentLength, v.sha256, v.lastModified) from Video v " +
+            "where v.ingestStatus = microservices.lab1.media.ingest.IngestStatus.PENDING")
+    List<StoredMedia> findPendingMedia();
+
+    @Query("select v.ingestStatus from Video v where v.id = :id")
+    Optional<IngestStatus> findIngestStatusById(@Param("id") long id);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    @Query("select new microservices.lab1.video.dto.GetVideoDTO(v.id, v.title, v.director, v.genre, v.path, v.user.id, v.version) " +
+            "from Video v where v.id = :id")
+    Optional<GetVideoDTO> findDtoById(@Param("id") long id);
+
+    @Query("select new microservices.lab1.video.dto.GetVideoDTO(v.id, v.title, v.director, v.genre, v.path, v.user.id, v.version) " +
+            "from Video v order by v.id")
+    List<GetVideoDTO> findAllDtos();
+
+    @Query("select new microservices.lab1.video.dto.GetVideoDTO(v.id, v.title, v.director, v.genre, v.path, v.user.id, v.version) " +
+            "from Video v where v.id > :after " +
+            "and (:genre is null or v.genre = :genre) " +
+            "and (:director is null or v.director = :director) " +
+            "and (:userId is null or v.user.id = :userId) " +
+            "order by v.id")
+    List<GetVideoDTO> findPage(@Param("after") long after,
+                         @Param("genre") String genre,
+                         @Param("director") String director,
+                         @Param("userId") Long userId,
+                         Limit limit);
+
+    @Query("select new microservices.lab1.common.projection.GenreCount(v.genre, count(v)) from Video v " +
+            "where v.genre is not null group by v.genre")
+    List<GenreCount> countGenres();
+
+    @Query("select new microservices.lab1.common.projection.OwnedId(v.user.id, v.id) from Video v " +
+            "where v.user.id in :userIds order by v.user.id, v.id")
+    List<OwnedId> findIdsByUserIds(@Param("userIds") Collection<Long> userIds);
+
+    /**
+     * Streams every row for the export, 1000 rows per round trip. MySQL
+     * Connector/J only honours the fetch size with {@code useCursorFetch=true} on
+     * the connection and buffers the whole result set otherwise. The connection is
+     * busy until the stream is closed.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select v from Video v order by v.id")
+    Stream<Video> streamAll();
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select new microservices.lab1.media.search.SearchDocument(v.id, v.title, v.director, v.genre) " +
+            "from Video v order by v.id")
+    Stream<SearchDocument> streamSearchDocuments();
+}
\ No newline at end of file
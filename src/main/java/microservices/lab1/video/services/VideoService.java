@@ -1,23 +1,63 @@
 package microservices.lab1.video.services;
 
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
+import microservices.lab1.common.bulk.Bulk;
+import microservices.lab1.common.bulk.BulkItemResult;
 import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.common.facet.GenreCounter;
+import microservices.lab1.common.export.NdjsonWriter;
+import microservices.lab1.common.lookup.MultiIdLoader;
+import microservices.lab1.common.pagination.Keyset;
+import microservices.lab1.common.projection.GenreCount;
+import microservices.lab1.common.transaction.AfterCommit;
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.common.version.EntityTags;
+import microservices.lab1.media.index.MediaIndex;
+import microservices.lab1.media.ingest.IngestCompleted;
+import microservices.lab1.media.ingest.IngestJob;
+import microservices.lab1.media.ingest.IngestPipeline;
+import microservices.lab1.media.ingest.IngestProgress;
+import microservices.lab1.media.ingest.IngestStatus;
+import microservices.lab1.media.reclaim.MediaReclaimer;
+import microservices.lab1.media.search.SearchDocument;
+import microservices.lab1.media.search.SearchHit;
+import microservices.lab1.media.search.SearchIndex;
+import microservices.lab1.media.storage.ContentStore;
+import microservices.lab1.media.storage.MediaMetadata;
+import microservices.lab1.media.storage.MediaTypes;
+import microservices.lab1.media.upload.ResumableUploads;
+import microservices.lab1.media.upload.UploadSession;
+import microservices.lab1.video.dto.BulkUpdateVideoDTO;
 import microservices.lab1.video.dto.CreateVideoDTO;
 import microservices.lab1.video.dto.UpdateVideoDTO;
 import microservices.lab1.video.dto.GetVideoDTO;
 import microservices.lab1.video.mapper.VideoMapper;
 import microservices.lab1.video.models.Video;
 import microservices.lab1.video.repository.VideoRepository;
+import microservices.lab1.user.models.User;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.OutputStream;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -25,85 +65,425 @@ public class VideoService {
 
     private final VideoRepository videoRepository;
     private final VideoMapper videoMapper;
+    private final ContentStore contentStore;
+    private final ResumableUploads resumableUploads;
+    private final IngestPipeline ingestPipeline;
+    private final MediaReclaimer mediaReclaimer;
+    private final MediaIndex mediaIndex;
+    private final CatalogVersion catalogVersion;
+    private final NdjsonWriter ndjsonWriter;
+    private final Validator validator;
+    private final MultiIdLoader multiIdLoader;
+    private final SearchIndex searchIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final GenreCounter genreCounts = new GenreCounter();
 
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerStoredMedia() {
+        videoRepository.findStoredMedia().forEach(stored -> mediaIndex.register(stored.title(), stored.id(), stored.media()));
+    }
+
+    /**
+     * Not read-only, so it runs on the primary and sees every committed write.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void rebuildSearchIndex() {
+        searchIndex.rebuild(SearchHit.Type.VIDEO, videoRepository::streamSearchDocuments);
+    }
+
+    /**
+     * The file is stored before the transaction starts, so no connection is held
+     * while it is copied.
+     */
     public GetVideoDTO save(CreateVideoDTO videoDTO, MultipartFile file) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new CustomException("Файл не передано.");
         }
 
+        MediaMetadata written = contentStore.write(file);
+        return transactionTemplate.execute(status -> {
+            Video video = videoMapper.toEntity(videoDTO);
+            video.setIngestStatus(IngestStatus.PENDING);
+            return create(video, contentStore.acquire(written), file.getOriginalFilename());
+        });
+    }
+
+    @Transactional
+    public GetVideoDTO saveWithExistingMedia(CreateVideoDTO videoDTO, String sha256) {
+        return create(videoMapper.toEntity(videoDTO), contentStore.reference(sha256), null);
+    }
+
+    /**
+     * The session is only ended once the row is saved, so a failed request can be
+     * sent again.
+     */
+    @Transactional(rollbackFor = IOException.class)
+    public GetVideoDTO saveUpload(CreateVideoDTO videoDTO, String uploadId) throws IOException {
+        UploadSession upload = resumableUploads.findComplete(uploadId);
         Video video = videoMapper.toEntity(videoDTO);
+        video.setIngestStatus(IngestStatus.PENDING);
+        MediaMetadata received = new MediaMetadata(upload.file(), MediaTypes.fromFileName(upload.fileName()),
+                upload.length(), null, Instant.now());
+        GetVideoDTO created = create(video, received, upload.fileName());
+        videoRepository.flush();
+        resumableUploads.complete(uploadId);
+        return created;
+    }
 
-        File mediaDirectory = new File("media");
-        if (!mediaDirectory.exists()) {
-            mediaDirectory.mkdirs();
+    /**
+     * Ignored unless the row still holds the media the job started from.
+     */
+    @EventListener
+    @Transactional
+    public void finishIngest(IngestCompleted event) {
+        IngestJob job = event.job();
+        if (job.source() != IngestJob.Source.VIDEO) {
+            return;
+        }
+        boolean acquired = job.media().sha256() == null && event.media() != null && event.media().sha256() != null;
+        Video video = videoRepository.findById(job.id()).orElse(null);
+        if (video == null || video.getIngestStatus() != IngestStatus.PENDING
+                || !Objects.equals(video.getPath(), job.media().path().toString())) {
+            if (acquired) {
+                contentStore.release(event.media().sha256());
+            }
+            return;
         }
 
-        String fileName = videoDTO.getTitle() + "_" + System.currentTimeMillis() + getFileExtension(file.getOriginalFilename());
-        Path filePath = Paths.get("src/main/resources/media", fileName);
-        Files.write(filePath, file.getBytes());
+        if (event.status() == IngestStatus.READY) {
+            applyMedia(video, event.media());
+        } else if (acquired) {
+            contentStore.release(event.media().sha256());
+        }
+        video.setIngestStatus(event.status());
+        catalogVersion.increment();
+        registerMedia(video);
+    }
 
-        video.setPath(filePath.toString());
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${media.ingest.resubmit-interval:PT1M}",
+            initialDelayString = "${media.ingest.resubmit-interval:PT1M}")
+    @Transactional(readOnly = true)
+    public void resumeIngest() {
+        videoRepository.findPendingMedia().forEach(stored -> ingestPipeline.submit(
+                new IngestJob(IngestJob.Source.VIDEO, stored.id(), stored.media(), null)));
+    }
 
-        Video savedVideo = videoRepository.save(video);
-        return videoMapper.toGetVideoDTO(savedVideo);
+    @Transactional(readOnly = true)
+    public IngestProgress findIngestProgress(long id) {
+        IngestStatus status = videoRepository.findIngestStatusById(id)
+                .orElseThrow(() -> new CustomException("Відео з ID " + id + " не знайдено."));
+        return new IngestProgress(id, status, ingestPipeline.stage(IngestJob.Source.VIDEO, id).orElse(null));
+    }
+
+    public List<GenreCount> countGenres() {
+        return genreCounts.counts();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${catalog.facets.reconcile-interval}",
+            initialDelayString = "${catalog.facets.reconcile-interval}")
+    @Transactional(readOnly = true)
+    public void reconcileGenreCounts() {
+        genreCounts.reset(videoRepository.countGenres());
+    }
+
+    public List<String> suggest(String prefix, int limit) {
+        return searchIndex.suggest(SearchHit.Type.VIDEO, prefix, limit);
     }
 
+    @Transactional(readOnly = true)
     public GetVideoDTO findById(long id) {
-        Video video = videoRepository.findById(id)
+        return videoRepository.findDtoById(id)
                 .orElseThrow(() -> new CustomException("Відео з ID " + id + " не знайдено."));
-        return videoMapper.toGetVideoDTO(video);
     }
 
+    @Transactional(readOnly = true)
+    public List<GetVideoDTO> findPage(Long after, int limit, String genre, String director, Long userId) {
+        return videoRepository.findPage(Keyset.after(after), genre, director, userId, Limit.of(Keyset.limit(limit)));
+    }
+
+    @Transactional(readOnly = true)
+    public List<BulkItemResult<GetVideoDTO>> findAllByIds(List<Long> ids) {
+        Bulk.checkSize(ids);
+        List<Video> videos = multiIdLoader.load(Video.class, ids);
+        List<BulkItemResult<GetVideoDTO>> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Video video = videos.get(i);
+            results.add(video != null
+                    ? BulkItemResult.ok(i, HttpStatus.OK, ids.get(i), videoMapper.toGetVideoDTO(video))
+                    : BulkItemResult.failed(i, HttpStatus.NOT_FOUND, ids.get(i), "Відео з ID " + ids.get(i) + " не знайдено."));
+        }
+        return results;
+    }
+
+    @Transactional(readOnly = true)
     public List<GetVideoDTO> findAll() {
-        return videoRepository.findAll().stream()
-                .map(videoMapper::toGetVideoDTO)
-                .collect(Collectors.toList());
+        return videoRepository.findAllDtos();
     }
 
-    public GetVideoDTO update(long id, UpdateVideoDTO videoDTO, MultipartFile file) throws IOException {
-        if (!videoRepository.existsById(id)) {
-            throw new CustomException("Відео з ID " + id + " не знайдено.");
+    @Transactional(readOnly = true)
+    public long exportAll(OutputStream out) throws IOException {
+        try (Stream<Video> rows = videoRepository.streamAll()) {
+            return ndjsonWriter.write(rows, videoMapper::toGetVideoDTO, GetVideoDTO.class, out);
         }
+    }
+
+    /**
+     * A stale {@code expectedVersion} fails with 412, a concurrent edit with 409.
+     */
+    public GetVideoDTO update(long id, UpdateVideoDTO videoDTO, MultipartFile file, Long expectedVersion) throws IOException {
+        MediaMetadata written = file == null || file.isEmpty() ? null : contentStore.write(file);
+        String fileName = written == null ? null : file.getOriginalFilename();
+        return transactionTemplate.execute(status -> update(id, videoDTO, written, fileName, expectedVersion));
+    }
 
-        Video video = videoRepository.findById(id).get();
+    private GetVideoDTO update(long id, UpdateVideoDTO videoDTO, MediaMetadata written, String fileName, Long expectedVersion) {
+        Video video = videoRepository.findById(id)
+                .orElseThrow(() -> new CustomException("Відео з ID " + id + " не знайдено."));
+        EntityTags.checkVersion(expectedVersion, video.getVersion());
+        String previousPath = video.getPath();
+        String previousTitle = video.getTitle();
+        String previousSha256 = video.getSha256();
+        Instant previousLastModified = video.getLastModified();
+        String previousGenre = video.getGenre();
+        MediaMetadata media = null;
         video = videoMapper.toEntity(videoDTO, video);
 
-        if (file != null && !file.isEmpty()) {
-            File mediaDirectory = new File("media");
-            if (!mediaDirectory.exists()) {
-                mediaDirectory.mkdirs();
+        if (written != null) {
+            media = contentStore.acquire(written);
+            applyMedia(video, media);
+            video.setIngestStatus(IngestStatus.PENDING);
+        }
+
+        Video updatedVideo = videoRepository.saveAndFlush(video);
+        catalogVersion.increment();
+        if (media != null) {
+            contentStore.release(previousSha256);
+            AfterCommit.run(() -> mediaReclaimer.discardLater(previousSha256, previousPath));
+            if (previousPath != null) {
+                mediaIndex.unregister(Paths.get(previousPath));
             }
+        }
+        if (previousSha256 != null) {
+            mediaIndex.unregister(previousTitle, id, previousLastModified);
+        }
+        registerMedia(updatedVideo);
+        ingest(updatedVideo, fileName);
+        index(updatedVideo);
+        genreCounts.move(previousGenre, updatedVideo.getGenre());
+        return videoMapper.toGetVideoDTO(updatedVideo);
+    }
 
-            String fileName = videoDTO.getTitle() + "_" + System.currentTimeMillis() + getFileExtension(file.getOriginalFilename());
-            Path filePath = Paths.get("src/main/resources/media", fileName);
-            Files.write(filePath, file.getBytes());
+    /**
+     * Changing the owner bumps the version, so the versioned delete also fails if
+     * the owner changed since the row was checked.
+     */
+    @Transactional
+    public boolean delete(long id, Long userId, Long expectedVersion) {
+        Video video = videoRepository.findById(id)
+                .orElseThrow(() -> new CustomException("Відео з ID " + id + " не знайдено."));
+        EntityTags.checkVersion(expectedVersion, video.getVersion());
+        if (userId != null && (video.getUser() == null || !video.getUser().getId().equals(userId))) {
+            throw new CustomException("Відео не належить користувачу з ID " + userId);
+        }
 
-            video.setPath(filePath.toString());
+        videoRepository.delete(video);
+        videoRepository.flush();
+        catalogVersion.increment();
+        searchIndex.remove(SearchHit.Type.VIDEO, id);
+        genreCounts.decrement(video.getGenre());
+        contentStore.release(video.getSha256());
+        unregisterMedia(video);
+        return true;
+    }
+
+    @Transactional
+    public List<BulkItemResult<GetVideoDTO>> saveAll(List<CreateVideoDTO> videoDTOs) {
+        Bulk.checkSize(videoDTOs);
+        Map<Long, User> users = videoMapper.findUsers(videoDTOs.stream()
+                .filter(Objects::nonNull)
+                .map(CreateVideoDTO::getUserId)
+                .collect(Collectors.toList()));
+
+        List<BulkItemResult<GetVideoDTO>> results = new ArrayList<>(Collections.nCopies(videoDTOs.size(), null));
+        Video[] accepted = new Video[videoDTOs.size()];
+        for (int i = 0; i < videoDTOs.size(); i++) {
+            CreateVideoDTO dto = videoDTOs.get(i);
+            String error = Bulk.validate(validator, dto);
+            if (error != null) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, null, error));
+            } else if (!users.containsKey(dto.getUserId())) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, null,
+                        "Користувача з ID " + dto.getUserId() + " не знайдено."));
+            } else {
+                accepted[i] = videoMapper.toEntity(dto, users.get(dto.getUserId()));
+            }
         }
 
-        Video updatedVideo = videoRepository.save(video);
-        return videoMapper.toGetVideoDTO(updatedVideo);
+        List<Video> saved = nonNull(accepted);
+        videoRepository.saveAll(saved);
+        for (int i = 0; i < accepted.length; i++) {
+            if (accepted[i] != null) {
+                index(accepted[i]);
+                genreCounts.increment(accepted[i].getGenre());
+                results.set(i, BulkItemResult.ok(i, HttpStatus.CREATED, accepted[i].getId(),
+                        videoMapper.toGetVideoDTO(accepted[i])));
+            }
+        }
+        if (!saved.isEmpty()) {
+            catalogVersion.increment();
+        }
+        return results;
     }
 
-    public boolean delete(long id, Long userId) {
-        if (!videoRepository.existsById(id)) {
-            throw new CustomException("Відео з ID " + id + " не знайдено.");
+    @Transactional
+    public List<BulkItemResult<GetVideoDTO>> updateAll(List<BulkUpdateVideoDTO> videoDTOs) {
+        Bulk.checkSize(videoDTOs);
+        List<BulkUpdateVideoDTO> present = videoDTOs.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        Map<Long, Video> existing = videoRepository.findAllById(present.stream()
+                        .map(BulkUpdateVideoDTO::getId)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(Video::getId, Function.identity()));
+        Map<Long, User> users = videoMapper.findUsers(present.stream()
+                .map(BulkUpdateVideoDTO::getUserId)
+                .collect(Collectors.toList()));
+
+        List<BulkItemResult<GetVideoDTO>> results = new ArrayList<>(Collections.nCopies(videoDTOs.size(), null));
+        Video[] updated = new Video[videoDTOs.size()];
+        String[] previousGenres = new String[videoDTOs.size()];
+        for (int i = 0; i < videoDTOs.size(); i++) {
+            BulkUpdateVideoDTO dto = videoDTOs.get(i);
+            String error = Bulk.validate(validator, dto);
+            if (error != null) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, dto != null ? dto.getId() : null, error));
+            } else if (!existing.containsKey(dto.getId())) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.NOT_FOUND, dto.getId(),
+                        "Відео з ID " + dto.getId() + " не знайдено."));
+            } else if (dto.getVersion() != null && dto.getVersion() != existing.get(dto.getId()).getVersion()) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.PRECONDITION_FAILED, dto.getId(),
+                        "Запис змінено: очікувана версія " + dto.getVersion() + "."));
+            } else if (!users.containsKey(dto.getUserId())) {
+                results.set(i, BulkItemResult.failed(i, HttpStatus.BAD_REQUEST, dto.getId(),
+                        "Користувача з ID " + dto.getUserId() + " не знайдено."));
+            } else {
+                previousGenres[i] = existing.get(dto.getId()).getGenre();
+                updated[i] = videoMapper.toEntity(dto, existing.get(dto.getId()), users.get(dto.getUserId()));
+            }
+        }
+
+        videoRepository.flush();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] != null) {
+                index(updated[i]);
+                genreCounts.move(previousGenres[i], updated[i].getGenre());
+                results.set(i, BulkItemResult.ok(i, HttpStatus.OK, updated[i].getId(), videoMapper.toGetVideoDTO(updated[i])));
+            }
         }
+        if (!nonNull(updated).isEmpty()) {
+            catalogVersion.increment();
+        }
+        return results;
+    }
 
-        Video video = videoRepository.findById(id).get();
-        if (userId != null && (video.getUser() == null || !video.getUser().getId().equals(userId))) {
-            throw new CustomException("Відео не належить користувачу з ID " + userId);
+    @Transactional
+    public List<BulkItemResult<Void>> deleteAll(List<Long> ids) {
+        Bulk.checkSize(ids);
+        Map<Long, Video> existing = videoRepository.findAllById(ids.stream()
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(Video::getId, Function.identity()));
+
+        List<BulkItemResult<Void>> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Long id = ids.get(i);
+            if (existing.containsKey(id)) {
+                results.add(BulkItemResult.ok(i, HttpStatus.NO_CONTENT, id, null));
+            } else {
+                results.add(BulkItemResult.failed(i, HttpStatus.NOT_FOUND, id, "Відео з ID " + id + " не знайдено."));
+            }
         }
 
-        videoRepository.deleteById(id);
-        return true;
+        videoRepository.deleteAll(existing.values());
+        if (!existing.isEmpty()) {
+            catalogVersion.increment();
+        }
+        existing.keySet().forEach(id -> searchIndex.remove(SearchHit.Type.VIDEO, id));
+        existing.values().forEach(video -> genreCounts.decrement(video.getGenre()));
+        existing.values().forEach(video -> {
+            contentStore.release(video.getSha256());
+            unregisterMedia(video);
+        });
+        return results;
     }
 
-    private String getFileExtension(String fileName) {
-        if (fileName == null) {
-            return "";
+    private List<Video> nonNull(Video[] videos) {
+        List<Video> list = new ArrayList<>(videos.length);
+        for (Video video : videos) {
+            if (video != null) {
+                list.add(video);
+            }
+        }
+        return list;
+    }
+
+    private void index(Video video) {
+        searchIndex.put(SearchHit.Type.VIDEO, new SearchDocument(video.getId(), video.getTitle(),
+                video.getDirector(), video.getGenre()));
+    }
+
+    private GetVideoDTO create(Video video, MediaMetadata media, String fileName) {
+        applyMedia(video, media);
+        Video savedVideo = videoRepository.save(video);
+        catalogVersion.increment();
+        registerMedia(savedVideo);
+        ingest(savedVideo, fileName);
+        index(savedVideo);
+        genreCounts.increment(savedVideo.getGenre());
+        return videoMapper.toGetVideoDTO(savedVideo);
+    }
+
+    private void registerMedia(Video video) {
+        if (video.getSha256() != null && video.getIngestStatus() == IngestStatus.READY) {
+            mediaIndex.register(video.getTitle(), video.getId(), media(video));
+        }
+    }
+
+    private void ingest(Video video, String fileName) {
+        if (video.getIngestStatus() == IngestStatus.PENDING) {
+            IngestJob job = new IngestJob(IngestJob.Source.VIDEO, video.getId(), media(video), fileName);
+            AfterCommit.run(() -> ingestPipeline.submit(job));
         }
-        int dotIndex = fileName.lastIndexOf('.');
-        return (dotIndex == -1) ? "" : fileName.substring(dotIndex);
+    }
+
+    private static MediaMetadata media(Video video) {
+        return new MediaMetadata(video.getPath(), video.getContentType(), video.getContentLength(), video.getSha256(),
+                video.getLastModified());
+    }
+
+    private void unregisterMedia(Video video) {
+        if (video.getSha256() != null) {
+            mediaIndex.unregister(video.getTitle(), video.getId(), video.getLastModified());
+        }
+        if (video.getPath() != null) {
+            mediaIndex.unregister(Paths.get(video.getPath()));
+        }
+        if (video.getSha256() == null && video.getPath() != null) {
+            // Hashed content is kept for the reclaimer's grace period instead.
+            String path = video.getPath();
+            AfterCommit.run(() -> mediaReclaimer.discardLater(null, path));
+        }
+    }
+
+    private void applyMedia(Video video, MediaMetadata media) {
+        video.setPath(media.path().toString());
+        video.setContentType(media.contentType());
+        video.setContentLength(media.contentLength());
+        video.setSha256(media.sha256());
+        video.setLastModified(media.lastModified());
     }
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+-- Columns and indexes the entities gained while the schema was still kept up by
+-- ddl-auto=update: optimistic-lock versions, the media metadata recorded at
+-- upload, and the (filter, id) indexes behind keyset pagination.
+
+alter table user add column version bigint default 0 not null;
+alter table music add column version bigint default 0 not null;
+alter table video add column version bigint default 0 not null;
+
+alter table music add column content_type varchar(255);
+alter table music add column content_length bigint;
+alter table music add column sha256 varchar(64);
+alter table music add column last_modified datetime(6);
+
+alter table video add column content_type varchar(255);
+alter table video add column content_length bigint;
+alter table video add column sha256 varchar(64);
+alter table video add column last_modified datetime(6);
+
+create index idx_music_genre_id on music (genre, id);
+create index idx_music_artist_id on music (artist, id);
+create index idx_music_user_id on music (user_id, id);
+
+create index idx_video_genre_id on video (genre, id);
+create index idx_video_director_id on video (director, id);
+create index idx_video_user_id on video (user_id, id);
@@ -0,0 +1,32 @@
+-- Schema as previously generated by ddl-auto=update. Existing databases are
+-- baselined at this version and start from V1_1.
+
+create table user (
+    id bigint not null auto_increment,
+    password varchar(255),
+    username varchar(255),
+    primary key (id)
+);
+
+create table music (
+    id bigint not null auto_increment,
+    artist varchar(255),
+    genre varchar(255),
+    path varchar(255),
+    title longtext,
+    user_id bigint,
+    primary key (id)
+);
+
+create table video (
+    id bigint not null auto_increment,
+    director varchar(255),
+    genre varchar(255),
+    path varchar(255),
+    title varchar(255),
+    user_id bigint,
+    primary key (id)
+);
+
+alter table music add constraint fk_music_user foreign key (user_id) references user (id);
+alter table video add constraint fk_video_user foreign key (user_id) references user (id);
@@ -0,0 +1,13 @@
+-- Bounded VARCHAR columns (matching the request DTO limits) so titles can be
+-- indexed; music.title used to be a LONGTEXT.
+
+alter table music modify column title varchar(100);
+alter table music modify column artist varchar(100);
+alter table music modify column genre varchar(50);
+
+alter table video modify column title varchar(100);
+alter table video modify column director varchar(100);
+alter table video modify column genre varchar(50);
+
+create index idx_music_title on music (title);
+create index idx_video_title on video (title);
@@ -0,0 +1,18 @@
+-- Content-addressed media files, one row per distinct SHA-256 with the number of
+-- catalog rows pointing at it. Rows that already carry a hash are counted in.
+
+create table media_object (
+    sha256 varchar(64) not null,
+    content_type varchar(255),
+    content_length bigint,
+    reference_count bigint default 0 not null,
+    created_at datetime(6),
+    primary key (sha256)
+);
+
+insert into media_object (sha256, content_type, content_length, reference_count, created_at)
+select sha256, max(content_type), max(content_length), count(*), min(last_modified)
+from (select sha256, content_type, content_length, last_modified from music where sha256 is not null
+      union all
+      select sha256, content_type, content_length, last_modified from video where sha256 is not null) stored
+group by sha256;
@@ -0,0 +1,5 @@
+-- Progress of background processing of each row's media file. Rows stored
+-- before there was any processing count as ready.
+
+alter table music add column ingest_status varchar(16) default 'READY' not null;
+alter table video add column ingest_status varchar(16) default 'READY' not null;
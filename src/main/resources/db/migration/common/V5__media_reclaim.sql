@@ -0,0 +1,10 @@
+-- When an object's reference count last went down, so unreferenced content is
+-- kept for a grace period before its file is deleted. Content that is already
+-- unreferenced gets the full grace period from now.
+
+alter table media_object add column released_at datetime(6);
+update media_object set released_at = current_timestamp where reference_count = 0;
+
+create index idx_media_object_released on media_object (reference_count, released_at);
+create index idx_music_sha256 on music (sha256);
+create index idx_video_sha256 on video (sha256);
@@ -0,0 +1,3 @@
+create sequence user_seq start with 1 increment by 50;
+create sequence music_seq start with 1 increment by 50;
+create sequence video_seq start with 1 increment by 50;
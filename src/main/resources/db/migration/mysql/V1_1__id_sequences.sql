@@ -0,0 +1,15 @@
+-- MySQL has no sequences, so Hibernate emulates them with single-row tables.
+-- Seed them past the highest existing id (plus one allocation block of 50) so
+-- pooled ids never collide with rows inserted under IDENTITY.
+
+create table if not exists user_seq (next_val bigint);
+create table if not exists music_seq (next_val bigint);
+create table if not exists video_seq (next_val bigint);
+
+insert into user_seq (next_val) select 1 from dual where not exists (select * from user_seq);
+insert into music_seq (next_val) select 1 from dual where not exists (select * from music_seq);
+insert into video_seq (next_val) select 1 from dual where not exists (select * from video_seq);
+
+update user_seq set next_val = greatest(next_val, (select coalesce(max(id), 0) + 51 from user));
+update music_seq set next_val = greatest(next_val, (select coalesce(max(id), 0) + 51 from music));
+update video_seq set next_val = greatest(next_val, (select coalesce(max(id), 0) + 51 from video));
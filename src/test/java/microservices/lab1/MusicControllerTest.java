@@ -1,8 +1,14 @@
 package microservices.lab1;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import microservices.lab1.common.bulk.BulkItemResult;
 import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.common.exception.PreconditionFailedException;
 import microservices.lab1.common.exception.GlobalExceptionHandler;
+import microservices.lab1.common.projection.GenreCount;
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.media.ingest.IngestProgress;
+import microservices.lab1.media.ingest.IngestStatus;
 import microservices.lab1.music.controllers.MusicController;
 import microservices.lab1.music.dto.CreateMusicDTO;
 import microservices.lab1.music.dto.UpdateMusicDTO;
@@ -15,15 +21,22 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -37,6 +50,9 @@ class MusicControllerTest {
     @Mock
     private MusicService musicService;
 
+    @Mock
+    private CatalogVersion catalogVersion;
+
     @InjectMocks
     private MusicController musicController;
 
@@ -49,6 +65,7 @@ class MusicControllerTest {
 
     @BeforeEach
     void setUp() {
+        lenient().when(catalogVersion.current()).thenReturn(new CatalogVersion.Stamp(1, 1_700_000_000_000L));
         objectMapper = new ObjectMapper();
 
         mockMvc = MockMvcBuilders
@@ -120,6 +137,101 @@ class MusicControllerTest {
         verify(musicService, never()).save(any(CreateMusicDTO.class), any(MockMultipartFile.class));
     }
 
+    @Test
+    void createMusic_FromResumableUpload() throws Exception {
+        when(musicService.saveUpload(any(CreateMusicDTO.class), eq("upload-1"))).thenReturn(getMusicDTO);
+
+        mockMvc.perform(post("/api/music/uploads/upload-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createMusicDTO)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.title").value("Test Song"));
+    }
+
+    @Test
+    void getMusicStatus_WhileProcessing() throws Exception {
+        when(musicService.findIngestProgress(1L)).thenReturn(new IngestProgress(1L, IngestStatus.PENDING, "verify"));
+
+        mockMvc.perform(get("/api/music/1/status"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("PENDING"))
+                .andExpect(jsonPath("$.stage").value("verify"));
+    }
+
+    @Test
+    void createMusic_FromUnfinishedUpload() throws Exception {
+        when(musicService.saveUpload(any(CreateMusicDTO.class), eq("upload-1")))
+                .thenThrow(new CustomException("Завантаження upload-1 не завершено: отримано 0 з 9 байтів."));
+
+        mockMvc.perform(post("/api/music/uploads/upload-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createMusicDTO)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Завантаження upload-1 не завершено: отримано 0 з 9 байтів."));
+    }
+
+    @Test
+    void createMusic_FromUploadThatCannotBeRead() throws Exception {
+        when(musicService.saveUpload(any(CreateMusicDTO.class), eq("upload-1")))
+                .thenThrow(new IOException("Disk error"));
+
+        mockMvc.perform(post("/api/music/uploads/upload-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createMusicDTO)))
+                .andExpect(status().isInternalServerError())
+                .andExpect(jsonPath("$.message").value("Unexpected error: Disk error"));
+    }
+
+    @Test
+    void createMusic_WithStoredContentHash_SkipsUpload() throws Exception {
+        String sha256 = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+        when(musicService.saveWithExistingMedia(any(CreateMusicDTO.class), eq(sha256))).thenReturn(getMusicDTO);
+
+        MockMultipartFile musicPart = new MockMultipartFile("music", "", "application/json",
+                objectMapper.writeValueAsString(createMusicDTO).getBytes());
+
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/api/music")
+                        .file(musicPart)
+                        .param("sha256", sha256))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.title").value("Test Song"));
+
+        verify(musicService, never()).save(any(CreateMusicDTO.class), any(MockMultipartFile.class));
+    }
+
+    @Test
+    void createMusic_FromResumableUpload() throws Exception {
+        when(musicService.saveUpload(any(CreateMusicDTO.class), eq("upload-1"))).thenReturn(getMusicDTO);
+
+        mockMvc.perform(post("/api/music/uploads/upload-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createMusicDTO)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.title").value("Test Song"));
+    }
+
+    @Test
+    void getMusicStatus_WhileProcessing() throws Exception {
+        when(musicService.findIngestProgress(1L)).thenReturn(new IngestProgress(1L, IngestStatus.PENDING, "verify"));
+
+        mockMvc.perform(get("/api/music/1/status"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("PENDING"))
+                .andExpect(jsonPath("$.stage").value("verify"));
+    }
+
+    @Test
+    void createMusic_FromUnfinishedUpload() throws Exception {
+        when(musicService.saveUpload(any(CreateMusicDTO.class), eq("upload-1")))
+                .thenThrow(new CustomException("Завантаження upload-1 не завершено: отримано 0 з 9 байтів."));
+
+        mockMvc.perform(post("/api/music/uploads/upload-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createMusicDTO)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Завантаження upload-1 не завершено: отримано 0 з 9 байтів."));
+    }
+
     @Test
     void createMusic_UserNotFound() throws Exception {
         when(musicService.save(any(CreateMusicDTO.class), any(MockMultipartFile.class)))
@@ -140,6 +252,52 @@ class MusicControllerTest {
         verify(musicService).save(any(CreateMusicDTO.class), any(MockMultipartFile.class));
     }
 
+    @Test
+    void createMusicBulk_AllCreated() throws Exception {
+        when(musicService.saveAll(anyList()))
+                .thenReturn(List.of(BulkItemResult.ok(0, HttpStatus.CREATED, 1L, getMusicDTO)));
+
+        mockMvc.perform(post("/api/music/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(createMusicDTO))))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$[0].status").value(201))
+                .andExpect(jsonPath("$[0].item.title").value("Test Song"))
+                .andExpect(jsonPath("$[0].error").doesNotExist());
+
+        verify(musicService, never()).save(any(CreateMusicDTO.class), any());
+    }
+
+    @Test
+    void createMusicBulk_PartialFailureIsMultiStatus() throws Exception {
+        when(musicService.saveAll(anyList())).thenReturn(List.of(
+                BulkItemResult.ok(0, HttpStatus.CREATED, 1L, getMusicDTO),
+                BulkItemResult.failed(1, HttpStatus.BAD_REQUEST, null, "Користувача з ID 999 не знайдено.")));
+
+        mockMvc.perform(post("/api/music/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(createMusicDTO, createMusicDTO))))
+                .andExpect(status().isMultiStatus())
+                .andExpect(jsonPath("$[1].index").value(1))
+                .andExpect(jsonPath("$[1].status").value(400))
+                .andExpect(jsonPath("$[1].error").value("Користувача з ID 999 не знайдено."));
+    }
+
+    @Test
+    void deleteMusicBulk_ReportsMissingIds() throws Exception {
+        when(musicService.deleteAll(List.of(1L, 999L))).thenReturn(List.of(
+                BulkItemResult.ok(0, HttpStatus.NO_CONTENT, 1L, null),
+                BulkItemResult.failed(1, HttpStatus.NOT_FOUND, 999L, "Музику з ID 999 не знайдено.")));
+
+        mockMvc.perform(delete("/api/music/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1, 999]"))
+                .andExpect(status().isMultiStatus())
+                .andExpect(jsonPath("$[0].status").value(204))
+                .andExpect(jsonPath("$[1].id").value(999))
+                .andExpect(jsonPath("$[1].status").value(404));
+    }
+
     @Test
     void getMusicById_Success() throws Exception {
         when(musicService.findById(1L)).thenReturn(getMusicDTO);
@@ -163,11 +321,60 @@ class MusicControllerTest {
         verify(musicService).findById(999L);
     }
 
+    @Test
+    void getMusicByIds_KeepsOrderAndReportsMissingIds() throws Exception {
+        when(musicService.findAllByIds(List.of(1L, 999L))).thenReturn(List.of(
+                BulkItemResult.ok(0, HttpStatus.OK, 1L, getMusicDTO),
+                BulkItemResult.failed(1, HttpStatus.NOT_FOUND, 999L, "Музику з ID 999 не знайдено.")));
+
+        mockMvc.perform(get("/api/music?ids=1,999"))
+                .andExpect(status().isMultiStatus())
+                .andExpect(jsonPath("$[0].item.title").value("Test Song"))
+                .andExpect(jsonPath("$[1].id").value(999))
+                .andExpect(jsonPath("$[1].status").value(404));
+
+        verify(musicService, never()).findPage(any(), anyInt(), any(), any(), any());
+    }
+
+    @Test
+    void getMusicGenres_ReturnsCountsFromService() throws Exception {
+        when(musicService.countGenres()).thenReturn(List.of(new GenreCount("Pop", 3), new GenreCount("Rock", 1)));
+
+        mockMvc.perform(get("/api/music/genres"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, catalogVersion.current().etag()))
+                .andExpect(jsonPath("$[0].genre").value("Pop"))
+                .andExpect(jsonPath("$[0].count").value(3))
+                .andExpect(jsonPath("$[1].genre").value("Rock"));
+
+        verify(musicService, never()).findAll();
+    }
+
+    @Test
+    void getMusicGenres_NotModified() throws Exception {
+        mockMvc.perform(get("/api/music/genres").header(HttpHeaders.IF_NONE_MATCH, catalogVersion.current().etag()))
+                .andExpect(status().isNotModified());
+
+        verify(musicService, never()).countGenres();
+    }
+
+    @Test
+    void suggestMusic_ReturnsSuggestionsFromService() throws Exception {
+        when(musicService.suggest("оке", 5)).thenReturn(List.of("Океан Ельзи", "Океан"));
+
+        mockMvc.perform(get("/api/music/suggest").param("q", "оке").param("limit", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0]").value("Океан Ельзи"))
+                .andExpect(jsonPath("$[1]").value("Океан"));
+
+        verify(musicService, never()).findById(anyLong());
+    }
+
     @Test
     void getAllMusic_Success() throws Exception {
         when(musicService.findAll()).thenReturn(List.of(getMusicDTO));
 
-        mockMvc.perform(get("/api/music"))
+        mockMvc.perform(get("/api/music").param("all", "true"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$[0].id").value(1))
                 .andExpect(jsonPath("$[0].title").value("Test Song"));
@@ -175,9 +382,70 @@ class MusicControllerTest {
         verify(musicService).findAll();
     }
 
+    @Test
+    void getAllMusic_FullPageLinksToNextPage() throws Exception {
+        when(musicService.findPage(5L, 1, "Pop", null, null)).thenReturn(List.of(getMusicDTO));
+
+        mockMvc.perform(get("/api/music?genre=Pop&after=5&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(1))
+                .andExpect(header().string(HttpHeaders.LINK, "<http://localhost/api/music?genre=Pop&limit=1&after=1>; rel=\"next\""));
+
+        verify(musicService, never()).findAll();
+    }
+
+    @Test
+    void getAllMusic_LastPageHasNoLink() throws Exception {
+        when(musicService.findPage(5L, 2, "Pop", null, null)).thenReturn(List.of(getMusicDTO));
+
+        mockMvc.perform(get("/api/music?genre=Pop&after=5&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    void getAllMusic_NotModified() throws Exception {
+        mockMvc.perform(get("/api/music").header(HttpHeaders.IF_NONE_MATCH, catalogVersion.current().etag()))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, catalogVersion.current().etag()));
+
+        verify(musicService, never()).findAll();
+    }
+
+    @Test
+    void getAllMusic_ModifiedAfterWrite() throws Exception {
+        String etag = catalogVersion.current().etag();
+        when(catalogVersion.current()).thenReturn(new CatalogVersion.Stamp(2, 1_700_000_001_000L));
+        when(musicService.findAll()).thenReturn(List.of());
+
+        mockMvc.perform(get("/api/music").param("all", "true").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, catalogVersion.current().etag()));
+    }
+
+    @Test
+    void exportMusic_StreamsNdjson() throws Exception {
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(0);
+            out.write("{\"id\":1}\n{\"id\":2}\n".getBytes(StandardCharsets.UTF_8));
+            return 2L;
+        }).when(musicService).exportAll(any());
+
+        MvcResult result = mockMvc.perform(get("/api/music/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("{\"id\":1}\n{\"id\":2}\n"));
+
+        verify(musicService, never()).findAll();
+    }
+
     @Test
     void updateMusic_Success() throws Exception {
-        when(musicService.update(eq(1L), any(UpdateMusicDTO.class), any())).thenReturn(getMusicDTO);
+        when(musicService.update(eq(1L), any(UpdateMusicDTO.class), any(), isNull())).thenReturn(getMusicDTO);
 
         MockMultipartFile musicPart = new MockMultipartFile("music", "", "application/json",
                 objectMapper.writeValueAsString(updateMusicDTO).getBytes());
@@ -217,12 +485,12 @@ class MusicControllerTest {
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("$.errors[0]").value("title: Title must be between 1 and 100 characters"));
 
-        verify(musicService, never()).update(anyLong(), any(UpdateMusicDTO.class), any());
+        verify(musicService, never()).update(anyLong(), any(UpdateMusicDTO.class), any(), any());
     }
 
     @Test
     void deleteMusic_Success() throws Exception {
-        when(musicService.delete(1L, 1L)).thenReturn(true);
+        when(musicService.delete(1L, 1L, null)).thenReturn(true);
 
         DeleteMusicDTO deleteDTO = new DeleteMusicDTO();
         deleteDTO.setUserId(1L);
@@ -235,9 +503,39 @@ class MusicControllerTest {
         verify(musicService).delete(1L, 1L);
     }
 
+    @Test
+    void deleteMusic_IfMatchIsPassedAsExpectedVersion() throws Exception {
+        when(musicService.delete(1L, 1L, 7L)).thenReturn(true);
+
+        DeleteMusicDTO deleteDTO = new DeleteMusicDTO();
+        deleteDTO.setUserId(1L);
+
+        mockMvc.perform(delete("/api/music/1")
+                        .header(HttpHeaders.IF_MATCH, "\"7\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(deleteDTO)))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    void deleteMusic_StaleIfMatch_PreconditionFailed() throws Exception {
+        when(musicService.delete(1L, 1L, 6L))
+                .thenThrow(new PreconditionFailedException("Запис змінено: очікувана версія 6, поточна 7."));
+
+        DeleteMusicDTO deleteDTO = new DeleteMusicDTO();
+        deleteDTO.setUserId(1L);
+
+        mockMvc.perform(delete("/api/music/1")
+                        .header(HttpHeaders.IF_MATCH, "\"6\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(deleteDTO)))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("$.message").value("Запис змінено: очікувана версія 6, поточна 7."));
+    }
+
     @Test
     void deleteMusic_AccessDenied() throws Exception {
-        when(musicService.delete(1L, 999L))
+        when(musicService.delete(1L, 999L, null))
                 .thenThrow(new CustomException("Музика не належить користувачу з ID 999"));
 
         DeleteMusicDTO deleteDTO = new DeleteMusicDTO();
@@ -2,7 +2,9 @@ package microservices.lab1;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.common.exception.PreconditionFailedException;
 import microservices.lab1.common.exception.GlobalExceptionHandler;
+import microservices.lab1.common.version.CatalogVersion;
 import microservices.lab1.user.controllers.UserController;
 import microservices.lab1.user.dto.CreateUserDTO;
 import microservices.lab1.user.dto.UpdateUserDTO;
@@ -15,6 +17,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
@@ -36,6 +39,9 @@ class UserControllerTest {
     @Mock
     private UserService userService;
 
+    @Mock
+    private CatalogVersion catalogVersion;
+
     @InjectMocks
     private UserController userController;
 
@@ -48,6 +54,7 @@ class UserControllerTest {
 
     @BeforeEach
     void setUp() {
+        lenient().when(catalogVersion.current()).thenReturn(new CatalogVersion.Stamp(1, 1_700_000_000_000L));
         objectMapper = new ObjectMapper();
 
         mockMvc = MockMvcBuilders
@@ -130,7 +137,8 @@ class UserControllerTest {
                 .andExpect(jsonPath("$.id").value(1))
                 .andExpect(jsonPath("$.username").value("testuser"))
                 .andExpect(jsonPath("$.musicIds[0]").value(1))
-                .andExpect(jsonPath("$.videoIds[0]").value(3));
+                .andExpect(jsonPath("$.videoIds[0]").value(3))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"0\""));
 
         verify(userService).findById(1L);
     }
@@ -149,7 +157,7 @@ class UserControllerTest {
     void getAllUsers_Success() throws Exception {
         when(userService.findAll()).thenReturn(List.of(getUserDTO));
 
-        mockMvc.perform(get("/api/users"))
+        mockMvc.perform(get("/api/users").param("all", "true"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$[0].id").value(1))
                 .andExpect(jsonPath("$[0].username").value("testuser"))
@@ -159,9 +167,50 @@ class UserControllerTest {
         verify(userService).findAll();
     }
 
+    @Test
+    void getAllUsers_FullPageLinksToNextPage() throws Exception {
+        when(userService.findPage(5L, 1)).thenReturn(List.of(getUserDTO));
+
+        mockMvc.perform(get("/api/users?after=5&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(1))
+                .andExpect(header().string(HttpHeaders.LINK, "<http://localhost/api/users?limit=1&after=1>; rel=\"next\""));
+
+        verify(userService, never()).findAll();
+    }
+
+    @Test
+    void getAllUsers_LastPageHasNoLink() throws Exception {
+        when(userService.findPage(5L, 2)).thenReturn(List.of(getUserDTO));
+
+        mockMvc.perform(get("/api/users?after=5&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    void getAllUsers_NotModified() throws Exception {
+        mockMvc.perform(get("/api/users").header(HttpHeaders.IF_NONE_MATCH, catalogVersion.current().etag()))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, catalogVersion.current().etag()));
+
+        verify(userService, never()).findAll();
+    }
+
+    @Test
+    void getAllUsers_ModifiedAfterWrite() throws Exception {
+        String etag = catalogVersion.current().etag();
+        when(catalogVersion.current()).thenReturn(new CatalogVersion.Stamp(2, 1_700_000_001_000L));
+        when(userService.findAll()).thenReturn(List.of());
+
+        mockMvc.perform(get("/api/users").param("all", "true").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, catalogVersion.current().etag()));
+    }
+
     @Test
     void updateUser_Success() throws Exception {
-        when(userService.update(any(UpdateUserDTO.class), eq(1L))).thenReturn(getUserDTO);
+        when(userService.update(any(UpdateUserDTO.class), eq(1L), isNull())).thenReturn(getUserDTO);
 
         mockMvc.perform(put("/api/users/1")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -172,19 +221,57 @@ class UserControllerTest {
                 .andExpect(jsonPath("$.musicIds[0]").value(1))
                 .andExpect(jsonPath("$.videoIds[0]").value(3));
 
-        verify(userService).update(any(UpdateUserDTO.class), eq(1L));
+        verify(userService).update(any(UpdateUserDTO.class), eq(1L), isNull());
     }
 
     @Test
     void updateUser_NotFound() throws Exception {
-        when(userService.update(any(UpdateUserDTO.class), eq(999L))).thenReturn(null);
+        when(userService.update(any(UpdateUserDTO.class), eq(999L), isNull())).thenReturn(null);
 
         mockMvc.perform(put("/api/users/999")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(updateUserDTO)))
                 .andExpect(status().isNotFound());
 
-        verify(userService).update(any(UpdateUserDTO.class), eq(999L));
+        verify(userService).update(any(UpdateUserDTO.class), eq(999L), isNull());
+    }
+
+    @Test
+    void updateUser_IfMatchIsPassedAsExpectedVersion() throws Exception {
+        getUserDTO.setVersion(4);
+        when(userService.update(any(UpdateUserDTO.class), eq(1L), eq(3L))).thenReturn(getUserDTO);
+
+        mockMvc.perform(put("/api/users/1")
+                        .header(HttpHeaders.IF_MATCH, "\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updateUserDTO)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+                .andExpect(jsonPath("$.version").value(4));
+    }
+
+    @Test
+    void updateUser_StaleIfMatch_PreconditionFailed() throws Exception {
+        when(userService.update(any(UpdateUserDTO.class), eq(1L), eq(2L)))
+                .thenThrow(new PreconditionFailedException("Запис змінено: очікувана версія 2, поточна 4."));
+
+        mockMvc.perform(put("/api/users/1")
+                        .header(HttpHeaders.IF_MATCH, "\"2\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updateUserDTO)))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("$.status").value(412));
+    }
+
+    @Test
+    void updateUser_WeakIfMatch_PreconditionFailed() throws Exception {
+        mockMvc.perform(put("/api/users/1")
+                        .header(HttpHeaders.IF_MATCH, "W/\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updateUserDTO)))
+                .andExpect(status().isPreconditionFailed());
+
+        verify(userService, never()).update(any(UpdateUserDTO.class), anyLong(), any());
     }
 
     @Test
@@ -210,12 +297,12 @@ class UserControllerTest {
                         "videoIds: Video IDs cannot be empty if provided"
                 )));
 
-        verify(userService, never()).update(any(UpdateUserDTO.class), anyLong());
+        verify(userService, never()).update(any(UpdateUserDTO.class), anyLong(), any());
     }
 
     @Test
     void deleteUser_Success() throws Exception {
-        when(userService.delete(1L, "testuser")).thenReturn(true);
+        when(userService.delete(1L, "testuser", null)).thenReturn(true);
 
         deleteUserDTO.setUsername("testuser");
 
@@ -229,7 +316,7 @@ class UserControllerTest {
 
     @Test
     void deleteUser_NotFound() throws Exception {
-        when(userService.delete(999L, "testuser")).thenReturn(false);
+        when(userService.delete(999L, "testuser", null)).thenReturn(false);
 
         deleteUserDTO.setUsername("testuser");
 
@@ -243,7 +330,7 @@ class UserControllerTest {
 
     @Test
     void deleteUser_AccessDenied() throws Exception {
-        when(userService.delete(1L, "wronguser"))
+        when(userService.delete(1L, "wronguser", null))
                 .thenThrow(new CustomException("Користувач з username wronguser не може видалити цього користувача"));
 
         deleteUserDTO.setUsername("wronguser");
@@ -3,6 +3,9 @@ package microservices.lab1;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import microservices.lab1.common.exception.CustomException;
 import microservices.lab1.common.exception.GlobalExceptionHandler;
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.media.ingest.IngestProgress;
+import microservices.lab1.media.ingest.IngestStatus;
 import microservices.lab1.video.controllers.VideoController;
 import microservices.lab1.video.dto.CreateVideoDTO;
 import microservices.lab1.video.dto.UpdateVideoDTO;
@@ -15,12 +18,16 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
@@ -38,6 +45,9 @@ class VideoControllerTest {
     @Mock
     private VideoService videoService;
 
+    @Mock
+    private CatalogVersion catalogVersion;
+
     @InjectMocks
     private VideoController videoController;
 
@@ -51,6 +61,7 @@ class VideoControllerTest {
 
     @BeforeEach
     void setUp() {
+        lenient().when(catalogVersion.current()).thenReturn(new CatalogVersion.Stamp(1, 1_700_000_000_000L));
         objectMapper = new ObjectMapper();
 
         mockMvc = MockMvcBuilders
@@ -105,6 +116,56 @@ class VideoControllerTest {
         verify(videoService).save(any(CreateVideoDTO.class), any(MockMultipartFile.class));
     }
 
+    @Test
+    void createVideo_WithStoredContentHash_SkipsUpload() throws Exception {
+        String sha256 = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+        when(videoService.saveWithExistingMedia(any(CreateVideoDTO.class), eq(sha256))).thenReturn(getVideoDTO);
+
+        MockMultipartFile videoPart = new MockMultipartFile("video", "", "application/json",
+                objectMapper.writeValueAsString(createVideoDTO).getBytes());
+
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/api/videos")
+                        .file(videoPart)
+                        .param("sha256", sha256))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.title").value("Test Video"));
+
+        verify(videoService, never()).save(any(CreateVideoDTO.class), any(MockMultipartFile.class));
+    }
+
+    @Test
+    void createVideo_FromResumableUpload() throws Exception {
+        when(videoService.saveUpload(any(CreateVideoDTO.class), eq("upload-1"))).thenReturn(getVideoDTO);
+
+        mockMvc.perform(post("/api/videos/uploads/upload-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createVideoDTO)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.title").value("Test Video"));
+    }
+
+    @Test
+    void getVideoStatus_WhileProcessing() throws Exception {
+        when(videoService.findIngestProgress(1L)).thenReturn(new IngestProgress(1L, IngestStatus.PENDING, "verify"));
+
+        mockMvc.perform(get("/api/videos/1/status"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("PENDING"))
+                .andExpect(jsonPath("$.stage").value("verify"));
+    }
+
+    @Test
+    void createVideo_FromUnfinishedUpload() throws Exception {
+        when(videoService.saveUpload(any(CreateVideoDTO.class), eq("upload-1")))
+                .thenThrow(new CustomException("Завантаження upload-1 не завершено: отримано 0 з 9 байтів."));
+
+        mockMvc.perform(post("/api/videos/uploads/upload-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createVideoDTO)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Завантаження upload-1 не завершено: отримано 0 з 9 байтів."));
+    }
+
     @Test
     void createVideo_UserNotFound() throws Exception {
         when(videoService.save(any(CreateVideoDTO.class), any(MockMultipartFile.class)))
@@ -150,11 +211,20 @@ class VideoControllerTest {
         verify(videoService).findById(999L);
     }
 
+    @Test
+    void suggestVideos_ReturnsSuggestionsFromService() throws Exception {
+        when(videoService.suggest("тіні", 10)).thenReturn(List.of("Тіні забутих предків"));
+
+        mockMvc.perform(get("/api/videos/suggest").param("q", "тіні"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0]").value("Тіні забутих предків"));
+    }
+
     @Test
     void getAllVideos_Success() throws Exception {
         when(videoService.findAll()).thenReturn(List.of(getVideoDTO));
 
-        mockMvc.perform(get("/api/videos"))
+        mockMvc.perform(get("/api/videos").param("all", "true"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$[0].id").value(1))
                 .andExpect(jsonPath("$[0].title").value("Test Video"))
@@ -165,9 +235,70 @@ class VideoControllerTest {
         verify(videoService).findAll();
     }
 
+    @Test
+    void getAllVideos_FullPageLinksToNextPage() throws Exception {
+        when(videoService.findPage(5L, 1, "Action", null, null)).thenReturn(List.of(getVideoDTO));
+
+        mockMvc.perform(get("/api/videos?genre=Action&after=5&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(1))
+                .andExpect(header().string(HttpHeaders.LINK, "<http://localhost/api/videos?genre=Action&limit=1&after=1>; rel=\"next\""));
+
+        verify(videoService, never()).findAll();
+    }
+
+    @Test
+    void getAllVideos_LastPageHasNoLink() throws Exception {
+        when(videoService.findPage(5L, 2, "Action", null, null)).thenReturn(List.of(getVideoDTO));
+
+        mockMvc.perform(get("/api/videos?genre=Action&after=5&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    void getAllVideos_NotModified() throws Exception {
+        mockMvc.perform(get("/api/videos").header(HttpHeaders.IF_NONE_MATCH, catalogVersion.current().etag()))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, catalogVersion.current().etag()));
+
+        verify(videoService, never()).findAll();
+    }
+
+    @Test
+    void getAllVideos_ModifiedAfterWrite() throws Exception {
+        String etag = catalogVersion.current().etag();
+        when(catalogVersion.current()).thenReturn(new CatalogVersion.Stamp(2, 1_700_000_001_000L));
+        when(videoService.findAll()).thenReturn(List.of());
+
+        mockMvc.perform(get("/api/videos").param("all", "true").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, catalogVersion.current().etag()));
+    }
+
+    @Test
+    void exportVideo_StreamsNdjson() throws Exception {
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(0);
+            out.write("{\"id\":1}\n{\"id\":2}\n".getBytes(StandardCharsets.UTF_8));
+            return 2L;
+        }).when(videoService).exportAll(any());
+
+        MvcResult result = mockMvc.perform(get("/api/videos/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("{\"id\":1}\n{\"id\":2}\n"));
+
+        verify(videoService, never()).findAll();
+    }
+
     @Test
     void updateVideo_Success() throws Exception {
-        when(videoService.update(eq(1L), any(UpdateVideoDTO.class), any())).thenReturn(getVideoDTO);
+        when(videoService.update(eq(1L), any(UpdateVideoDTO.class), any(), isNull())).thenReturn(getVideoDTO);
 
         MockMultipartFile videoPart = new MockMultipartFile("video", "", "application/json",
                 objectMapper.writeValueAsString(updateVideoDTO).getBytes());
@@ -186,12 +317,12 @@ class VideoControllerTest {
                 .andExpect(jsonPath("$.genre").value("Action"))
                 .andExpect(jsonPath("$.userId").value(1));
 
-        verify(videoService).update(eq(1L), any(UpdateVideoDTO.class), any());
+        verify(videoService).update(eq(1L), any(UpdateVideoDTO.class), any(), isNull());
     }
 
     @Test
     void updateVideo_WithoutFile() throws Exception {
-        when(videoService.update(eq(1L), any(UpdateVideoDTO.class), isNull())).thenReturn(getVideoDTO);
+        when(videoService.update(eq(1L), any(UpdateVideoDTO.class), isNull(), isNull())).thenReturn(getVideoDTO);
 
         MockMultipartFile videoPart = new MockMultipartFile("video", "", "application/json",
                 objectMapper.writeValueAsString(updateVideoDTO).getBytes());
@@ -209,12 +340,12 @@ class VideoControllerTest {
                 .andExpect(jsonPath("$.genre").value("Action"))
                 .andExpect(jsonPath("$.userId").value(1));
 
-        verify(videoService).update(eq(1L), any(UpdateVideoDTO.class), isNull());
+        verify(videoService).update(eq(1L), any(UpdateVideoDTO.class), isNull(), isNull());
     }
 
     @Test
     void updateVideo_NotFound() throws Exception {
-        when(videoService.update(eq(999L), any(UpdateVideoDTO.class), any())).thenReturn(null);
+        when(videoService.update(eq(999L), any(UpdateVideoDTO.class), any(), isNull())).thenReturn(null);
 
         MockMultipartFile videoPart = new MockMultipartFile("video", "", "application/json",
                 objectMapper.writeValueAsString(updateVideoDTO).getBytes());
@@ -228,12 +359,12 @@ class VideoControllerTest {
                         }))
                 .andExpect(status().isNotFound());
 
-        verify(videoService).update(eq(999L), any(UpdateVideoDTO.class), any());
+        verify(videoService).update(eq(999L), any(UpdateVideoDTO.class), any(), isNull());
     }
 
     @Test
     void deleteVideo_Success() throws Exception {
-        when(videoService.delete(1L, 1L)).thenReturn(true);
+        when(videoService.delete(1L, 1L, null)).thenReturn(true);
 
         deleteVideoDTO.setId(1L);
         deleteVideoDTO.setUserId(1L);
@@ -248,7 +379,7 @@ class VideoControllerTest {
 
     @Test
     void deleteVideo_NotFound() throws Exception {
-        when(videoService.delete(999L, 1L)).thenReturn(false);
+        when(videoService.delete(999L, 1L, null)).thenReturn(false);
 
         deleteVideoDTO.setId(999L);
         deleteVideoDTO.setUserId(1L);
@@ -263,7 +394,7 @@ class VideoControllerTest {
 
     @Test
     void deleteVideo_AccessDenied() throws Exception {
-        when(videoService.delete(1L, 999L))
+        when(videoService.delete(1L, 999L, null))
                 .thenThrow(new CustomException("Відео не належить користувачу з ID 999"));
 
         deleteVideoDTO.setId(1L);
@@ -0,0 +1,133 @@
+package microservices.lab1.media;
+
+import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.media.models.MediaObject;
+import microservices.lab1.media.repository.MediaObjectRepository;
+import microservices.lab1.media.storage.ContentStore;
+import microservices.lab1.media.storage.LocalMediaStorage;
+import microservices.lab1.media.storage.MediaFileWriter;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ContentStoreTest {
+
+    private static final String TEST_DATA_SHA256 = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+
+    @TempDir
+    Path mediaDir;
+
+    private MediaObjectRepository repository;
+    private ContentStore store;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(MediaObjectRepository.class);
+        store = new ContentStore(new LocalMediaStorage(new MediaFileWriter(), new String[]{mediaDir.toString()}), repository);
+    }
+
+    @Test
+    void whenSameContentIsUploadedTwice_ThenOneFileIsKeptAndReferencedTwice() throws IOException {
+        MediaMetadata first = store.store(upload("a.mp3", "test data"));
+        MediaMetadata second = store.store(upload("b.mp3", "test data"));
+
+        assertEquals(TEST_DATA_SHA256, first.sha256());
+        assertEquals(mediaDir.resolve("objects/91/6f").resolve(TEST_DATA_SHA256), first.path());
+        assertEquals(first, second);
+        assertEquals(1, countFiles(mediaDir.resolve("objects")));
+        assertEquals(0, countFiles(mediaDir.resolve("incoming")));
+        verify(repository, times(2)).acquire(eq(TEST_DATA_SHA256), eq("audio/mpeg"), eq(9L), any());
+    }
+
+    @Test
+    void whenContentDiffers_ThenEachIsStoredUnderItsHash() throws IOException {
+        MediaMetadata first = store.store(upload("a.mp3", "test data"));
+        MediaMetadata second = store.store(upload("a.mp3", "other data"));
+
+        assertNotEquals(first.path(), second.path());
+        assertEquals("other data", Files.readString(second.path()));
+        assertEquals(2, countFiles(mediaDir.resolve("objects")));
+    }
+
+    @Test
+    void whenHashIsKnown_ThenItCanBeReferencedWithoutUpload() throws IOException {
+        store.store(upload("a.mp3", "test data"));
+        when(repository.findById(TEST_DATA_SHA256)).thenReturn(Optional.of(object(TEST_DATA_SHA256)));
+
+        MediaMetadata media = store.reference(TEST_DATA_SHA256.toUpperCase());
+
+        assertEquals(TEST_DATA_SHA256, media.sha256());
+        assertEquals(9, media.contentLength());
+        verify(repository, times(2)).acquire(eq(TEST_DATA_SHA256), anyString(), anyLong(), any());
+    }
+
+    @Test
+    void whenHashIsUnknownOrItsFileIsMissing_ThenItIsNotFound() {
+        when(repository.findById(TEST_DATA_SHA256)).thenReturn(Optional.of(object(TEST_DATA_SHA256)));
+
+        assertTrue(store.find(TEST_DATA_SHA256).isEmpty());
+        assertTrue(store.find("../../etc/passwd").isEmpty());
+        assertThrows(CustomException.class, () -> store.reference(TEST_DATA_SHA256));
+        verify(repository, never()).acquire(anyString(), anyString(), anyLong(), any());
+    }
+
+    @Test
+    void whenReferenceIsReleased_ThenTheFileIsKept() throws IOException {
+        MediaMetadata media = store.store(upload("a.mp3", "test data"));
+
+        store.release(media.sha256());
+        store.release(null);
+
+        verify(repository).release(eq(TEST_DATA_SHA256), any());
+        assertTrue(Files.exists(media.path()));
+    }
+
+    @Test
+    void whenContentIsReclaimedWhileBeingStored_ThenTheUploadConflicts() throws IOException {
+        MediaMetadata media = store.store(upload("a.mp3", "test data"));
+        doAnswer(invocation -> {
+            Files.deleteIfExists(media.path());
+            return 1;
+        }).when(repository).acquire(anyString(), anyString(), anyLong(), any());
+
+        assertThrows(OptimisticLockingFailureException.class, () -> store.store(upload("b.mp3", "test data")));
+    }
+
+    private static MockMultipartFile upload(String name, String content) {
+        return new MockMultipartFile("file", name, "audio/mpeg", content.getBytes());
+    }
+
+    private static MediaObject object(String sha256) {
+        MediaObject object = new MediaObject();
+        object.setSha256(sha256);
+        object.setContentType("audio/mpeg");
+        object.setContentLength(9L);
+        object.setReferenceCount(1);
+        return object;
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package microservices.lab1.media;
+
+import microservices.lab1.media.ingest.IngestCompleted;
+import microservices.lab1.media.ingest.IngestJob;
+import microservices.lab1.media.ingest.IngestPipeline;
+import microservices.lab1.media.ingest.IngestStage;
+import microservices.lab1.media.ingest.IngestStatus;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestPipelineTest {
+
+    private final BlockingQueue<IngestCompleted> completed = new LinkedBlockingQueue<>();
+
+    @Test
+    void whenJobsRun_ThenEveryStageSeesThemInOrderWithinItsConcurrencyLimit() throws Exception {
+        Stage store = new Stage("store", 2, 1, media -> new MediaMetadata(media.path(), media.contentType(),
+                media.contentLength(), "hash", media.lastModified()));
+        Stage verify = new Stage("verify", 1, 1, media -> media);
+        IngestPipeline pipeline = pipeline(100, 8, store, verify);
+        try {
+            for (long id = 1; id <= 20; id++) {
+                assertTrue(pipeline.submit(job(id)));
+            }
+
+            for (int i = 0; i < 20; i++) {
+                IngestCompleted event = next();
+                assertEquals(IngestStatus.READY, event.status());
+                assertEquals("hash", event.media().sha256());
+            }
+            assertEquals(20, store.calls.get());
+            assertEquals(20, verify.calls.get());
+            assertTrue(store.maxActive.get() <= 2, "store ran " + store.maxActive.get() + " jobs at once");
+            assertEquals(1, verify.maxActive.get());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    @Test
+    void whenStageFailsWithIOException_ThenItIsRetried() throws Exception {
+        AtomicInteger failuresLeft = new AtomicInteger(2);
+        Stage flaky = new Stage("verify", 1, 3, media -> {
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new IOException("Disk busy");
+            }
+            return media;
+        });
+        IngestPipeline pipeline = pipeline(10, 1, flaky);
+        try {
+            pipeline.submit(job(1));
+
+            assertEquals(IngestStatus.READY, next().status());
+            assertEquals(3, flaky.calls.get());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    @Test
+    void whenStageGivesUp_ThenJobFailsWithoutReachingLaterStages() throws Exception {
+        Stage store = new Stage("store", 1, 1, media -> new MediaMetadata(media.path(), media.contentType(),
+                media.contentLength(), "hash", media.lastModified()));
+        Stage broken = new Stage("verify", 1, 3, media -> {
+            throw new IllegalStateException("Hash mismatch");
+        });
+        Stage later = new Stage("publish", 1, 1, media -> media);
+        IngestPipeline pipeline = pipeline(10, 1, store, broken, later);
+        try {
+            pipeline.submit(job(1));
+
+            IngestCompleted event = next();
+            assertEquals(IngestStatus.FAILED, event.status());
+            assertEquals("hash", event.media().sha256());
+            assertEquals(1, broken.calls.get());
+            assertEquals(0, later.calls.get());
+            assertTrue(pipeline.stage(IngestJob.Source.MUSIC, 1).isEmpty());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    @Test
+    void whenRowIsAlreadyQueuedOrQueueIsFull_ThenNoSecondJobIsQueued() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Stage blocked = new Stage("store", 1, 1, media -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return media;
+        });
+        IngestPipeline pipeline = pipeline(1, 1, blocked);
+        try {
+            pipeline.submit(job(1));
+            while (pipeline.stage(IngestJob.Source.MUSIC, 1).filter("store"::equals).isEmpty()) {
+                Thread.sleep(1);
+            }
+            assertTrue(pipeline.submit(job(1)));
+            assertTrue(pipeline.submit(job(2)));
+            assertFalse(pipeline.submit(job(3)));
+            assertEquals("queued", pipeline.stage(IngestJob.Source.MUSIC, 2).orElseThrow());
+
+            release.countDown();
+            assertEquals(1, next().job().id());
+            assertEquals(2, next().job().id());
+            assertNull(completed.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(2, blocked.calls.get());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    private IngestPipeline pipeline(int queueCapacity, int maxInFlight, IngestStage... stages) {
+        IngestPipeline pipeline = new IngestPipeline(List.of(stages), event -> completed.add((IngestCompleted) event),
+                queueCapacity, maxInFlight, Duration.ofMillis(1));
+        pipeline.start();
+        return pipeline;
+    }
+
+    private IngestCompleted next() throws InterruptedException {
+        IngestCompleted event = completed.poll(10, TimeUnit.SECONDS);
+        assertNotNull(event);
+        return event;
+    }
+
+    private static IngestJob job(long id) {
+        MediaMetadata media = new MediaMetadata(Paths.get("incoming", id + ".part"), "audio/mpeg", 9, null, Instant.now());
+        return new IngestJob(IngestJob.Source.MUSIC, id, media, "song.mp3");
+    }
+
+    private interface Step {
+        MediaMetadata apply(MediaMetadata media) throws IOException;
+    }
+
+    private static final class Stage implements IngestStage {
+
+        final String name;
+        final int concurrency;
+        final int attempts;
+        final Step step;
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+
+        Stage(String name, int concurrency, int attempts, Step step) {
+            this.name = name;
+            this.concurrency = concurrency;
+            this.attempts = attempts;
+            this.step = step;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public int concurrency() {
+            return concurrency;
+        }
+
+        @Override
+        public int attempts() {
+            return attempts;
+        }
+
+        @Override
+        public MediaMetadata process(IngestJob job, MediaMetadata media) throws IOException {
+            calls.incrementAndGet();
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(2);
+                return step.apply(media);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return media;
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package microservices.lab1.media;
+
+import microservices.lab1.media.storage.LocalMediaStorage;
+import microservices.lab1.media.storage.MediaFileWriter;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalMediaStorageTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void whenStored_ThenObjectIsNamedByHashInTwoLevelsOfBuckets() throws IOException {
+        LocalMediaStorage storage = storage("a");
+
+        MediaMetadata media = storage.store(upload(0));
+
+        String sha256 = media.sha256();
+        assertEquals(root.resolve("a/objects").resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256),
+                media.path());
+        assertEquals("content 0", Files.readString(media.path()));
+        assertEquals(0, countFiles(root.resolve("a/incoming")));
+    }
+
+    @Test
+    void whenSeveralMountsAreConfigured_ThenObjectsSpreadAcrossThem() throws IOException {
+        LocalMediaStorage storage = storage("a", "b", "c");
+
+        for (int i = 0; i < 90; i++) {
+            MediaMetadata media = storage.store(upload(i));
+            assertEquals(media.path(), storage.find(media.sha256()).orElseThrow());
+        }
+
+        for (String mount : List.of("a", "b", "c")) {
+            long objects = countFiles(root.resolve(mount).resolve("objects"));
+            assertTrue(objects >= 10, mount + " holds " + objects + " objects");
+            assertEquals(0, countFiles(root.resolve(mount).resolve("incoming")));
+        }
+    }
+
+    @Test
+    void whenMountIsAdded_ThenObjectsStayReachableAndAreNotCopiedAgain() throws IOException {
+        LocalMediaStorage before = storage("a");
+        List<MediaMetadata> stored = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            stored.add(before.store(upload(i)));
+        }
+
+        LocalMediaStorage after = storage("a", "b");
+        for (int i = 0; i < 20; i++) {
+            assertEquals(stored.get(i).path(), after.find(stored.get(i).sha256()).orElseThrow());
+            assertEquals(stored.get(i).path(), after.store(upload(i)).path());
+        }
+        assertEquals(0, countFiles(root.resolve("b")));
+    }
+
+    @Test
+    void whenHashIsNotStored_ThenItIsNotFound() {
+        assertTrue(storage("a", "b").find("916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9").isEmpty());
+    }
+
+    private LocalMediaStorage storage(String... mounts) {
+        String[] paths = Stream.of(mounts).map(mount -> root.resolve(mount).toString()).toArray(String[]::new);
+        return new LocalMediaStorage(new MediaFileWriter(), paths);
+    }
+
+    private static MockMultipartFile upload(int i) {
+        return new MockMultipartFile("file", "song" + i + ".mp3", "audio/mpeg", ("content " + i).getBytes());
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
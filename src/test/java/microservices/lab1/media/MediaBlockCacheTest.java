@@ -0,0 +1,180 @@
+package microservices.lab1.media;
+
+import microservices.lab1.media.cache.MediaBlockCache;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaBlockCacheTest {
+
+    private static final int BLOCK = MediaBlockCache.BLOCK_SIZE;
+    private static final int FILE_SIZE = 4 * BLOCK + 1000;
+
+    @TempDir
+    Path tempDir;
+
+    private Path file;
+    private byte[] content;
+    private MediaMetadata media;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 253);
+        }
+        file = Files.write(tempDir.resolve("Trailer_1744669493549.mp4"), content);
+        media = new MediaMetadata(file, "video/mp4", FILE_SIZE, null, Instant.ofEpochMilli(1_744_669_493_549L));
+    }
+
+    @Test
+    void whenRangeSpansBlocks_ThenBytesMatchFile() throws IOException {
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(8));
+
+        byte[] first = copy(cache, BLOCK - 10, 2 * BLOCK + 20);
+        byte[] second = copy(cache, BLOCK - 10, 2 * BLOCK + 20);
+
+        assertArrayEquals(Arrays.copyOfRange(content, BLOCK - 10, 3 * BLOCK + 10), first);
+        assertArrayEquals(first, second);
+        assertEquals(4, cache.missCount());
+        assertEquals(4, cache.hitCount());
+    }
+
+    @Test
+    void whenLastBlockIsShort_ThenTailIsServed() throws IOException {
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(8));
+
+        byte[] tail = copy(cache, FILE_SIZE - 500, 500);
+
+        assertArrayEquals(Arrays.copyOfRange(content, FILE_SIZE - 500, FILE_SIZE), tail);
+    }
+
+    @Test
+    void whenCacheIsFull_ThenLeastRecentlyUsedBlockIsEvicted() throws IOException {
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(2));
+
+        copy(cache, 0, 1);
+        copy(cache, BLOCK, 1);
+        copy(cache, 0, 1);
+        copy(cache, 2L * BLOCK, 1);
+
+        assertEquals(1, cache.evictionCount());
+        assertEquals(2, cache.residentBlocks());
+
+        copy(cache, 0, 1);
+        assertEquals(2, cache.hitCount());
+
+        copy(cache, BLOCK, 1);
+        assertEquals(4, cache.missCount());
+    }
+
+    @Test
+    void whenFileIsReplaced_ThenStaleBlocksAreNotServed() throws IOException {
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(8));
+        copy(cache, 0, 100);
+
+        byte[] replaced = new byte[FILE_SIZE];
+        Arrays.fill(replaced, (byte) 7);
+        Files.write(file, replaced);
+        media = new MediaMetadata(file, "video/mp4", FILE_SIZE, null, Instant.ofEpochMilli(1_744_669_500_000L));
+
+        assertArrayEquals(Arrays.copyOf(replaced, 100), copy(cache, 0, 100));
+    }
+
+    @Test
+    void whenLastBlockOfFileIsEvicted_ThenFileIsForgotten() throws IOException {
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(2));
+        Path other = Files.write(tempDir.resolve("Teaser_1744669493550.mp4"), content);
+        MediaMetadata first = media;
+
+        copy(cache, 0, 1);
+        copy(cache, BLOCK, 1);
+        assertEquals(1, cache.cachedFiles());
+
+        media = new MediaMetadata(other, "video/mp4", FILE_SIZE, null, first.lastModified());
+        copy(cache, 0, 2L * BLOCK);
+
+        assertEquals(2, cache.evictionCount());
+        assertEquals(1, cache.cachedFiles());
+    }
+
+    @Test
+    void whenFileIsEvicted_ThenItsBlocksAreFreed() throws IOException {
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(8));
+        copy(cache, 0, FILE_SIZE);
+        assertEquals(5, cache.residentBlocks());
+
+        cache.evict(file);
+
+        assertEquals(0, cache.residentBlocks());
+        assertEquals(0, cache.cachedFiles());
+        assertArrayEquals(Arrays.copyOf(content, 100), copy(cache, 0, 100));
+        assertEquals(6, cache.missCount());
+    }
+
+    @Test
+    void whenRangeIsRequestedTwice_ThenItIsAdmittedTheSecondTime() throws IOException {
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(8));
+
+        assertFalse(cache.admit(media, BLOCK - 10, 20));
+        assertTrue(cache.admit(media, BLOCK - 10, 20));
+
+        copy(cache, 3L * BLOCK, 20);
+        assertTrue(cache.admit(media, 3L * BLOCK, 20));
+    }
+
+    @Test
+    void whenWholeFileOrLongRangeIsRequested_ThenItIsNeverAdmitted() {
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(8));
+
+        for (int i = 0; i < 2; i++) {
+            assertFalse(cache.admit(media, 0, FILE_SIZE));
+            assertFalse(cache.admit(media, 0, 3L * BLOCK));
+        }
+    }
+
+    @Test
+    void whenCacheHits_ThenNothingIsAllocatedOnTheHeap() throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(8));
+        OutputStream sink = OutputStream.nullOutputStream();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < 4; i++) {
+                cache.copy(media, channel, 0, FILE_SIZE, sink);
+            }
+
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 64; i++) {
+                cache.copy(media, channel, 0, FILE_SIZE, sink);
+            }
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+            assertTrue(allocated < 1024, "Cache hits allocated " + allocated + " bytes on the heap");
+        }
+    }
+
+    private byte[] copy(MediaBlockCache cache, long position, long count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            cache.copy(media, channel, position, count, out);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,162 @@
+package microservices.lab1.media;
+
+import microservices.lab1.media.storage.MediaFileWriter;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaFileWriterTest {
+
+    private static final long LARGE_UPLOAD_SIZE = 300L * 1024 * 1024;
+    private static final long MAX_ALLOCATED_BYTES = 4L * 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private final MediaFileWriter writer = new MediaFileWriter();
+
+    @Test
+    void whenWriteSmallUpload_ThenContentIsCopied() throws IOException {
+        MockMultipartFile file = new MockMultipartFile("file", "test.mp3", "audio/mpeg", "test data".getBytes());
+        Path target = tempDir.resolve("nested").resolve("test.mp3");
+
+        MediaMetadata media = writer.write(file, target);
+
+        assertEquals(9, media.contentLength());
+        assertEquals("916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9", media.sha256());
+        assertEquals("\"916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9\"", media.etag());
+        assertEquals("test data", Files.readString(target));
+    }
+
+    @Test
+    void whenUploadStartsWithId3Tag_ThenContentTypeIsSniffed() throws IOException {
+        byte[] content = {'I', 'D', '3', 4, 0, 0, 0, 0, 0, 0, 1, 2, 3};
+        MockMultipartFile file = new MockMultipartFile("file", "song.bin", "application/octet-stream", content);
+
+        MediaMetadata media = writer.write(file, tempDir.resolve("song.bin"));
+
+        assertEquals("audio/mpeg", media.contentType());
+    }
+
+    @Test
+    void whenSignatureIsUnknown_ThenContentTypeComesFromExtension() throws IOException {
+        MockMultipartFile file = new MockMultipartFile("file", "clip.mp4", "text/plain", "plain".getBytes());
+
+        MediaMetadata media = writer.write(file, tempDir.resolve("clip.mp4"));
+
+        assertEquals("video/mp4", media.contentType());
+    }
+
+    @Test
+    void whenTargetExists_ThenExistingFileIsKept() throws IOException {
+        MockMultipartFile file = new MockMultipartFile("file", "test.mp3", "audio/mpeg", "new data".getBytes());
+        Path target = Files.writeString(tempDir.resolve("test.mp3"), "old data");
+
+        assertThrows(FileAlreadyExistsException.class, () -> writer.write(file, target));
+        assertEquals("old data", Files.readString(target));
+    }
+
+    @Test
+    void whenWriteLargeUpload_ThenHeapAllocationStaysBounded() throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Path target = tempDir.resolve("large.mp4");
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        MediaMetadata media = writer.write(new StreamingOnlyFile(LARGE_UPLOAD_SIZE), target);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertEquals(LARGE_UPLOAD_SIZE, media.contentLength());
+        assertEquals(LARGE_UPLOAD_SIZE, Files.size(target));
+        assertTrue(allocated < MAX_ALLOCATED_BYTES,
+                "Upload of " + LARGE_UPLOAD_SIZE + " bytes allocated " + allocated + " bytes on the heap");
+    }
+
+    /**
+     * Fails the test if it is copied into memory.
+     */
+    private static final class StreamingOnlyFile implements MultipartFile {
+
+        private final long size;
+
+        StreamingOnlyFile(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public String getName() {
+            return "file";
+        }
+
+        @Override
+        public String getOriginalFilename() {
+            return "large.mp4";
+        }
+
+        @Override
+        public String getContentType() {
+            return "video/mp4";
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            throw new UnsupportedOperationException("Upload must not be copied into memory");
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                private long remaining = size;
+
+                @Override
+                public int read() {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    remaining--;
+                    return (int) (remaining & 0x7F);
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    int count = (int) Math.min(len, remaining);
+                    for (int i = 0; i < count; i++) {
+                        b[off + i] = (byte) ((remaining - i) & 0x7F);
+                    }
+                    remaining -= count;
+                    return count;
+                }
+            };
+        }
+
+        @Override
+        public void transferTo(File dest) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
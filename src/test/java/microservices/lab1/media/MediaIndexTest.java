@@ -0,0 +1,115 @@
+package microservices.lab1.media;
+
+import microservices.lab1.media.index.MediaIndex;
+import microservices.lab1.media.storage.MediaMetadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaIndexTest {
+
+    @TempDir
+    Path mediaDir;
+
+    private MediaIndex index;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.writeString(mediaDir.resolve("Test Song_1745779556706.mp3"), "a");
+        Files.writeString(mediaDir.resolve("Test Song_1745779556726.mp3"), "b");
+        Files.writeString(mediaDir.resolve("Test Song Remix_1745779556000.mp3"), "c");
+        Files.writeString(mediaDir.resolve("My Video_1744669493549.mp4"), "d");
+
+        index = new MediaIndex(mediaDir.toString());
+        index.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        index.stop();
+    }
+
+    @Test
+    void whenStarted_ThenExistingFilesAreIndexed() {
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    void whenExactTitleHasSeveralFiles_ThenNewestIsReturned() {
+        Optional<MediaMetadata> media = index.find("Test Song");
+
+        assertTrue(media.isPresent());
+        assertEquals("Test Song_1745779556726.mp3", media.get().fileName());
+        assertEquals("audio/mpeg", media.get().contentType());
+    }
+
+    @Test
+    void whenOnlyPrefixMatches_ThenFirstNameInLexicalOrderIsReturned() {
+        Optional<MediaMetadata> media = index.find("Test");
+
+        assertTrue(media.isPresent());
+        assertEquals("Test Song Remix_1745779556000.mp3", media.get().fileName());
+    }
+
+    @Test
+    void whenTitleIsUnknown_ThenNothingIsReturned() {
+        assertTrue(index.find("Blinding Lights").isEmpty());
+    }
+
+    @Test
+    void whenFileIsRegisteredAndUnregistered_ThenLookupFollows() {
+        Path file = mediaDir.resolve("Blinding Lights_1744729067507.mp3");
+        MediaMetadata media = new MediaMetadata(file, "audio/mpeg", 1, "ab", Instant.EPOCH);
+
+        index.register(media);
+        assertEquals(Optional.of(media), index.find("Blinding Lights"));
+
+        index.unregister(file);
+        assertTrue(index.find("Blinding Lights").isEmpty());
+    }
+
+    @Test
+    void whenRowIsRegisteredUnderItsTitle_ThenItIsFoundByTitleAndIsNewest() {
+        Path object = mediaDir.resolve("objects").resolve("ab");
+        MediaMetadata media = new MediaMetadata(object, "audio/mpeg", 1, "ab", Instant.ofEpochMilli(1745779556800L));
+
+        index.register("Test Song", 7, media);
+        assertEquals(Optional.of(media), index.find("Test Song"));
+
+        index.unregister("Test Song", 7, media.lastModified());
+        assertEquals("Test Song_1745779556726.mp3", index.find("Test Song").orElseThrow().fileName());
+    }
+
+    @Test
+    void whenFileAppearsOnDisk_ThenWatcherIndexesIt() throws Exception {
+        Files.writeString(mediaDir.resolve("Blinding Lights_1744729067507.mp3"), "e");
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (index.find("Blinding Lights").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertTrue(index.find("Blinding Lights").isPresent());
+    }
+
+    @Test
+    void whenRegisteredFileIsModifiedOnDisk_ThenIngestMetadataIsKept() throws Exception {
+        Path file = mediaDir.resolve("Test Song_1745779556726.mp3");
+        MediaMetadata media = new MediaMetadata(file, "audio/mpeg", 1, "ab", Instant.EPOCH);
+        index.register(media);
+
+        Files.writeString(file, "bb");
+        Thread.sleep(500);
+
+        assertEquals(Optional.of(media), index.find("Test Song"));
+    }
+}
@@ -0,0 +1,206 @@
+package microservices.lab1.media;
+
+import microservices.lab1.media.cache.MediaBlockCache;
+import microservices.lab1.media.models.MediaObject;
+import microservices.lab1.media.reclaim.MediaReclaimer;
+import microservices.lab1.media.repository.MediaObjectRepository;
+import microservices.lab1.media.storage.ContentStore;
+import microservices.lab1.media.storage.LocalMediaStorage;
+import microservices.lab1.media.storage.MediaFileWriter;
+import microservices.lab1.media.storage.MediaMetadata;
+import microservices.lab1.media.upload.ResumableUploads;
+import microservices.lab1.media.upload.UploadSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class MediaReclaimerTest {
+
+    private static final Duration GRACE_PERIOD = Duration.ofHours(1);
+
+    @TempDir
+    Path mediaDir;
+
+    private LocalMediaStorage storage;
+    private MediaObjectRepository repository;
+    private ResumableUploads uploads;
+    private MediaBlockCache blockCache;
+    private MediaReclaimer reclaimer;
+
+    @BeforeEach
+    void setUp() {
+        storage = new LocalMediaStorage(new MediaFileWriter(), new String[]{mediaDir.toString()});
+        repository = mock(MediaObjectRepository.class);
+        uploads = new ResumableUploads(storage, DataSize.ofMegabytes(1), Duration.ofHours(1));
+        blockCache = new MediaBlockCache(DataSize.ofMegabytes(4));
+        reclaimer = new MediaReclaimer(new ContentStore(storage, repository), storage, repository, uploads, blockCache,
+                GRACE_PERIOD, 10, 256, 1_000_000);
+    }
+
+    @Test
+    void whenReleasedContentOutlivesGracePeriod_ThenItIsDeleted() throws IOException {
+        MediaMetadata released = storage.store(upload("test data"));
+        MediaMetadata reacquired = storage.store(upload("other data"));
+        MediaObject object = object(released.sha256(), 0);
+        when(repository.findReleasedBefore(any(), any())).thenReturn(List.of(released.sha256(), reacquired.sha256()));
+        when(repository.lockUnreferenced(released.sha256())).thenReturn(Optional.of(object));
+
+        assertEquals(1, reclaimer.reclaim());
+
+        assertFalse(Files.exists(released.path()));
+        assertTrue(Files.exists(reacquired.path()));
+        verify(repository).delete(object);
+    }
+
+    @Test
+    void whenStoredFileHasNoRow_ThenItIsDeletedOnceItIsOlderThanGracePeriod() throws IOException {
+        MediaMetadata orphan = storage.store(upload("test data"));
+        MediaMetadata fresh = storage.store(upload("other data"));
+        MediaMetadata referenced = storage.store(upload("more data"));
+        age(orphan.path());
+        age(referenced.path());
+        when(repository.findAllById(any())).thenReturn(List.of(object(referenced.sha256(), 1)));
+        when(repository.lockUnreferenced(any())).thenReturn(Optional.of(new MediaObject()));
+
+        assertEquals(1, reclaimer.reclaim());
+
+        assertFalse(Files.exists(orphan.path()));
+        assertTrue(Files.exists(fresh.path()));
+        assertTrue(Files.exists(referenced.path()));
+        verify(repository).adopt(eq(orphan.sha256()), any());
+    }
+
+    @Test
+    void whenLegacyFileHasNoRow_ThenItIsDeletedOnceItIsOlderThanGracePeriod() throws IOException {
+        Path orphan = Files.writeString(mediaDir.resolve("Test Song_1745778971451.mp3"), "test data");
+        Path referenced = Files.writeString(mediaDir.resolve("Blinding Lights_1744729067507.mp3"), "other data");
+        Path fresh = Files.writeString(mediaDir.resolve("Updated Song_1745779556684.mp3"), "more data");
+        age(orphan);
+        age(referenced);
+        when(repository.findCatalogPaths(any())).thenReturn(List.of(referenced.toString()));
+
+        assertEquals(1, reclaimer.reclaim());
+
+        assertFalse(Files.exists(orphan));
+        assertTrue(Files.exists(referenced));
+        assertTrue(Files.exists(fresh));
+        verify(repository).countCatalogPaths(orphan.toString());
+        verify(repository, never()).countCatalogPaths(referenced.toString());
+    }
+
+    @Test
+    void whenReceivedFileIsAbandoned_ThenItIsDeletedUnlessAnUploadOrRowUsesIt() throws IOException {
+        Path abandoned = storage.temporary();
+        Files.writeString(abandoned, "test data");
+        Path pending = storage.temporary();
+        Files.writeString(pending, "other data");
+        UploadSession session = uploads.create(9, "song.mp3");
+        Path state = session.file().resolveSibling(session.id() + ".session");
+        for (Path file : List.of(abandoned, pending, session.file(), state)) {
+            age(file);
+        }
+        when(repository.countCatalogPaths(pending.toString())).thenReturn(1L);
+
+        assertEquals(1, reclaimer.reclaim());
+
+        assertFalse(Files.exists(abandoned));
+        assertTrue(Files.exists(pending));
+        assertTrue(Files.exists(session.file()));
+        assertTrue(Files.exists(state));
+    }
+
+    @Test
+    void whenRowStopsUsingFile_ThenItIsDiscardedAtOnceUnlessShared() throws IOException {
+        Path legacy = Files.writeString(mediaDir.resolve("Test Song_123456789.mp3"), "test data");
+        MediaMetadata unshared = storage.store(upload("test data"));
+        MediaMetadata shared = storage.store(upload("other data"));
+        when(repository.lockUnreferenced(unshared.sha256())).thenReturn(Optional.of(new MediaObject()));
+        when(repository.lockUnreferenced(shared.sha256())).thenReturn(Optional.of(new MediaObject()));
+        when(repository.countCatalogReferences(shared.sha256())).thenReturn(1L);
+
+        assertTrue(reclaimer.discard(null, legacy.toString()));
+        assertTrue(reclaimer.discard(unshared.sha256(), unshared.path().toString()));
+        assertFalse(reclaimer.discard(shared.sha256(), shared.path().toString()));
+
+        assertFalse(Files.exists(legacy));
+        assertFalse(Files.exists(unshared.path()));
+        assertTrue(Files.exists(shared.path()));
+    }
+
+    @Test
+    void whenHashedFileIsOutsideObjectStorage_ThenItIsDeletedByPath() throws IOException {
+        Path legacy = Files.writeString(mediaDir.resolve("Test Song_123456789.mp3"), "test data");
+        Path shared = Files.writeString(mediaDir.resolve("Test Song_987654321.mp3"), "test data");
+        String sha256 = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+        when(repository.lockUnreferenced(sha256)).thenReturn(Optional.of(new MediaObject()));
+        when(repository.countCatalogPaths(shared.toString())).thenReturn(1L);
+
+        assertTrue(reclaimer.discard(sha256, legacy.toString()));
+        assertFalse(reclaimer.discard(sha256, shared.toString()));
+
+        assertFalse(Files.exists(legacy));
+        assertTrue(Files.exists(shared));
+    }
+
+    @Test
+    void whenObjectFileIsAlreadyGone_ThenReclaimReportsNothingDeleted() throws IOException {
+        MediaMetadata stored = storage.store(upload("test data"));
+        Files.delete(stored.path());
+        MediaObject object = object(stored.sha256(), 0);
+        when(repository.findReleasedBefore(any(), any())).thenReturn(List.of(stored.sha256()));
+        when(repository.lockUnreferenced(stored.sha256())).thenReturn(Optional.of(object));
+
+        assertEquals(0, reclaimer.reclaim());
+
+        verify(repository).delete(object);
+    }
+
+    @Test
+    void whenFileIsDeleted_ThenItsCachedBlocksAreDropped() throws IOException {
+        MediaMetadata stored = storage.store(upload("test data"));
+        when(repository.lockUnreferenced(stored.sha256())).thenReturn(Optional.of(new MediaObject()));
+        try (FileChannel channel = FileChannel.open(stored.path(), StandardOpenOption.READ)) {
+            blockCache.copy(stored, channel, 0, stored.contentLength(), OutputStream.nullOutputStream());
+        }
+        assertEquals(1, blockCache.cachedFiles());
+
+        assertTrue(reclaimer.discard(stored.sha256(), stored.path().toString()));
+
+        assertEquals(0, blockCache.cachedFiles());
+        assertEquals(0, blockCache.residentBlocks());
+    }
+
+    private static void age(Path file) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(GRACE_PERIOD).minusSeconds(60)));
+    }
+
+    private static MediaObject object(String sha256, long referenceCount) {
+        MediaObject object = new MediaObject();
+        object.setSha256(sha256);
+        object.setReferenceCount(referenceCount);
+        return object;
+    }
+
+    private static MockMultipartFile upload(String content) {
+        return new MockMultipartFile("file", "song.mp3", "audio/mpeg", content.getBytes());
+    }
+}
@@ -0,0 +1,314 @@
+package microservices.lab1.media;
+
+import microservices.lab1.media.cache.MediaBlockCache;
+import microservices.lab1.media.storage.MediaMetadata;
+import microservices.lab1.media.streaming.MediaStreamer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaStreamerTest {
+
+    private static final int FILE_SIZE = 8 * 1024 * 1024;
+    private static final int SEEK_OFFSET = 7 * 1024 * 1024;
+    private static final long LAST_MODIFIED = 1_745_779_556_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private final MediaStreamer streamer = new MediaStreamer(true, new MediaBlockCache(DataSize.ofBytes(0)));
+
+    private Path file;
+    private byte[] content;
+    private MediaMetadata media;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        file = Files.write(tempDir.resolve("Test Song_1745779556706.mp3"), content);
+        media = new MediaMetadata(file, "audio/mpeg", FILE_SIZE, "c0ffee", Instant.ofEpochMilli(LAST_MODIFIED));
+    }
+
+    @Test
+    void whenNoRange_ThenWholeFileIsServed() throws IOException {
+        MockHttpServletResponse response = stream(new MockHttpServletRequest("GET", "/media/stream/Test Song"));
+
+        assertEquals(200, response.getStatus());
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(FILE_SIZE, response.getContentLengthLong());
+        assertArrayEquals(content, response.getContentAsByteArray());
+    }
+
+    @Test
+    void whenStreaming_ThenValidatorsComeFromMetadata() throws IOException {
+        MockHttpServletResponse response = stream(new MockHttpServletRequest("HEAD", "/media/stream/Test Song"));
+
+        assertEquals("audio/mpeg", response.getContentType());
+        assertEquals("\"c0ffee\"", response.getHeader(HttpHeaders.ETAG));
+        assertEquals(LAST_MODIFIED, response.getDateHeader(HttpHeaders.LAST_MODIFIED));
+    }
+
+    @Test
+    void whenIfNoneMatchIsCurrent_ThenRespondWith304() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"c0ffee\"");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(304, response.getStatus());
+        assertEquals("\"c0ffee\"", response.getHeader(HttpHeaders.ETAG));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenIfNoneMatchIsStale_ThenWholeFileIsServed() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"deadbeef\"");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(200, response.getStatus());
+        assertEquals(FILE_SIZE, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenIfModifiedSinceIsCurrent_ThenRespondWith304() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED);
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenSeekingNearEnd_ThenOnlyRequestedBytesAreServed() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.RANGE, "bytes=" + SEEK_OFFSET + "-");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes " + SEEK_OFFSET + "-" + (FILE_SIZE - 1) + "/" + FILE_SIZE,
+                response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(FILE_SIZE - SEEK_OFFSET, response.getContentAsByteArray().length);
+        assertArrayEquals(Arrays.copyOfRange(content, SEEK_OFFSET, FILE_SIZE), response.getContentAsByteArray());
+    }
+
+    @Test
+    void whenSuffixRange_ThenLastBytesAreServed() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.RANGE, "bytes=-500");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals(500, response.getContentLengthLong());
+        assertArrayEquals(Arrays.copyOfRange(content, FILE_SIZE - 500, FILE_SIZE), response.getContentAsByteArray());
+    }
+
+    @Test
+    void whenSeveralRanges_ThenMultipartByterangesIsServed() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9,100-109");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String body = new String(response.getContentAsByteArray(), StandardCharsets.ISO_8859_1);
+        assertTrue(body.contains("Content-Range: bytes 0-9/" + FILE_SIZE));
+        assertTrue(body.contains("Content-Range: bytes 100-109/" + FILE_SIZE));
+        assertEquals(response.getContentLengthLong(), response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenRangesOverlapOrTouch_ThenEachByteIsServedOnce() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-109,0-9,5-19,20-29");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(206, response.getStatus());
+        String body = new String(response.getContentAsByteArray(), StandardCharsets.ISO_8859_1);
+        assertTrue(body.contains("Content-Range: bytes 0-29/" + FILE_SIZE));
+        assertTrue(body.contains("Content-Range: bytes 100-109/" + FILE_SIZE));
+        assertEquals(2, body.split("Content-Range: ").length - 1);
+        assertEquals(response.getContentLengthLong(), response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenRangesCoverWholeFile_ThenItIsServedOnceWith200() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-,0-,0-,0-");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(FILE_SIZE, response.getContentLengthLong());
+        assertArrayEquals(content, response.getContentAsByteArray());
+    }
+
+    @Test
+    void whenIfRangeIsStale_ThenWholeFileIsServed() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, "Thu, 01 Jan 2015 00:00:00 GMT");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(200, response.getStatus());
+        assertEquals(FILE_SIZE, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenIfRangeMatchesLastModified_ThenRangeIsServed() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, LAST_MODIFIED);
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals(10, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenIfRangeMatchesEtag_ThenRangeIsServed() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"c0ffee\"");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals(10, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenRangeIsUnsatisfiable_ThenRespondWith416() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.addHeader(HttpHeaders.RANGE, "bytes=" + FILE_SIZE + "-");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */" + FILE_SIZE, response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenHeadRequest_ThenNoBodyIsWritten() throws IOException {
+        MockHttpServletResponse response = stream(new MockHttpServletRequest("HEAD", "/media/stream/Test Song"));
+
+        assertEquals(200, response.getStatus());
+        assertEquals(FILE_SIZE, response.getContentLengthLong());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenSendfileIsSupported_ThenRangeIsHandedToContainer() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=" + SEEK_OFFSET + "-");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals(FILE_SIZE - SEEK_OFFSET, response.getContentLengthLong());
+        assertEquals(file.toAbsolutePath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals((long) SEEK_OFFSET, request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals((long) FILE_SIZE, request.getAttribute("org.apache.tomcat.sendfile.end"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenZeroCopyIsDisabled_ThenBytesAreCopiedFromFileChannel() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        new MediaStreamer(false, new MediaBlockCache(DataSize.ofBytes(0))).stream(media, request, response);
+
+        assertNull(request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertArrayEquals(content, response.getContentAsByteArray());
+    }
+
+    @Test
+    void whenSeveralRangesAndSendfileIsSupported_ThenMultipartIsStillWritten() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9,100-109");
+
+        MockHttpServletResponse response = stream(request);
+
+        assertNull(request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(response.getContentLengthLong(), response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void whenRangeIsRepeated_ThenItIsServedFromCachedBlocks() throws IOException {
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(16));
+        MediaStreamer cachedStreamer = new MediaStreamer(true, cache);
+
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+            request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+            request.addHeader(HttpHeaders.RANGE, "bytes=" + SEEK_OFFSET + "-");
+            MockHttpServletResponse response = new MockHttpServletResponse();
+
+            cachedStreamer.stream(media, request, response);
+
+            assertEquals(206, response.getStatus());
+            if (i == 0) {
+                assertEquals(file.toAbsolutePath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+            } else {
+                assertNull(request.getAttribute("org.apache.tomcat.sendfile.filename"));
+                assertArrayEquals(Arrays.copyOfRange(content, SEEK_OFFSET, FILE_SIZE), response.getContentAsByteArray());
+            }
+        }
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    void whenBlockCacheIsEnabled_ThenWholeFileStillUsesSendfile() throws IOException {
+        MediaBlockCache cache = new MediaBlockCache(DataSize.ofMegabytes(16));
+        MediaStreamer cachedStreamer = new MediaStreamer(true, cache);
+
+        for (int i = 0; i < 2; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/stream/Test Song");
+            request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+
+            cachedStreamer.stream(media, request, new MockHttpServletResponse());
+
+            assertEquals(file.toAbsolutePath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        }
+        assertEquals(0, cache.missCount());
+    }
+
+    private MockHttpServletResponse stream(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        streamer.stream(media, request, response);
+        return response;
+    }
+}
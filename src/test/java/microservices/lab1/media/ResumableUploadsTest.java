@@ -0,0 +1,203 @@
+package microservices.lab1.media;
+
+import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.media.storage.LocalMediaStorage;
+import microservices.lab1.media.storage.MediaFileWriter;
+import microservices.lab1.media.storage.MediaMetadata;
+import microservices.lab1.media.upload.ResumableUploads;
+import microservices.lab1.media.upload.UploadSession;
+import microservices.lab1.media.upload.UploadStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResumableUploadsTest {
+
+    private static final int PIECE_SIZE = 1000;
+
+    @TempDir
+    Path mediaDir;
+
+    private LocalMediaStorage storage;
+    private ResumableUploads uploads;
+
+    @BeforeEach
+    void setUp() {
+        storage = new LocalMediaStorage(new MediaFileWriter(), new String[]{mediaDir.toString()});
+        uploads = new ResumableUploads(storage, DataSize.ofMegabytes(1), Duration.ofHours(1));
+    }
+
+    @Test
+    void whenPiecesArriveInParallelAndOutOfOrder_ThenTheFileIsAssembled() throws Exception {
+        byte[] content = content(10 * PIECE_SIZE + 17);
+        UploadSession session = uploads.create(content.length, "movie.mp4");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> pieces = new ArrayList<>();
+            for (int start = content.length / PIECE_SIZE * PIECE_SIZE; start >= 0; start -= PIECE_SIZE) {
+                int from = start;
+                pieces.add(executor.submit(() -> {
+                    uploads.write(session, from, piece(content, from, from + PIECE_SIZE));
+                    return null;
+                }));
+            }
+            for (Future<?> piece : pieces) {
+                piece.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(content.length, session.offset());
+        assertEquals(List.of(new UploadStatus.Range(0, content.length)), session.status().received());
+
+        UploadSession finished = uploads.complete(session.id());
+        MediaMetadata media = storage.store(finished.file(), finished.fileName());
+
+        assertArrayEquals(content, Files.readAllBytes(media.path()));
+        assertEquals(content.length, media.contentLength());
+        assertTrue(uploads.find(session.id()).isEmpty());
+        assertEquals(0, countFiles(mediaDir.resolve("incoming")));
+    }
+
+    @Test
+    void whenPieceBreaksOff_ThenTheUploadResumesFromWhatArrived() throws IOException {
+        byte[] content = content(3 * PIECE_SIZE);
+        UploadSession session = uploads.create(content.length, "song.mp3");
+
+        uploads.write(session, 0, piece(content, 0, PIECE_SIZE));
+        assertThrows(IOException.class, () -> uploads.write(session, PIECE_SIZE, brokenOff(content, PIECE_SIZE, 400)));
+        uploads.write(session, 2 * PIECE_SIZE, piece(content, 2 * PIECE_SIZE, 3 * PIECE_SIZE));
+
+        assertEquals(PIECE_SIZE + 400, session.offset());
+        assertEquals(List.of(new UploadStatus.Range(0, PIECE_SIZE + 400), new UploadStatus.Range(2 * PIECE_SIZE, 3 * PIECE_SIZE)),
+                session.status().received());
+        assertThrows(CustomException.class, () -> uploads.complete(session.id()));
+        assertThrows(CustomException.class, () -> uploads.findComplete(session.id()));
+
+        uploads.write(session, session.offset(), piece(content, (int) session.offset(), 2 * PIECE_SIZE));
+        assertSame(session, uploads.findComplete(session.id()));
+        assertTrue(uploads.find(session.id()).isPresent());
+        UploadSession finished = uploads.complete(session.id());
+
+        assertArrayEquals(content, Files.readAllBytes(finished.file()));
+    }
+
+    @Test
+    void whenInstanceRestarts_ThenTheUploadCarriesOnFromWhatArrived() throws IOException {
+        byte[] content = content(3 * PIECE_SIZE);
+        UploadSession session = uploads.create(content.length, "song.mp3");
+        uploads.write(session, 0, piece(content, 0, PIECE_SIZE));
+        uploads.write(session, 2 * PIECE_SIZE, piece(content, 2 * PIECE_SIZE, 3 * PIECE_SIZE));
+
+        uploads.close();
+        assertTrue(Files.exists(session.file()));
+        ResumableUploads restarted = new ResumableUploads(storage, DataSize.ofMegabytes(1), Duration.ofHours(1));
+        restarted.load();
+
+        UploadSession resumed = restarted.find(session.id()).orElseThrow();
+        assertEquals("song.mp3", resumed.fileName());
+        assertEquals(session.status().received(), resumed.status().received());
+        assertTrue(restarted.holds(session.file()));
+
+        restarted.write(resumed, PIECE_SIZE, piece(content, PIECE_SIZE, 2 * PIECE_SIZE));
+        UploadSession finished = restarted.complete(session.id());
+
+        assertArrayEquals(content, Files.readAllBytes(finished.file()));
+        assertEquals(1, countFiles(mediaDir.resolve("incoming")));
+    }
+
+    @Test
+    void whenSessionWasStartedByAnotherInstance_ThenItIsFoundOnDisk() throws IOException {
+        ResumableUploads other = new ResumableUploads(storage, DataSize.ofMegabytes(1), Duration.ofHours(1));
+        byte[] content = content(2 * PIECE_SIZE);
+        UploadSession session = other.create(content.length, "movie.mp4");
+        other.write(session, 0, piece(content, 0, PIECE_SIZE));
+        other.close();
+
+        UploadSession found = uploads.find(session.id()).orElseThrow();
+
+        assertEquals(PIECE_SIZE, found.offset());
+        assertTrue(uploads.find("../" + session.id()).isEmpty());
+        assertTrue(uploads.find(UUID.randomUUID().toString()).isEmpty());
+    }
+
+    @Test
+    void whenPieceGoesPastTheEnd_ThenItIsRejected() throws IOException {
+        UploadSession session = uploads.create(PIECE_SIZE, "song.mp3");
+
+        assertThrows(CustomException.class, () -> uploads.write(session, 0, piece(content(PIECE_SIZE + 1), 0, PIECE_SIZE + 1)));
+        assertThrows(CustomException.class, () -> uploads.write(session, PIECE_SIZE + 1, piece(content(1), 0, 1)));
+        assertThrows(CustomException.class, () -> uploads.create(DataSize.ofMegabytes(2).toBytes(), "movie.mp4"));
+        assertThrows(CustomException.class, () -> uploads.create(0, "movie.mp4"));
+    }
+
+    @Test
+    void whenSessionExpiresOrIsCancelled_ThenItsFileIsDeleted() throws IOException {
+        ResumableUploads expiring = new ResumableUploads(storage, DataSize.ofMegabytes(1), Duration.ZERO);
+        UploadSession abandoned = expiring.create(PIECE_SIZE, "movie.mp4");
+        UploadSession cancelled = uploads.create(PIECE_SIZE, "movie.mp4");
+        assertEquals(PIECE_SIZE, Files.size(abandoned.file()));
+
+        expiring.expire();
+        assertTrue(uploads.cancel(cancelled.id()));
+
+        assertTrue(expiring.find(abandoned.id()).isEmpty());
+        assertFalse(uploads.cancel(cancelled.id()));
+        assertEquals(0, countFiles(mediaDir.resolve("incoming")));
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+
+    private static InputStream piece(byte[] content, int from, int to) {
+        return new ByteArrayInputStream(Arrays.copyOfRange(content, from, Math.min(to, content.length)));
+    }
+
+    private static InputStream brokenOff(byte[] content, int from, int length) {
+        return new InputStream() {
+            private int position = from;
+
+            @Override
+            public int read() throws IOException {
+                if (position == from + length) {
+                    throw new IOException("Connection reset");
+                }
+                return content[position++] & 0xFF;
+            }
+        };
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
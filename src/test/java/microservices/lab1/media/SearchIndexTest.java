@@ -0,0 +1,177 @@
+package microservices.lab1.media;
+
+import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.media.search.SearchDocument;
+import microservices.lab1.media.search.SearchHit;
+import microservices.lab1.media.search.SearchIndex;
+import microservices.lab1.media.search.SearchPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+
+    private static final Set<SearchHit.Type> ALL = EnumSet.allOf(SearchHit.Type.class);
+
+    private SearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new SearchIndex();
+        index.put(SearchHit.Type.MUSIC, new SearchDocument(1, "Halo", "Beyoncé", "Pop"));
+        index.put(SearchHit.Type.MUSIC, new SearchDocument(2, "Crazy in Love", "Beyoncé", "R&B"));
+        index.put(SearchHit.Type.MUSIC, new SearchDocument(3, "Halo Theme", "Martin O'Donnell", "Soundtrack"));
+        index.put(SearchHit.Type.VIDEO, new SearchDocument(1, "Halo Legends", "Hiroshi Yamazaki", "Anime"));
+        index.put(SearchHit.Type.VIDEO, new SearchDocument(2, "Beyonce: Live", "Ed Burke", "Pop"));
+    }
+
+    @Test
+    void whenTermIsInTitle_ThenItRanksAboveArtistAndGenre() {
+        SearchPage page = index.search("pop beyonce", ALL, 0, 10);
+
+        assertEquals(2, page.total());
+        assertEquals(List.of(SearchHit.Type.VIDEO, SearchHit.Type.MUSIC),
+                page.hits().stream().map(SearchHit::type).toList());
+        assertTrue(page.hits().get(0).score() > page.hits().get(1).score());
+    }
+
+    @Test
+    void whenQueryHasSeveralTerms_ThenOnlyDocumentsWithAllOfThemMatch() {
+        SearchPage page = index.search("halo theme", ALL, 0, 10);
+
+        assertEquals(1, page.total());
+        assertEquals(3, page.hits().get(0).id());
+    }
+
+    @Test
+    void whenQueryHasAccentsOrCapitals_ThenTheyAreIgnored() {
+        assertEquals(2, index.search("BEYONCÉ", Set.of(SearchHit.Type.MUSIC), 0, 10).total());
+    }
+
+    @Test
+    void whenTypeIsGiven_ThenOtherCatalogsAreSkipped() {
+        SearchPage page = index.search("halo", Set.of(SearchHit.Type.VIDEO), 0, 10);
+
+        assertEquals(1, page.total());
+        assertEquals("Halo Legends", page.hits().get(0).title());
+    }
+
+    @Test
+    void whenPaging_ThenPagesFollowTheRanking() {
+        List<SearchHit> all = index.search("halo", ALL, 0, 10).hits();
+
+        SearchPage second = index.search("halo", ALL, 1, 1);
+
+        assertEquals(3, second.total());
+        assertEquals(List.of(all.get(1)), second.hits());
+        assertTrue(index.search("halo", ALL, 3, 10).hits().isEmpty());
+    }
+
+    @Test
+    void whenDocumentIsUpdated_ThenOldTermsNoLongerMatch() {
+        index.put(SearchHit.Type.MUSIC, new SearchDocument(1, "Single Ladies", "Beyoncé", "Pop"));
+
+        assertEquals(2, index.search("halo", ALL, 0, 10).total());
+        assertEquals(1, index.search("ladies", ALL, 0, 10).hits().get(0).id());
+    }
+
+    @Test
+    void whenDocumentIsRemoved_ThenItIsNotFound() {
+        index.remove(SearchHit.Type.MUSIC, 2);
+
+        assertEquals(0, index.search("crazy", ALL, 0, 10).total());
+        assertEquals(2, index.size(SearchHit.Type.MUSIC));
+    }
+
+    @Test
+    void whenRebuilt_ThenContentIsReplaced() {
+        int size = index.rebuild(SearchHit.Type.MUSIC, () -> Stream.of(new SearchDocument(7, "Yesterday", "The Beatles", "Rock")));
+
+        assertEquals(1, size);
+        assertEquals(0, index.search("crazy", Set.of(SearchHit.Type.MUSIC), 0, 10).total());
+        assertEquals(1, index.search("halo", ALL, 0, 10).total());
+    }
+
+    @Test
+    void whenWrittenDuringRebuild_ThenTheWriteWinsOverTheLoadedRow() {
+        Stream<SearchDocument> rows = Stream.of(
+                new SearchDocument(1, "Halo", "Beyoncé", "Pop"),
+                new SearchDocument(2, "Crazy in Love", "Beyoncé", "R&B"));
+
+        index.rebuild(SearchHit.Type.MUSIC, () -> rows.peek(row -> {
+            if (row.id() == 1) {
+                index.put(SearchHit.Type.MUSIC, new SearchDocument(2, "Drunk in Love", "Beyoncé", "R&B"));
+            }
+        }));
+
+        assertEquals(0, index.search("crazy", ALL, 0, 10).total());
+        assertEquals(2, index.search("drunk", ALL, 0, 10).hits().get(0).id());
+    }
+
+    @Test
+    void whenWrittenAfterTheRowsWereQueried_ThenTheWriteSurvivesTheSwap() {
+        index.rebuild(SearchHit.Type.MUSIC, () -> {
+            Stream<SearchDocument> rows = Stream.of(new SearchDocument(1, "Halo", "Beyoncé", "Pop"));
+            index.put(SearchHit.Type.MUSIC, new SearchDocument(5, "Single Ladies", "Beyoncé", "Pop"));
+            return rows;
+        });
+
+        assertEquals(1, index.search("ladies", ALL, 0, 10).total());
+        assertEquals(2, index.size(SearchHit.Type.MUSIC));
+    }
+
+    @Test
+    void whenPrefixIsTyped_ThenTitlesAndNamesStartingWithItAreSuggested() {
+        assertEquals(List.of("Halo", "Halo Theme"), index.suggest(SearchHit.Type.MUSIC, "Hal", 10));
+        assertEquals(List.of("Crazy in Love"), index.suggest(SearchHit.Type.MUSIC, "lov", 10));
+        assertEquals(List.of("Beyoncé"), index.suggest(SearchHit.Type.MUSIC, "BEYONCE", 10));
+        assertEquals(List.of("Halo Legends"), index.suggest(SearchHit.Type.VIDEO, "hal", 10));
+    }
+
+    @Test
+    void whenTextIsUkrainian_ThenCaseAndDiacriticsAreFolded() {
+        index.put(SearchHit.Type.MUSIC, new SearchDocument(4, "Їхали козаки", "Хор імені Верьовки", "Folk"));
+
+        assertEquals(List.of("Їхали козаки"), index.suggest(SearchHit.Type.MUSIC, "іх", 10));
+        assertEquals(List.of("Хор імені Верьовки"), index.suggest(SearchHit.Type.MUSIC, "ВЕРЬОВ", 10));
+    }
+
+    @Test
+    void whenTextIsShared_ThenMoreCommonSuggestionsComeFirst() {
+        index.put(SearchHit.Type.MUSIC, new SearchDocument(4, "Halo Theme", "Martin O'Donnell", "Soundtrack"));
+
+        assertEquals(List.of("Halo Theme", "Halo"), index.suggest(SearchHit.Type.MUSIC, "halo", 10));
+        assertEquals(List.of("Halo Theme"), index.suggest(SearchHit.Type.MUSIC, "halo", 1));
+    }
+
+    @Test
+    void whenDocumentIsRemoved_ThenItsSuggestionsAreDroppedOnceUnused() {
+        index.remove(SearchHit.Type.MUSIC, 2);
+
+        assertTrue(index.suggest(SearchHit.Type.MUSIC, "craz", 10).isEmpty());
+        assertEquals(List.of("Beyoncé"), index.suggest(SearchHit.Type.MUSIC, "bey", 10));
+    }
+
+    @Test
+    void whenRebuilt_ThenSuggestionsComeFromTheLoadedRows() {
+        index.rebuild(SearchHit.Type.MUSIC, () -> Stream.of(
+                new SearchDocument(7, "Yesterday", "The Beatles", "Rock"),
+                new SearchDocument(8, "Yellow Submarine", "The Beatles", "Rock")));
+
+        assertEquals(List.of("Yellow Submarine", "Yesterday"), index.suggest(SearchHit.Type.MUSIC, "ye", 10));
+        assertEquals(List.of("The Beatles"), index.suggest(SearchHit.Type.MUSIC, "beat", 10));
+        assertTrue(index.suggest(SearchHit.Type.MUSIC, "halo", 10).isEmpty());
+    }
+
+    @Test
+    void whenQueryHasNoTerms_ThenItIsRejected() {
+        assertThrows(CustomException.class, () -> index.search(" - ", ALL, 0, 10));
+        assertThrows(CustomException.class, () -> index.search("halo", ALL, SearchIndex.MAX_WINDOW, 10));
+    }
+}
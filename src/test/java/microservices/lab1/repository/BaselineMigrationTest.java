@@ -0,0 +1,100 @@
+package microservices.lab1.repository;
+
+import microservices.lab1.media.ingest.IngestStatus;
+import microservices.lab1.music.models.Music;
+import microservices.lab1.music.repository.MusicRepository;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Baselines the schema ddl-auto generated for the original entities and migrates it.
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:baseline;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=validate"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class BaselineMigrationTest {
+
+    private static final List<String> GENERATED_SCHEMA = List.of(
+            "create table music (id bigint not null auto_increment, artist varchar(255), genre varchar(255), "
+                    + "path varchar(255), title longtext, user_id bigint, primary key (id))",
+            "create table user (id bigint not null auto_increment, password varchar(255), username varchar(255), "
+                    + "primary key (id))",
+            "create table video (id bigint not null auto_increment, director varchar(255), genre varchar(255), "
+                    + "path varchar(255), title varchar(255), user_id bigint, primary key (id))",
+            "alter table music add constraint FKqmj4ppdi4yfr0ql2p2ajb8v6y foreign key (user_id) references user (id)",
+            "alter table video add constraint FK4m3w7ia1xkqcuvrt1ttt9gfqe foreign key (user_id) references user (id)",
+            "insert into user (username, password) values ('alice', 'secret')",
+            "insert into music (title, artist, genre, path, user_id) "
+                    + "values ('Blinding Lights', 'The Weeknd', 'Pop', 'media/Blinding Lights_1744729067507.mp3', 1)",
+            "insert into video (title, director, genre, path, user_id) "
+                    + "values ('My Video', 'Director', 'Drama', 'media/My Video_1744669493549.mp4', 1)");
+
+    @TestConfiguration
+    static class GeneratedSchema {
+
+        @Bean
+        FlywayMigrationStrategy createGeneratedSchemaFirst() {
+            return flyway -> {
+                JdbcTemplate jdbcTemplate = new JdbcTemplate(flyway.getConfiguration().getDataSource());
+                GENERATED_SCHEMA.forEach(jdbcTemplate::execute);
+                flyway.migrate();
+            };
+        }
+    }
+
+    @Autowired
+    private Flyway flyway;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MusicRepository musicRepository;
+
+    @Test
+    void whenSchemaWasGeneratedByHibernate_ThenItIsBaselinedAndMigratedToLatest() {
+        assertEquals(MigrationType.BASELINE, flyway.info().applied()[0].getType());
+        assertEquals("1", flyway.info().applied()[0].getVersion().getVersion());
+        assertEquals("6", flyway.info().current().getVersion().getVersion());
+        assertEquals(0, flyway.info().pending().length);
+    }
+
+    @Test
+    void whenSchemaIsMigrated_ThenExistingRowsKeepTheirDataAndGetDefaults() {
+        Music music = musicRepository.findById(1L).orElseThrow();
+
+        assertEquals("Blinding Lights", music.getTitle());
+        assertEquals("media/Blinding Lights_1744729067507.mp3", music.getPath());
+        assertEquals(0, music.getVersion());
+        assertNull(music.getSha256());
+        assertEquals(IngestStatus.READY, music.getIngestStatus());
+        assertEquals(0, jdbcTemplate.queryForObject("select version from video where id = 1", Long.class));
+        assertEquals(0, jdbcTemplate.queryForObject("select count(*) from media_object", Long.class));
+    }
+
+    @Test
+    void whenSchemaIsMigrated_ThenKeysetIndexesExist() {
+        String plan = jdbcTemplate.queryForObject(
+                "explain select id from music where genre = 'Pop' and id > 0 order by id", String.class);
+        assertNotNull(plan);
+        assertTrue(plan.toLowerCase().contains("idx_music_genre_id"), plan);
+    }
+}
@@ -0,0 +1,120 @@
+package microservices.lab1.repository;
+
+import jakarta.persistence.EntityManagerFactory;
+import microservices.lab1.common.export.NdjsonWriter;
+import microservices.lab1.music.dto.GetMusicDTO;
+import microservices.lab1.music.mapper.MusicMapper;
+import microservices.lab1.music.models.Music;
+import microservices.lab1.music.repository.MusicRepository;
+import microservices.lab1.video.dto.GetVideoDTO;
+import microservices.lab1.video.mapper.VideoMapper;
+import microservices.lab1.video.models.Video;
+import microservices.lab1.video.repository.VideoRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:export;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.flyway.enabled=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({NdjsonWriter.class, MusicMapper.class, VideoMapper.class})
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+class CatalogExportTest {
+
+    // More than one fetch and more than one writer batch.
+    private static final int ROWS = 1234;
+
+    @Autowired
+    private MusicRepository musicRepository;
+
+    @Autowired
+    private VideoRepository videoRepository;
+
+    @Autowired
+    private MusicMapper musicMapper;
+
+    @Autowired
+    private VideoMapper videoMapper;
+
+    @Autowired
+    private NdjsonWriter ndjsonWriter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("insert into user (id, username, password) values (1, 'alice', 'secret')");
+        List<Object[]> rows = IntStream.rangeClosed(1, ROWS).mapToObj(i -> new Object[]{i, "Title " + i}).toList();
+        jdbcTemplate.batchUpdate("insert into music (id, title, artist, genre, user_id) values (?, ?, 'Artist', 'Pop', 1)", rows);
+        jdbcTemplate.batchUpdate("insert into video (id, title, director, genre, user_id) values (?, ?, 'Director', 'Drama', 1)", rows);
+
+        entityManagerFactory.getCache().evictAll();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void whenExportingMusic_ThenEveryRowIsWrittenInOrderFromOneStatement() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long count;
+        try (Stream<Music> rows = musicRepository.streamAll()) {
+            count = ndjsonWriter.write(rows, musicMapper::toGetMusicDTO, GetMusicDTO.class, out);
+        }
+
+        List<String> lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(ROWS, count);
+        assertEquals(ROWS, lines.size());
+        assertTrue(lines.get(0).contains("\"title\":\"Title 1\""), lines.get(0));
+        assertTrue(lines.get(ROWS - 1).contains("\"title\":\"Title " + ROWS + "\""), lines.get(ROWS - 1));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void whenExportingVideos_ThenEveryRowIsWrittenInOrderFromOneStatement() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long count;
+        try (Stream<Video> rows = videoRepository.streamAll()) {
+            count = ndjsonWriter.write(rows, videoMapper::toGetVideoDTO, GetVideoDTO.class, out);
+        }
+
+        List<String> lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(ROWS, count);
+        assertEquals(ROWS, lines.size());
+        assertTrue(lines.get(0).contains("\"title\":\"Title 1\""), lines.get(0));
+        assertTrue(lines.get(ROWS - 1).contains("\"title\":\"Title " + ROWS + "\""), lines.get(ROWS - 1));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+}
@@ -0,0 +1,196 @@
+package microservices.lab1.repository;
+
+import jakarta.persistence.EntityManagerFactory;
+import microservices.lab1.common.bulk.BulkItemResult;
+import microservices.lab1.common.lookup.MultiIdLoader;
+import microservices.lab1.common.projection.GenreCount;
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.music.dto.GetMusicDTO;
+import microservices.lab1.music.repository.MusicRepository;
+import microservices.lab1.user.dto.BulkUpdateUserDTO;
+import microservices.lab1.user.dto.GetUserDTO;
+import microservices.lab1.user.mapper.UserMapper;
+import microservices.lab1.user.services.UserService;
+import microservices.lab1.video.dto.GetVideoDTO;
+import microservices.lab1.video.models.Video;
+import microservices.lab1.video.repository.VideoRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.validation.ValidationAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:catalog;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.flyway.enabled=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({UserService.class, UserMapper.class, CatalogVersion.class, MultiIdLoader.class})
+@ImportAutoConfiguration(ValidationAutoConfiguration.class)
+class CatalogQueryCountTest {
+
+    private static final int ROWS = 6;
+
+    @Autowired
+    private MusicRepository musicRepository;
+
+    @Autowired
+    private VideoRepository videoRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("insert into user (id, username, password) values (1, 'alice', 'secret'), (2, 'bob', 'secret'), (3, 'carol', 'secret')");
+        for (int i = 1; i <= ROWS; i++) {
+            long userId = i % 2 + 1;
+            jdbcTemplate.update("insert into music (id, title, artist, genre, user_id) values (?, ?, 'Artist', 'Pop', ?)",
+                    i, "Song " + i, userId);
+            jdbcTemplate.update("insert into video (id, title, director, genre, user_id) values (?, ?, 'Director', 'Drama', ?)",
+                    i, "Video " + i, userId);
+        }
+
+        entityManagerFactory.getCache().evictAll();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void whenListingMusicPage_ThenOneStatementIsExecuted() {
+        List<GetMusicDTO> page = musicRepository.findPage(0, null, null, null, Limit.of(10));
+
+        assertEquals(ROWS, page.size());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void whenFilteringMusicByUser_ThenOneStatementIsExecuted() {
+        List<GetMusicDTO> page = musicRepository.findPage(0, "Pop", null, 2L, Limit.of(10));
+
+        assertEquals(ROWS / 2, page.size());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void whenCountingGenres_ThenOneGroupingStatementIsExecuted() {
+        jdbcTemplate.update("update video set genre = 'Comedy' where id > 4");
+
+        assertEquals(List.of(new GenreCount("Pop", ROWS)), musicRepository.countGenres());
+        assertEquals(2, videoRepository.countGenres().size());
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void whenListingVideos_ThenUserIdsComeFromTheForeignKey() {
+        List<GetVideoDTO> videos = videoRepository.findAllDtos();
+
+        assertEquals(ROWS, videos.size());
+        assertEquals(2L, videos.get(0).getUserId());
+        assertEquals(1L, videos.get(1).getUserId());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void whenLookingUpById_ThenOneStatementIsExecuted() {
+        assertEquals("Song 3", musicRepository.findDtoById(3).orElseThrow().getTitle());
+        assertEquals(1L, videoRepository.findDtoById(4).orElseThrow().getUserId());
+
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void whenListingUsers_ThenLibraryIdsComeFromTwoSetQueries() {
+        List<GetUserDTO> users = userService.findPage(null, 10);
+
+        assertEquals(3, users.size());
+        assertEquals(List.of(2L, 4L, 6L), users.get(0).getMusicIds());
+        assertEquals(List.of(1L, 3L, 5L), users.get(1).getVideoIds());
+        assertTrue(users.get(2).getMusicIds().isEmpty());
+        assertEquals(3, statistics.getPrepareStatementCount());
+        assertEquals(3, statistics.getEntityLoadCount());
+        assertEquals(0, statistics.getCollectionFetchCount());
+    }
+
+    @Test
+    void whenLookingUpUsersByIds_ThenOrderIsKeptAndMissingIdsAreReported() {
+        List<BulkItemResult<GetUserDTO>> users = userService.findAllByIds(List.of(3L, 99L, 1L));
+
+        assertEquals("carol", users.get(0).item().getUsername());
+        assertEquals(404, users.get(1).status());
+        assertEquals(List.of(2L, 4L, 6L), users.get(2).item().getVideoIds());
+        assertEquals(3, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void whenUpdatingUsersInBulk_ThenLibraryEntriesAreLoadedOncePerTable() {
+        List<BulkUpdateUserDTO> dtos = List.of(
+                bulkUpdate(1, List.of(1L, 2L), List.of(3L)),
+                bulkUpdate(2, List.of(2L, 3L), List.of(4L, 5L)),
+                bulkUpdate(3, List.of(6L), List.of(1L)));
+
+        List<BulkItemResult<GetUserDTO>> results = userService.updateAll(dtos);
+
+        assertTrue(results.stream().allMatch(BulkItemResult::succeeded));
+        assertEquals(List.of(2L, 3L), results.get(1).item().getMusicIds());
+        assertEquals(List.of(1L), results.get(2).item().getVideoIds());
+        assertEquals(3, statistics.getQueryExecutionCount());
+    }
+
+    @Test
+    void whenUpdatingUsersInBulkWithUnknownMusic_ThenOnlyThatItemFails() {
+        List<BulkItemResult<GetUserDTO>> results = userService.updateAll(List.of(
+                bulkUpdate(1, List.of(1L, 99L), List.of(1L)),
+                bulkUpdate(2, List.of(2L), List.of(2L))));
+
+        assertEquals(400, results.get(0).status());
+        assertTrue(results.get(1).succeeded());
+    }
+
+    @Test
+    void whenVideoEntitiesAreLoaded_ThenOwnersAreNotFetched() {
+        List<Video> videos = videoRepository.findAll();
+
+        videos.forEach(video -> assertNotNull(video.getUser().getId()));
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(ROWS, statistics.getEntityLoadCount());
+    }
+
+    private BulkUpdateUserDTO bulkUpdate(long id, List<Long> musicIds, List<Long> videoIds) {
+        BulkUpdateUserDTO dto = new BulkUpdateUserDTO();
+        dto.setId(id);
+        dto.setUsername("user" + id);
+        dto.setPassword("secret");
+        dto.setMusicIds(musicIds);
+        dto.setVideoIds(videoIds);
+        return dto;
+    }
+}
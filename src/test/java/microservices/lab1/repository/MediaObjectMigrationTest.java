@@ -0,0 +1,94 @@
+package microservices.lab1.repository;
+
+import microservices.lab1.media.storage.LocalMediaStorage;
+import microservices.lab1.media.storage.MediaFileWriter;
+import microservices.lab1.media.storage.V3_1__Move_media_into_object_storage;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.configuration.FluentConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Rows hashed before media was content-addressed get their files moved into
+ * object storage.
+ */
+class MediaObjectMigrationTest {
+
+    @TempDir
+    Path mediaDir;
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private LocalMediaStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:backfill-" + System.nanoTime() + ";MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        storage = new LocalMediaStorage(new MediaFileWriter(), new String[]{mediaDir.toString()});
+        flyway().target("2").load().migrate();
+        jdbcTemplate.update("insert into user (id, username, password) values (1, 'alice', 'secret')");
+    }
+
+    @Test
+    void whenRowsWereHashedBeforeObjectStorage_ThenTheirFilesAreMovedIntoIt() throws IOException {
+        Path first = Files.writeString(mediaDir.resolve("Song_1.mp3"), "test data");
+        Path second = Files.writeString(mediaDir.resolve("Song_2.mp3"), "test data");
+        String sha256 = new MediaFileWriter().describe(first, "Song_1.mp3").sha256();
+        insertMusic(1, first, sha256);
+        insertMusic(2, second, sha256);
+
+        flyway().load().migrate();
+
+        Path object = storage.find(sha256).orElseThrow();
+        assertFalse(Files.exists(first));
+        assertFalse(Files.exists(second));
+        assertEquals(object.toString(), path(1));
+        assertEquals(object.toString(), path(2));
+        assertEquals(2, jdbcTemplate.queryForObject(
+                "select reference_count from media_object where sha256 = ?", Long.class, sha256));
+    }
+
+    @Test
+    void whenFileChangedAfterItWasHashed_ThenRowAndCountsFollowItsContent() throws IOException {
+        Path file = Files.writeString(mediaDir.resolve("Song_1.mp3"), "other data");
+        String stale = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+        String actual = new MediaFileWriter().describe(file, "Song_1.mp3").sha256();
+        insertMusic(1, file, stale);
+
+        flyway().load().migrate();
+
+        assertEquals(actual, jdbcTemplate.queryForObject("select sha256 from music where id = 1", String.class));
+        assertEquals(storage.find(actual).orElseThrow().toString(), path(1));
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "select count(*) from media_object where sha256 = ?", Long.class, stale));
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "select reference_count from media_object where sha256 = ?", Long.class, actual));
+    }
+
+    private FluentConfiguration flyway() {
+        return Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration/common", "classpath:db/migration/h2")
+                .javaMigrations(new V3_1__Move_media_into_object_storage(storage));
+    }
+
+    private void insertMusic(long id, Path file, String sha256) {
+        jdbcTemplate.update("insert into music (id, title, artist, genre, user_id, path, content_length, sha256) "
+                + "values (?, ?, 'Artist', 'Pop', 1, ?, 9, ?)", id, "Song " + id, file.toString(), sha256);
+    }
+
+    private String path(long id) {
+        return jdbcTemplate.queryForObject("select path from music where id = ?", String.class, id);
+    }
+}
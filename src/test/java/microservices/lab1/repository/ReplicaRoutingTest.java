@@ -0,0 +1,198 @@
+package microservices.lab1.repository;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.servlet.http.Cookie;
+import microservices.lab1.common.datasource.ReplicaRoutingConfiguration;
+import microservices.lab1.common.datasource.ReplicaRoutingDataSource;
+import microservices.lab1.music.dto.GetMusicDTO;
+import microservices.lab1.music.models.Music;
+import microservices.lab1.music.repository.MusicRepository;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Nothing replicates between the two databases, so the title read shows which
+ * one served it.
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:primary;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=validate",
+        "catalog.datasource.routing.enabled=true",
+        "catalog.datasource.routing.replicas[0].url=" + ReplicaRoutingTest.REPLICA_URL,
+        "catalog.datasource.routing.max-lag=PT5S",
+        "catalog.datasource.routing.health-check-interval=PT1H",
+        "catalog.datasource.routing.lag-query=select seconds as Seconds_Behind_Source from replica_lag"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import(ReplicaRoutingConfiguration.class)
+class ReplicaRoutingTest {
+
+    static final String REPLICA_URL = "jdbc:h2:mem:replica;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private MusicRepository musicRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ReplicaRoutingDataSource routing;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private JdbcTemplate replica;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource replicaDataSource = new DriverManagerDataSource(REPLICA_URL, "sa", "");
+        Flyway.configure()
+                .dataSource(replicaDataSource)
+                .locations("classpath:db/migration/common", "classpath:db/migration/h2")
+                .load()
+                .migrate();
+        replica = new JdbcTemplate(replicaDataSource);
+        replica.execute("create table if not exists replica_lag (seconds bigint)");
+        replica.update("delete from replica_lag");
+        replica.update("insert into replica_lag (seconds) values (0)");
+
+        seed(jdbcTemplate, "Primary Song");
+        seed(replica, "Replica Song");
+        entityManagerFactory.getCache().evictAll();
+        routing.checkReplicas();
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void whenTransactionIsReadOnly_ThenTheReplicaServesIt() {
+        assertEquals(List.of("Replica Song"), readTitles());
+    }
+
+    @Test
+    void whenTransactionWrites_ThenThePrimaryServesIt() {
+        rename("Edited");
+
+        assertEquals("Edited", jdbcTemplate.queryForObject("select title from music where id = 1", String.class));
+        assertEquals("Replica Song", replica.queryForObject("select title from music where id = 1", String.class));
+    }
+
+    @Test
+    void whenClientHasJustWritten_ThenItsReadsStayOnThePrimary() {
+        MockHttpServletResponse response = bindRequest(null);
+        rename("Edited");
+
+        assertEquals(List.of("Edited"), readTitles());
+        Cookie lastWrite = response.getCookie("catalog-last-write");
+        assertNotNull(lastWrite);
+
+        bindRequest(lastWrite);
+        assertEquals(List.of("Edited"), readTitles());
+
+        bindRequest(null);
+        assertEquals(List.of("Replica Song"), readTitles());
+    }
+
+    @Test
+    void whenReplicaHasCaughtUpWithTheClientsWrite_ThenItServesTheClientAgain() {
+        bindRequest(new Cookie("catalog-last-write", Long.toString(System.currentTimeMillis() - 60_000)));
+
+        assertEquals(List.of("Replica Song"), readTitles());
+    }
+
+    @Test
+    void whenReplicaServesARead_ThenNothingItLoadedIsCached() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+
+        assertEquals("Replica Song", transaction.execute(status -> musicRepository.findById(1L).orElseThrow().getTitle()));
+        assertEquals("Replica Song", transaction.execute(status -> musicRepository.findDtoById(1L).orElseThrow().getTitle()));
+        assertFalse(entityManagerFactory.getCache().contains(Music.class, 1L));
+
+        bindRequest(new Cookie("catalog-last-write", Long.toString(System.currentTimeMillis())));
+        assertEquals("Primary Song", transaction.execute(status -> musicRepository.findDtoById(1L).orElseThrow().getTitle()));
+        assertEquals("Primary Song", transaction.execute(status -> musicRepository.findById(1L).orElseThrow().getTitle()));
+        assertTrue(entityManagerFactory.getCache().contains(Music.class, 1L));
+    }
+
+    @Test
+    void whenReplicaLagsTooFarBehind_ThenReadsFallBackToThePrimary() {
+        replica.update("update replica_lag set seconds = 30");
+        routing.checkReplicas();
+
+        assertEquals(List.of("Primary Song"), readTitles());
+
+        replica.update("update replica_lag set seconds = 1");
+        routing.checkReplicas();
+
+        assertEquals(List.of("Replica Song"), readTitles());
+    }
+
+    @Test
+    void whenReplicaFailsItsHealthCheck_ThenReadsFallBackToThePrimary() {
+        replica.execute("drop table replica_lag");
+        routing.checkReplicas();
+
+        assertEquals(List.of("Primary Song"), readTitles());
+    }
+
+    private List<String> readTitles() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        return transaction.execute(status -> musicRepository.findAllDtos().stream().map(GetMusicDTO::getTitle).toList());
+    }
+
+    private void rename(String title) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                musicRepository.findById(1L).orElseThrow().setTitle(title));
+    }
+
+    private MockHttpServletResponse bindRequest(Cookie cookie) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (cookie != null) {
+            request.setCookies(cookie);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+        return response;
+    }
+
+    private static void seed(JdbcTemplate database, String title) {
+        database.update("delete from video");
+        database.update("delete from music");
+        database.update("delete from user");
+        database.update("insert into user (id, username, password) values (1, 'alice', 'secret')");
+        database.update("insert into music (id, title, artist, genre, user_id) values (1, ?, 'Artist', 'Pop', 1)", title);
+    }
+}
@@ -0,0 +1,139 @@
+package microservices.lab1.repository;
+
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.media.repository.MediaObjectRepository;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.data.domain.Limit;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:schema;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=validate"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class SchemaMigrationTest {
+
+    @Autowired
+    private Flyway flyway;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MediaObjectRepository mediaObjectRepository;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("insert into user (id, username, password) values (1, 'alice', 'secret')");
+        for (int i = 1; i <= 20; i++) {
+            jdbcTemplate.update("insert into music (id, title, artist, genre, user_id) values (?, ?, ?, ?, 1)",
+                    i, "Song " + i, "Artist " + i % 5, "Genre " + i % 4);
+            jdbcTemplate.update("insert into video (id, title, director, genre, user_id) values (?, ?, ?, ?, 1)",
+                    i, "Video " + i, "Director " + i % 5, "Genre " + i % 4);
+        }
+    }
+
+    @Test
+    void whenContextStarts_ThenAllMigrationsAreApplied() {
+        assertEquals(8, flyway.info().applied().length);
+        assertEquals("6", flyway.info().current().getVersion().getVersion());
+    }
+
+    @Test
+    void whenFilteringByGenre_ThenGenreIndexIsUsed() {
+        assertPlanUses("idx_music_genre_id",
+                "select id from music where genre = 'Genre 1' and id > 0 order by id");
+    }
+
+    @Test
+    void whenFilteringByDirector_ThenDirectorIndexIsUsed() {
+        assertPlanUses("idx_video_director_id",
+                "select id from video where director = 'Director 1' and id > 0 order by id");
+    }
+
+    @Test
+    void whenFilteringByOwner_ThenUserIndexIsUsed() {
+        assertPlanUses("idx_music_user_id",
+                "select id from music where user_id = 1 and id > 0 order by id");
+    }
+
+    @Test
+    void whenLookingUpByTitle_ThenTitleIndexIsUsed() {
+        assertPlanUses("idx_music_title", "select id from music where title = 'Song 3'");
+        assertPlanUses("idx_video_title", "select id from video where title = 'Video 3'");
+    }
+
+    @Test
+    void whenSameContentIsAcquiredTwice_ThenOneObjectCountsBothReferences() {
+        String sha256 = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+
+        mediaObjectRepository.acquire(sha256, "audio/mpeg", 9, Instant.now());
+        mediaObjectRepository.acquire(sha256, "audio/mpeg", 9, Instant.now());
+        mediaObjectRepository.release(sha256, Instant.now());
+
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "select reference_count from media_object where sha256 = ?", Long.class, sha256));
+        assertEquals(1, jdbcTemplate.queryForObject("select count(*) from media_object", Long.class));
+    }
+
+    @Test
+    void whenLastReferenceIsReleased_ThenObjectIsDueForReclaimUntilAcquiredAgain() {
+        String sha256 = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+        mediaObjectRepository.acquire(sha256, "audio/mpeg", 9, Instant.now());
+        mediaObjectRepository.release(sha256, Instant.now().minusSeconds(60));
+        mediaObjectRepository.adopt(sha256, Instant.now());
+
+        assertEquals(List.of(sha256), mediaObjectRepository.findReleasedBefore(Instant.now(), Limit.of(10)));
+        assertTrue(mediaObjectRepository.findReleasedBefore(Instant.now().minusSeconds(120), Limit.of(10)).isEmpty());
+        assertTrue(mediaObjectRepository.lockUnreferenced(sha256).isPresent());
+
+        mediaObjectRepository.acquire(sha256, "audio/mpeg", 9, Instant.now());
+        jdbcTemplate.update("update music set sha256 = ? where id = 1", sha256);
+
+        assertTrue(mediaObjectRepository.findReleasedBefore(Instant.now(), Limit.of(10)).isEmpty());
+        assertTrue(mediaObjectRepository.lockUnreferenced(sha256).isEmpty());
+        assertEquals(1, mediaObjectRepository.countCatalogReferences(sha256));
+        assertPlanUses("idx_music_sha256", "select id from music where sha256 = 'x'");
+    }
+
+    @Test
+    void whenOneInstanceWrites_ThenEveryInstanceSeesTheNewCatalogVersion() {
+        CatalogVersion writer = new CatalogVersion(jdbcTemplate);
+        CatalogVersion reader = new CatalogVersion(jdbcTemplate);
+        CatalogVersion.Stamp before = reader.current();
+
+        writer.increment();
+
+        assertEquals(before.version() + 1, reader.current().version());
+        assertNotEquals(before.etag(), reader.current().etag());
+        assertEquals(writer.current(), reader.current());
+    }
+
+    @Test
+    void whenRowPredatesIngestStatus_ThenItIsReady() {
+        assertEquals(20, jdbcTemplate.queryForObject(
+                "select count(*) from music where ingest_status = 'READY'", Long.class));
+        assertEquals(20, jdbcTemplate.queryForObject(
+                "select count(*) from video where ingest_status = 'READY'", Long.class));
+    }
+
+    private void assertPlanUses(String index, String query) {
+        String plan = jdbcTemplate.queryForObject("explain " + query, String.class);
+        assertNotNull(plan);
+        assertTrue(plan.toLowerCase().contains(index), plan);
+    }
+}
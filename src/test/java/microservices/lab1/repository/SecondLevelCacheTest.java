@@ -0,0 +1,137 @@
+package microservices.lab1.repository;
+
+import jakarta.persistence.EntityManagerFactory;
+import microservices.lab1.common.lookup.MultiIdLoader;
+import microservices.lab1.music.models.Music;
+import microservices.lab1.music.repository.MusicRepository;
+import microservices.lab1.video.models.Video;
+import microservices.lab1.video.repository.VideoRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * No surrounding transaction, so repeated lookups can only be served by the
+ * second-level cache.
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:l2cache;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.flyway.enabled=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import(MultiIdLoader.class)
+class SecondLevelCacheTest {
+
+    @Autowired
+    private MusicRepository musicRepository;
+
+    @Autowired
+    private VideoRepository videoRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private MultiIdLoader multiIdLoader;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("delete from video");
+        jdbcTemplate.update("delete from music");
+        jdbcTemplate.update("delete from user");
+        jdbcTemplate.update("insert into user (id, username, password) values (1, 'alice', 'secret')");
+        jdbcTemplate.update("insert into music (id, title, artist, genre, user_id) values (1, 'Song', 'Artist', 'Pop', 1)");
+        jdbcTemplate.update("insert into video (id, title, director, genre, user_id) values (1, 'Video', 'Director', 'Drama', 1)");
+
+        entityManagerFactory.getCache().evictAll();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void whenEntityIsLoadedTwice_ThenSecondLoadHitsTheCache() {
+        assertEquals("Video", videoRepository.findById(1L).orElseThrow().getTitle());
+        assertEquals("Video", videoRepository.findById(1L).orElseThrow().getTitle());
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getSecondLevelCacheHitCount());
+    }
+
+    @Test
+    void whenProjectionIsQueriedTwice_ThenSecondQueryHitsTheCache() {
+        assertEquals("Song", musicRepository.findDtoById(1).orElseThrow().getTitle());
+        assertEquals("Song", musicRepository.findDtoById(1).orElseThrow().getTitle());
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getQueryCacheHitCount());
+    }
+
+    @Test
+    void whenIdsAreMultiLoadedTwice_ThenOnlyTheFirstLoadQueries() {
+        jdbcTemplate.update("insert into music (id, title, artist, genre, user_id) values (2, 'Other', 'Artist', 'Rock', 1)");
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        List<Music> first = transaction.execute(status -> multiIdLoader.load(Music.class, List.of(2L, 99L, 1L)));
+        assertEquals("Other", first.get(0).getTitle());
+        assertNull(first.get(1));
+        assertEquals("Song", first.get(2).getTitle());
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        List<String> titles = transaction.execute(status -> multiIdLoader.load(Music.class, List.of(1L, 2L, 1L))
+                .stream().map(Music::getTitle).collect(Collectors.toList()));
+        assertEquals(List.of("Song", "Other", "Song"), titles);
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(2, statistics.getSecondLevelCacheHitCount());
+    }
+
+    @Test
+    void whenEntityIsUpdated_ThenCachedLookupsSeeTheChange() {
+        videoRepository.findDtoById(1);
+        Video video = videoRepository.findById(1L).orElseThrow();
+        video.setTitle("Renamed");
+        videoRepository.save(video);
+
+        assertEquals("Renamed", videoRepository.findById(1L).orElseThrow().getTitle());
+        assertEquals("Renamed", videoRepository.findDtoById(1).orElseThrow().getTitle());
+    }
+
+    @Test
+    void whenEntityIsDeleted_ThenCachedLookupsMissIt() {
+        videoRepository.findById(1L);
+        videoRepository.findDtoById(1);
+
+        videoRepository.deleteById(1L);
+
+        assertTrue(videoRepository.findById(1L).isEmpty());
+        assertTrue(videoRepository.findDtoById(1).isEmpty());
+    }
+}
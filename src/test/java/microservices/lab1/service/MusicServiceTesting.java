@@ -1,6 +1,19 @@
 package microservices.lab1.service;
 
+import microservices.lab1.common.bulk.Bulk;
+import microservices.lab1.common.bulk.BulkItemResult;
 import microservices.lab1.common.exception.CustomException;
+import microservices.lab1.common.exception.PreconditionFailedException;
+import microservices.lab1.common.projection.GenreCount;
+import microservices.lab1.common.version.CatalogVersion;
+import microservices.lab1.media.ingest.IngestCompleted;
+import microservices.lab1.media.ingest.IngestJob;
+import microservices.lab1.media.ingest.IngestStatus;
+import microservices.lab1.media.storage.ContentStore;
+import microservices.lab1.media.storage.MediaMetadata;
+import microservices.lab1.media.upload.ResumableUploads;
+import microservices.lab1.media.upload.UploadSession;
+import microservices.lab1.music.dto.BulkUpdateMusicDTO;
 import microservices.lab1.music.dto.CreateMusicDTO;
 import microservices.lab1.music.dto.UpdateMusicDTO;
 import microservices.lab1.music.dto.GetMusicDTO;
@@ -14,19 +27,29 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @SpringBootTest
@@ -35,12 +58,24 @@ class MusicServiceTest {
     @Autowired
     private MusicService underTest;
 
+    @Autowired
+    private CatalogVersion catalogVersion;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ResumableUploads resumableUploads;
+
     @MockitoBean
     private MusicRepository musicRepository;
 
     @MockitoBean
     private MusicMapper musicMapper;
 
+    @MockitoSpyBean
+    private ContentStore contentStore;
+
     private MockMultipartFile mockFile;
     private CreateMusicDTO createMusicDTO;
     private UpdateMusicDTO updateMusicDTO;
@@ -124,91 +159,208 @@ class MusicServiceTest {
     }
 
     @Test
-    void whenSaveCreatesMediaDirectory_ThenDirectoryIsCreated() throws IOException {
+    void whenSaveStoresFile_ThenItIsWrittenUnderItsHashInAShardDirectory() throws IOException {
         when(musicMapper.toEntity(any(CreateMusicDTO.class))).thenReturn(music);
         when(musicRepository.save(any(Music.class))).thenReturn(music);
         when(musicMapper.toGetMusicDTO(any(Music.class))).thenReturn(getMusicDTO);
 
         underTest.save(createMusicDTO, mockFile);
 
-        Path mediaPath = Paths.get("media");
+        String sha256 = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+        Path mediaPath = Paths.get(music.getPath());
+        assertEquals(sha256, music.getSha256());
+        assertTrue(mediaPath.endsWith(Paths.get("objects", "91", "6f", sha256)));
         assertTrue(Files.exists(mediaPath));
+        assertEquals(IngestStatus.PENDING, music.getIngestStatus());
     }
 
-    // Tests for findById method
     @Test
-    void whenFindByIdExists_ThenReturnGetMusicDTO() {
+    void whenIngestFailsAfterContentWasStored_ThenItsReferenceIsReleased() {
+        music.setIngestStatus(IngestStatus.PENDING);
+        IngestJob job = new IngestJob(IngestJob.Source.MUSIC, 1L, media(music.getPath(), null), "test.mp3");
+        MediaMetadata stored = media("media/objects/91/6f/916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9",
+                "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9");
         when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
+
+        underTest.finishIngest(new IngestCompleted(job, IngestStatus.FAILED, stored));
+
+        assertEquals(IngestStatus.FAILED, music.getIngestStatus());
+        assertNotEquals(stored.sha256(), music.getSha256());
+        verify(contentStore).release(stored.sha256());
+    }
+
+    @Test
+    void whenRowForUploadCannotBeCreated_ThenUploadCanBeCompletedAgain() throws IOException {
+        UploadSession upload = resumableUploads.create(9, "song.mp3");
+        resumableUploads.write(upload, 0, new ByteArrayInputStream("test data".getBytes()));
+        when(musicMapper.toEntity(any(CreateMusicDTO.class)))
+                .thenThrow(new CustomException("Користувача з ID 1 не знайдено."));
+
+        assertThrows(CustomException.class, () -> underTest.saveUpload(createMusicDTO, upload.id()));
+        assertTrue(resumableUploads.find(upload.id()).isPresent());
+
+        reset(musicMapper);
+        when(musicMapper.toEntity(any(CreateMusicDTO.class))).thenReturn(music);
+        when(musicRepository.save(any(Music.class))).thenReturn(music);
         when(musicMapper.toGetMusicDTO(any(Music.class))).thenReturn(getMusicDTO);
 
+        assertNotNull(underTest.saveUpload(createMusicDTO, upload.id()));
+        assertTrue(resumableUploads.find(upload.id()).isEmpty());
+    }
+
+    @Test
+    void whenSaveRollsBack_ThenCatalogVersionIsUnchanged() throws IOException {
+        when(musicMapper.toEntity(any(CreateMusicDTO.class))).thenReturn(music);
+        when(musicRepository.save(any(Music.class))).thenReturn(music);
+        when(musicMapper.toGetMusicDTO(any(Music.class))).thenReturn(getMusicDTO);
+        long before = catalogVersion.current().version();
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            try {
+                underTest.save(createMusicDTO, mockFile);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            assertTrue(catalogVersion.current().version() > before);
+            status.setRollbackOnly();
+        });
+        assertEquals(before, catalogVersion.current().version());
+
+        underTest.save(createMusicDTO, mockFile);
+        assertTrue(catalogVersion.current().version() > before);
+    }
+
+    @Test
+    void whenIngestCompletes_ThenPendingRowBecomesReady() {
+        music.setIngestStatus(IngestStatus.PENDING);
+        IngestJob job = new IngestJob(IngestJob.Source.MUSIC, 1L, media(music.getPath(), null), "test.mp3");
+        MediaMetadata stored = media("media/objects/91/6f/916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9",
+                "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9");
+        when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
+
+        underTest.finishIngest(new IngestCompleted(job, IngestStatus.READY, stored));
+
+        assertEquals(IngestStatus.READY, music.getIngestStatus());
+        assertEquals(stored.sha256(), music.getSha256());
+        assertEquals(stored.path().toString(), music.getPath());
+    }
+
+    @Test
+    void whenIngestCompletesForReplacedMedia_ThenRowIsLeftAlone() {
+        music.setIngestStatus(IngestStatus.PENDING);
+        IngestJob job = new IngestJob(IngestJob.Source.MUSIC, 1L, media("media/incoming/old.part", null), "test.mp3");
+        when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
+
+        underTest.finishIngest(new IngestCompleted(job, IngestStatus.FAILED, null));
+
+        assertEquals(IngestStatus.PENDING, music.getIngestStatus());
+    }
+
+    @Test
+    void whenIngestFailsAfterContentWasStored_ThenItsReferenceIsReleased() {
+        music.setIngestStatus(IngestStatus.PENDING);
+        IngestJob job = new IngestJob(IngestJob.Source.MUSIC, 1L, media(music.getPath(), null), "test.mp3");
+        MediaMetadata stored = media("media/objects/91/6f/916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9",
+                "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9");
+        when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
+
+        underTest.finishIngest(new IngestCompleted(job, IngestStatus.FAILED, stored));
+
+        assertEquals(IngestStatus.FAILED, music.getIngestStatus());
+        assertNotEquals(stored.sha256(), music.getSha256());
+        verify(contentStore).release(stored.sha256());
+    }
+
+    // Tests for findById method
+    @Test
+    void whenFindByIdExists_ThenReturnGetMusicDTO() {
+        when(musicRepository.findDtoById(1L)).thenReturn(Optional.of(getMusicDTO));
+
         GetMusicDTO result = underTest.findById(1L);
 
         assertNotNull(result);
         assertEquals(1L, result.getId());
         assertEquals("Test Song", result.getTitle());
-        verify(musicRepository).findById(1L);
+        verify(musicRepository).findDtoById(1L);
+        verify(musicRepository, never()).findById(1L);
     }
 
     @Test
     void whenFindByIdNotExists_ThenThrowCustomException() {
-        when(musicRepository.findById(1L)).thenReturn(Optional.empty());
+        when(musicRepository.findDtoById(1L)).thenReturn(Optional.empty());
 
         assertThrows(CustomException.class, () -> underTest.findById(1L),
                 "Музику з ID 1 не знайдено.");
-        verify(musicRepository).findById(1L);
+        verify(musicRepository).findDtoById(1L);
     }
 
     @Test
     void whenFindByIdNegative_ThenThrowCustomException() {
-        when(musicRepository.findById(-1L)).thenReturn(Optional.empty());
+        when(musicRepository.findDtoById(-1L)).thenReturn(Optional.empty());
 
         assertThrows(CustomException.class, () -> underTest.findById(-1L),
                 "Музику з ID -1 не знайдено.");
-        verify(musicRepository).findById(-1L);
+        verify(musicRepository).findDtoById(-1L);
     }
 
     // Tests for findAll method
     @Test
     void whenFindAllReturnsList_ThenReturnListOfGetMusicDTO() {
-        when(musicRepository.findAll()).thenReturn(Collections.singletonList(music));
-        when(musicMapper.toGetMusicDTO(any(Music.class))).thenReturn(getMusicDTO);
+        when(musicRepository.findAllDtos()).thenReturn(Collections.singletonList(getMusicDTO));
 
         List<GetMusicDTO> result = underTest.findAll();
 
         assertNotNull(result);
         assertEquals(1, result.size());
         assertEquals("Test Song", result.get(0).getTitle());
-        verify(musicRepository).findAll();
+        verify(musicRepository).findAllDtos();
+        verify(musicMapper, never()).toGetMusicDTO(any(Music.class));
     }
 
     @Test
     void whenFindAllEmpty_ThenReturnEmptyList() {
-        when(musicRepository.findAll()).thenReturn(Collections.emptyList());
+        when(musicRepository.findAllDtos()).thenReturn(Collections.emptyList());
 
         List<GetMusicDTO> result = underTest.findAll();
 
         assertNotNull(result);
         assertTrue(result.isEmpty());
-        verify(musicRepository).findAll();
+        verify(musicRepository).findAllDtos();
     }
 
     @Test
     void whenFindAllMultipleItems_ThenReturnAllItems() {
-        Music music2 = new Music();
-        music2.setId(2L);
-        music2.setTitle("Song 2");
         GetMusicDTO getMusicDTO2 = new GetMusicDTO();
         getMusicDTO2.setId(2L);
         getMusicDTO2.setTitle("Song 2");
 
-        when(musicRepository.findAll()).thenReturn(List.of(music, music2));
-        when(musicMapper.toGetMusicDTO(music)).thenReturn(getMusicDTO);
-        when(musicMapper.toGetMusicDTO(music2)).thenReturn(getMusicDTO2);
+        when(musicRepository.findAllDtos()).thenReturn(List.of(getMusicDTO, getMusicDTO2));
 
         List<GetMusicDTO> result = underTest.findAll();
 
         assertEquals(2, result.size());
-        verify(musicRepository).findAll();
+        verify(musicRepository).findAllDtos();
+    }
+
+    // Tests for findPage method
+    @Test
+    void whenFindPageWithoutCursor_ThenStartFromFirstId() {
+        when(musicRepository.findPage(0L, "Pop", null, null, Limit.of(20))).thenReturn(List.of(getMusicDTO));
+
+        List<GetMusicDTO> result = underTest.findPage(null, 20, "Pop", null, null);
+
+        assertEquals(1, result.size());
+        verify(musicRepository, never()).findAll();
+    }
+
+    @Test
+    void whenFindPageLimitIsTooLarge_ThenLimitIsCapped() {
+        when(musicRepository.findPage(10L, null, null, 1L, Limit.of(200))).thenReturn(Collections.emptyList());
+
+        List<GetMusicDTO> result = underTest.findPage(10L, 100_000, null, null, 1L);
+
+        assertTrue(result.isEmpty());
+        verify(musicRepository).findPage(10L, null, null, 1L, Limit.of(200));
     }
 
     // Tests for update method
@@ -221,119 +373,294 @@ class MusicServiceTest {
         updatedGetMusicDTO.setGenre("Rock");
         updatedGetMusicDTO.setPath("src/main/resources/media/Updated_Song_123456789.mp3");
 
-        when(musicRepository.existsById(1L)).thenReturn(true);
         when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
         when(musicMapper.toEntity(any(UpdateMusicDTO.class), any(Music.class))).thenReturn(music);
-        when(musicRepository.save(any(Music.class))).thenReturn(music);
+        when(musicRepository.saveAndFlush(any(Music.class))).thenReturn(music);
         when(musicMapper.toGetMusicDTO(any(Music.class))).thenReturn(updatedGetMusicDTO);
 
-        GetMusicDTO result = underTest.update(1L, updateMusicDTO, mockFile);
+        GetMusicDTO result = underTest.update(1L, updateMusicDTO, mockFile, null);
 
         assertNotNull(result);
         assertEquals("Test Song", result.getTitle());
         assertEquals("Updated Artist", result.getArtist());
         assertEquals("Rock", result.getGenre());
         assertTrue(result.getPath().contains("Updated_Song"));
-        verify(musicRepository).save(any(Music.class));
+        verify(musicRepository).saveAndFlush(any(Music.class));
     }
 
     @Test
     void whenUpdateWithoutFile_ThenUpdateWithoutChangingFilePath() throws IOException {
-        when(musicRepository.existsById(1L)).thenReturn(true);
         when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
         when(musicMapper.toEntity(any(UpdateMusicDTO.class), any(Music.class))).thenReturn(music);
-        when(musicRepository.save(any(Music.class))).thenReturn(music);
+        when(musicRepository.saveAndFlush(any(Music.class))).thenReturn(music);
         when(musicMapper.toGetMusicDTO(any(Music.class))).thenReturn(getMusicDTO);
 
-        GetMusicDTO result = underTest.update(1L, updateMusicDTO, null);
+        GetMusicDTO result = underTest.update(1L, updateMusicDTO, null, null);
 
         assertNotNull(result);
         assertEquals("Test Song", result.getTitle());
         assertEquals("src/main/resources/media/Test_Song_123456789.mp3", result.getPath());
-        verify(musicRepository).save(any(Music.class));
+        verify(musicRepository).saveAndFlush(any(Music.class));
     }
 
     @Test
     void whenUpdateNonExistingId_ThenThrowCustomException() {
-        when(musicRepository.existsById(1L)).thenReturn(false);
+        when(musicRepository.findById(1L)).thenReturn(Optional.empty());
 
-        assertThrows(CustomException.class, () -> underTest.update(1L, updateMusicDTO, null),
+        assertThrows(CustomException.class, () -> underTest.update(1L, updateMusicDTO, null, null),
                 "Музику з ID 1 не знайдено.");
-        verify(musicRepository, never()).save(any(Music.class));
+        verify(musicRepository, never()).saveAndFlush(any(Music.class));
+    }
+
+    @Test
+    void whenUpdateWithStaleVersion_ThenThrowPreconditionFailed() {
+        music.setVersion(3);
+        when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
+
+        assertThrows(PreconditionFailedException.class, () -> underTest.update(1L, updateMusicDTO, null, 2L));
+        verify(musicMapper, never()).toEntity(any(UpdateMusicDTO.class), any(Music.class));
+        verify(musicRepository, never()).saveAndFlush(any(Music.class));
+    }
+
+    @Test
+    void whenUpdateLoadsOnce_ThenNoExistenceCheckIsIssued() throws IOException {
+        when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
+        when(musicMapper.toEntity(any(UpdateMusicDTO.class), any(Music.class))).thenReturn(music);
+        when(musicRepository.saveAndFlush(any(Music.class))).thenReturn(music);
+        when(musicMapper.toGetMusicDTO(any(Music.class))).thenReturn(getMusicDTO);
+
+        underTest.update(1L, updateMusicDTO, null, 0L);
+
+        verify(musicRepository, never()).existsById(anyLong());
+        verify(musicRepository, times(1)).findById(1L);
+    }
+
+    @Test
+    void whenUpdateOrDeleteRollsBack_ThenCatalogVersionIsUnchanged() {
+        when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
+        when(musicMapper.toEntity(any(UpdateMusicDTO.class), any(Music.class))).thenReturn(music);
+        when(musicRepository.saveAndFlush(any(Music.class))).thenReturn(music);
+        when(musicMapper.toGetMusicDTO(any(Music.class))).thenReturn(getMusicDTO);
+        long before = catalogVersion.current().version();
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            try {
+                underTest.update(1L, updateMusicDTO, null, 0L);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            underTest.delete(1L, null, null);
+            // What a version conflict detected at commit does to the transaction.
+            status.setRollbackOnly();
+        });
+
+        assertEquals(before, catalogVersion.current().version());
     }
 
     @Test
     void whenUpdateWithEmptyFile_ThenThrowCustomException() {
         MockMultipartFile emptyFile = new MockMultipartFile("file", "test.mp3", "audio/mpeg", new byte[0]);
-        when(musicRepository.existsById(1L)).thenReturn(true);
         when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
 
-        assertThrows(CustomException.class, () -> underTest.update(1L, updateMusicDTO, emptyFile),
+        assertThrows(CustomException.class, () -> underTest.update(1L, updateMusicDTO, emptyFile, null),
                 "Файл не передано.");
+        verify(musicRepository, never()).saveAndFlush(any(Music.class));
+    }
+
+    // Tests for bulk methods
+    @Test
+    void whenSaveAll_ThenUsersAreResolvedOnceAndEachItemIsReported() {
+        createMusicDTO.setUserId(1L);
+        CreateMusicDTO unknownUser = new CreateMusicDTO();
+        unknownUser.setTitle("Other Song");
+        unknownUser.setArtist("Other Artist");
+        unknownUser.setUserId(9L);
+        CreateMusicDTO invalid = new CreateMusicDTO();
+        invalid.setArtist("Test Artist");
+        invalid.setUserId(1L);
+
+        when(musicMapper.findUsers(anyCollection())).thenReturn(Map.of(1L, user));
+        when(musicMapper.toEntity(any(CreateMusicDTO.class), eq(user))).thenReturn(music);
+        when(musicMapper.toGetMusicDTO(music)).thenReturn(getMusicDTO);
+
+        List<BulkItemResult<GetMusicDTO>> results = underTest.saveAll(List.of(createMusicDTO, unknownUser, invalid));
+
+        assertEquals(List.of(201, 400, 400), results.stream().map(BulkItemResult::status).toList());
+        assertEquals(1L, results.get(0).id());
+        assertEquals("Користувача з ID 9 не знайдено.", results.get(1).error());
+        assertTrue(results.get(2).error().startsWith("title: "));
+        verify(musicMapper, times(1)).findUsers(anyCollection());
+        verify(musicRepository).saveAll(List.of(music));
         verify(musicRepository, never()).save(any(Music.class));
     }
 
+    @Test
+    void whenUpdateAllWithUnknownId_ThenOnlyThatItemFails() {
+        BulkUpdateMusicDTO known = new BulkUpdateMusicDTO();
+        known.setId(1L);
+        known.setTitle("Updated Song");
+        known.setArtist("Updated Artist");
+        known.setUserId(1L);
+        BulkUpdateMusicDTO unknown = new BulkUpdateMusicDTO();
+        unknown.setId(2L);
+        unknown.setTitle("Updated Song");
+        unknown.setArtist("Updated Artist");
+        unknown.setUserId(1L);
+
+        when(musicRepository.findAllById(Set.of(1L, 2L))).thenReturn(List.of(music));
+        when(musicMapper.findUsers(anyCollection())).thenReturn(Map.of(1L, user));
+        when(musicMapper.toEntity(known, music, user)).thenReturn(music);
+        when(musicMapper.toGetMusicDTO(music)).thenReturn(getMusicDTO);
+
+        List<BulkItemResult<GetMusicDTO>> results = underTest.updateAll(List.of(known, unknown));
+
+        assertEquals(200, results.get(0).status());
+        assertEquals(404, results.get(1).status());
+        assertEquals(2L, results.get(1).id());
+        verify(musicRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    void whenDeleteAll_ThenMissingIdsAreReported() {
+        when(musicRepository.findAllById(Set.of(1L, 2L))).thenReturn(List.of(music));
+
+        List<BulkItemResult<Void>> results = underTest.deleteAll(List.of(1L, 2L));
+
+        assertTrue(results.get(0).succeeded());
+        assertEquals(404, results.get(1).status());
+        verify(musicRepository).deleteAll(List.of(music));
+        verify(musicRepository, never()).deleteById(anyLong());
+    }
+
+    @Test
+    void whenBulkDeleteMatchesNothing_ThenCatalogVersionIsUnchanged() {
+        when(musicRepository.findAllById(Set.of(2L))).thenReturn(List.of());
+        long before = catalogVersion.current().version();
+
+        List<BulkItemResult<Void>> results = underTest.deleteAll(List.of(2L));
+
+        assertEquals(404, results.get(0).status());
+        assertEquals(before, catalogVersion.current().version());
+
+        when(musicRepository.findAllById(Set.of(1L))).thenReturn(List.of(music));
+        underTest.deleteAll(List.of(1L));
+        assertTrue(catalogVersion.current().version() > before);
+    }
+
+    @Test
+    void whenBulkRequestIsTooLarge_ThenThrowCustomException() {
+        List<Long> ids = Collections.nCopies(Bulk.MAX_ITEMS + 1, 1L);
+
+        assertThrows(CustomException.class, () -> underTest.deleteAll(ids));
+        verify(musicRepository, never()).findAllById(any());
+    }
+
+    // Tests for genre counts
+    @Test
+    void whenCountsAreReconciled_ThenTheyAreReplacedLargestFirst() {
+        when(musicRepository.countGenres()).thenReturn(List.of(new GenreCount("Rock", 1), new GenreCount("Pop", 5)));
+
+        underTest.reconcileGenreCounts();
+
+        assertEquals(List.of(new GenreCount("Pop", 5), new GenreCount("Rock", 1)), underTest.countGenres());
+    }
+
+    @Test
+    void whenGenreChangesOnUpdate_ThenCountMovesToNewGenre() throws IOException {
+        when(musicRepository.countGenres()).thenReturn(List.of(new GenreCount("Pop", 2)));
+        underTest.reconcileGenreCounts();
+        when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
+        when(musicMapper.toEntity(any(UpdateMusicDTO.class), any(Music.class))).thenAnswer(invocation -> {
+            music.setGenre("Rock");
+            return music;
+        });
+        when(musicRepository.saveAndFlush(any(Music.class))).thenReturn(music);
+
+        underTest.update(1L, updateMusicDTO, null, null);
+
+        assertEquals(List.of(new GenreCount("Pop", 1), new GenreCount("Rock", 1)), underTest.countGenres());
+    }
+
+    @Test
+    void whenMusicIsDeleted_ThenItsGenreCountDrops() {
+        when(musicRepository.countGenres()).thenReturn(List.of(new GenreCount("Pop", 1)));
+        underTest.reconcileGenreCounts();
+        when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
+
+        underTest.delete(1L, 1L, null);
+
+        assertTrue(underTest.countGenres().isEmpty());
+    }
+
     // Tests for delete method
     @Test
     void whenDeleteExistingMusicByOwner_ThenReturnTrue() {
-        when(musicRepository.existsById(1L)).thenReturn(true);
         when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
 
-        boolean result = underTest.delete(1L, 1L);
+        boolean result = underTest.delete(1L, 1L, null);
 
         assertTrue(result);
-        verify(musicRepository).deleteById(1L);
+        verify(musicRepository).delete(music);
+    }
+
+    @Test
+    void whenDeleteWithStaleVersion_ThenThrowPreconditionFailed() {
+        music.setVersion(5);
+        when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
+
+        assertThrows(PreconditionFailedException.class, () -> underTest.delete(1L, 1L, 4L));
+        verify(musicRepository, never()).delete(any(Music.class));
     }
 
     @Test
     void whenDeleteNonExistingMusic_ThenThrowCustomException() {
-        when(musicRepository.existsById(1L)).thenReturn(false);
+        when(musicRepository.findById(1L)).thenReturn(Optional.empty());
 
-        assertThrows(CustomException.class, () -> underTest.delete(1L, 1L),
+        assertThrows(CustomException.class, () -> underTest.delete(1L, 1L, null),
                 "Музику з ID 1 не знайдено.");
-        verify(musicRepository, never()).deleteById(anyLong());
+        verify(musicRepository, never()).delete(any(Music.class));
     }
 
     @Test
     void whenDeleteByNonOwner_ThenThrowCustomException() {
-        when(musicRepository.existsById(1L)).thenReturn(true);
         when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
 
-        assertThrows(CustomException.class, () -> underTest.delete(1L, 2L),
+        assertThrows(CustomException.class, () -> underTest.delete(1L, 2L, null),
                 "Музика не належить користувачу з ID 2");
-        verify(musicRepository, never()).deleteById(anyLong());
+        verify(musicRepository, never()).delete(any(Music.class));
     }
 
     @Test
     void whenDeleteWithoutUserId_ThenDeleteSuccessfully() {
-        when(musicRepository.existsById(1L)).thenReturn(true);
         when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
 
-        boolean result = underTest.delete(1L, null);
+        boolean result = underTest.delete(1L, null, null);
 
         assertTrue(result);
-        verify(musicRepository).deleteById(1L);
+        verify(musicRepository).delete(music);
     }
 
     @Test
     void whenDeleteMusicWithNullUser_ThenDeleteSuccessfully() {
         music.setUser(null);
-        when(musicRepository.existsById(1L)).thenReturn(true);
         when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
 
-        boolean result = underTest.delete(1L, null);
+        boolean result = underTest.delete(1L, null, null);
 
         assertTrue(result);
-        verify(musicRepository).deleteById(1L);
+        verify(musicRepository).delete(music);
     }
 
     @Test
     void whenDeleteMusicWithNonMatchingUserId_ThenThrowCustomException() {
-        when(musicRepository.existsById(1L)).thenReturn(true);
         when(musicRepository.findById(1L)).thenReturn(Optional.of(music));
 
-        assertThrows(CustomException.class, () -> underTest.delete(1L, 999L),
+        assertThrows(CustomException.class, () -> underTest.delete(1L, 999L, null),
                 "Музика не належить користувачу з ID 999");
-        verify(musicRepository, never()).deleteById(anyLong());
+        verify(musicRepository, never()).delete(any(Music.class));
+    }
+
+    private static MediaMetadata media(String path, String sha256) {
+        return new MediaMetadata(path, "audio/mpeg", 9L, sha256, Instant.now());
     }
 }
\ No newline at end of file